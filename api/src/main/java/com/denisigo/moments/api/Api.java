@@ -0,0 +1,606 @@
+package com.denisigo.moments.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * API client for accessing API server. Thread-safe, so the process-wide
+ * instance returned by getInstance() should be used in most cases in order
+ * to share the keep-alive connections.
+ */
+public class Api {
+	private static final String TAG = "Api";
+
+	// Default base URL for our API endpoints.
+	public static final String API_URL = "https://moments-application.appspot.com/api/v1/";
+
+	private static Api sInstance;
+
+	// Runs callbacks right in the worker thread
+	private static final Executor DIRECT_EXECUTOR = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	// Amount of parsed pages kept to serve not modified responses
+	private static final int PARSED_PAGES_CACHE_SIZE = 8;
+
+	// Initial capacity of request bodies, enough for a moment
+	private static final int INITIAL_BODY_CAPACITY = 1024;
+	// Bodies grown bigger, i.e. by large batches, aren't kept for reuse
+	private static final int MAX_KEPT_BODY_CAPACITY = 64 * 1024;
+
+	// Request body of each worker thread, reused between posts
+	private static final ThreadLocal<RequestBody> sRequestBody = new ThreadLocal<RequestBody>() {
+		@Override
+		protected RequestBody initialValue() {
+			return new RequestBody(INITIAL_BODY_CAPACITY);
+		}
+	};
+
+	private ApiFetcher mApiFetcher;
+	private ApiExecutor mExecutor;
+	private final String mBaseUrl;
+
+	// Recently parsed pages by URL, in access order
+	private final Map<String, Moments> mParsedPages = new LinkedHashMap<String, Moments>(
+			PARSED_PAGES_CACHE_SIZE, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Moments> eldest) {
+			return size() > PARSED_PAGES_CACHE_SIZE;
+		}
+	};
+	private volatile Executor mCallbackExecutor = DIRECT_EXECUTOR;
+	private volatile ApiCodec mCodec = new JsonApiCodec();
+
+	public Api() {
+		// Instantiate API fetcher
+		this(new ApiFetcher());
+	}
+
+	public Api(ApiFetcher apiFetcher) {
+		this(apiFetcher, ApiExecutor.getInstance());
+	}
+
+	public Api(ApiFetcher apiFetcher, ApiExecutor executor) {
+		this(apiFetcher, executor, API_URL);
+	}
+
+	/**
+	 * @param baseUrl
+	 *            base URL of the endpoints ending with slash, i.e. of a local
+	 *            server for benchmarks
+	 */
+	public Api(ApiFetcher apiFetcher, ApiExecutor executor, String baseUrl) {
+		mApiFetcher = apiFetcher;
+		mExecutor = executor;
+		mBaseUrl = baseUrl;
+	}
+
+	/**
+	 * @return process-wide API client instance
+	 */
+	public static synchronized Api getInstance() {
+		if (sInstance == null)
+			sInstance = new Api();
+		return sInstance;
+	}
+
+	/**
+	 * @return fetcher used by the client, i.e. to read connection stats
+	 */
+	public ApiFetcher getApiFetcher() {
+		return mApiFetcher;
+	}
+
+	/**
+	 * Sets executor to run callbacks of asynchronous calls with, i.e. one
+	 * posting to UI thread. By default callbacks are run in worker thread.
+	 * 
+	 * @param executor
+	 *            Executor instance
+	 */
+	public void setCallbackExecutor(Executor executor) {
+		mCallbackExecutor = executor;
+	}
+
+	/**
+	 * Sets format of requests and responses, JsonApiCodec by default.
+	 * 
+	 * @param codec
+	 *            ApiCodec instance
+	 */
+	public void setCodec(ApiCodec codec) {
+		mCodec = codec;
+	}
+
+	public ApiCodec getCodec() {
+		return mCodec;
+	}
+
+	/**
+	 * Runs request asynchronously. Any API calls made by the request are
+	 * aborted when the returned call is cancelled.
+	 * 
+	 * @param request
+	 *            Callable doing the requests, run in worker thread
+	 * @param priority
+	 *            priority of the request
+	 * @param callback
+	 *            Callback for the result, may be null
+	 * @return ApiCall instance to cancel the request
+	 */
+	public <T> ApiCall<T> enqueue(Callable<T> request,
+			ApiExecutor.Priority priority, ApiCall.Callback<T> callback) {
+		ApiCall<T> call = new ApiCall<T>(request, callback, mCallbackExecutor);
+		mExecutor.execute(call, priority);
+		return call;
+	}
+
+	/**
+	 * Posts a new moment to the API asynchronously.
+	 * 
+	 * @param moment
+	 *            Moment instance
+	 * @param priority
+	 *            priority of the request
+	 * @param callback
+	 *            Callback for the result, may be null
+	 * @return ApiCall instance to cancel the request
+	 */
+	public ApiCall<Moment> postMomentAsync(final Moment moment,
+			ApiExecutor.Priority priority, ApiCall.Callback<Moment> callback) {
+		return enqueue(new Callable<Moment>() {
+			@Override
+			public Moment call() throws IOException {
+				return postMoment(moment);
+			}
+		}, priority, callback);
+	}
+
+	/**
+	 * Gets moments from cursor with some limit asynchronously.
+	 * 
+	 * @param cursor
+	 *            String for cursor
+	 * @param limit
+	 *            int for limit of moments
+	 * @param priority
+	 *            priority of the request
+	 * @param callback
+	 *            Callback for the result, may be null
+	 * @return ApiCall instance to cancel the request
+	 */
+	public ApiCall<Moments> getMomentsAsync(final String cursor,
+			final int limit, ApiExecutor.Priority priority,
+			ApiCall.Callback<Moments> callback) {
+		return enqueue(new Callable<Moments>() {
+			@Override
+			public Moments call() throws IOException {
+				return getMoments(cursor, limit);
+			}
+		}, priority, callback);
+	}
+
+	/**
+	 * Gets moments posted after some time with some limit asynchronously.
+	 * 
+	 * @param fromTime
+	 *            long epoch milliseconds
+	 * @param limit
+	 *            int for limit of moments
+	 * @param priority
+	 *            priority of the request
+	 * @param callback
+	 *            Callback for the result, may be null
+	 * @return ApiCall instance to cancel the request
+	 */
+	public ApiCall<Moments> getMomentsAsync(final long fromTime,
+			final int limit, ApiExecutor.Priority priority,
+			ApiCall.Callback<Moments> callback) {
+		return enqueue(new Callable<Moments>() {
+			@Override
+			public Moments call() throws IOException {
+				return getMoments(fromTime, limit);
+			}
+		}, priority, callback);
+	}
+
+	/**
+	 * Destructor. Should be called when API client is no more needed. Does
+	 * nothing for the process-wide instance.
+	 */
+	public void close() {
+		synchronized (Api.class) {
+			if (this == sInstance)
+				return;
+		}
+		mApiFetcher = null;
+	}
+
+	/**
+	 * Posts a new moment to the API. Synchronous! Should be wrapped with
+	 * AsyncTask or so.
+	 * 
+	 * @param moment
+	 *            Moment instance
+	 * @return posted Moment with id and added time assigned by the server,
+	 *         or null if the server didn't return it
+	 * @throws IOException
+	 */
+	public Moment postMoment(Moment moment) throws IOException {
+		return postMoment(moment, null);
+	}
+
+	/**
+	 * Posts a new moment to the API. The server ignores repeated posts with
+	 * the same idempotency key, so the moment can be resent safely if the
+	 * response is lost. Synchronous! Should be wrapped with AsyncTask or so.
+	 * 
+	 * @param moment
+	 *            Moment instance
+	 * @param idempotencyKey
+	 *            unique key of the moment, may be null
+	 * @return posted Moment with id and added time assigned by the server,
+	 *         or null if the server didn't return it
+	 * @throws IOException
+	 */
+	public Moment postMoment(Moment moment, String idempotencyKey)
+			throws IOException {
+
+		// Generate API endpoint URL
+		String urlstring = mBaseUrl + "moments";
+
+		URL url = null;
+		try {
+			url = new URL(urlstring);
+		} catch (MalformedURLException e) {
+			e.printStackTrace();
+		}
+
+		// Serialize right into the reusable body and fetch the API endpoint
+		RequestBody body = obtainRequestBody();
+		ApiFetcher.Result result;
+		try {
+			mCodec.writeMoment(moment, body);
+			result = mApiFetcher.post(url, body.getBuffer(), body.getLength(),
+					idempotencyKey);
+		} finally {
+			recycleRequestBody(body);
+		}
+
+		// Handle possible error response
+		handleError(result);
+
+		Moment posted = parsePosted(result.getBytes());
+		// Server may return just the fields it has assigned
+		if (posted != null && posted.getText() == null) {
+			posted.setText(moment.getText());
+			posted.setAuthorName(moment.getAuthorName());
+		}
+		return posted;
+	}
+
+	/**
+	 * Posts several moments in single request, i.e. to send queued moments
+	 * at once. The server must support batches. Synchronous! Should be
+	 * wrapped with AsyncTask or so.
+	 * 
+	 * @param moments
+	 *            array of moments
+	 * @param idempotencyKey
+	 *            unique key of the batch, may be null
+	 * @return posted moments in the same order, null where the server
+	 *         didn't return them
+	 * @throws IOException
+	 */
+	public Moment[] postMoments(Moment[] moments, String idempotencyKey)
+			throws IOException {
+
+		// Generate API endpoint URL
+		String urlstring = mBaseUrl + "moments";
+
+		URL url = null;
+		try {
+			url = new URL(urlstring);
+		} catch (MalformedURLException e) {
+			e.printStackTrace();
+		}
+
+		RequestBody body = obtainRequestBody();
+		ApiFetcher.Result result;
+		try {
+			mCodec.writeMoments(moments, body);
+			result = mApiFetcher.post(url, body.getBuffer(), body.getLength(),
+					idempotencyKey);
+		} finally {
+			recycleRequestBody(body);
+		}
+
+		// Handle possible error response
+		handleError(result);
+
+		Moment[] posted = new Moment[moments.length];
+		if (result.getBytes().length == 0)
+			return posted;
+
+		Moment[] returned;
+		try {
+			returned = mCodec.readMoments(
+					new ByteArrayInputStream(result.getBytes()), moments.length)
+					.getMoments();
+		} catch (IOException e) {
+			// Moments are posted anyway, they're just not known yet
+			ApiLog.w(TAG, "Unable to parse posted moments: " + e);
+			return posted;
+		}
+
+		for (int i = 0; i < posted.length && i < returned.length; i++) {
+			posted[i] = returned[i];
+			// Server may return just the fields it has assigned
+			if (posted[i].getText() == null) {
+				posted[i].setText(moments[i].getText());
+				posted[i].setAuthorName(moments[i].getAuthorName());
+			}
+		}
+		return posted;
+	}
+
+	/**
+	 * Gets moments from cursor with some limit. Synchronous implementation,
+	 * should be wrapped with AsyncTask or so.
+	 * 
+	 * @param cursor
+	 *            String for cursor
+	 * @param limit
+	 *            int for limit of moments
+	 * @return Moments collection instance
+	 * @throws IOException
+	 */
+	public Moments getMoments(String cursor, int limit) throws IOException {
+
+		// Generate API endpoint URL
+		String urlstring = mBaseUrl + "moments" + "?";
+		if (cursor != null)
+			urlstring += "&cursor=" + cursor;
+		urlstring += "&limit=" + Integer.toString(limit);
+
+		URL url = null;
+		try {
+			url = new URL(urlstring);
+		} catch (MalformedURLException e) {
+			e.printStackTrace();
+		}
+
+		return getMoments(url, limit);
+	}
+	
+	/**
+	 * Gets moments posted after some time with some limit. Synchronous implementation,
+	 * should be wrapped with AsyncTask or so.
+	 * 
+	 * @param fromTime
+	 *            Date instance
+	 * @param limit
+	 *            int for limit of moments
+	 * @return Moments collection instance
+	 * @throws IOException
+	 */
+	public Moments getMoments(Date fromTime, int limit) throws IOException {
+		return getMoments(fromTime.getTime(), limit);
+	}
+
+	/**
+	 * Gets moments posted after some time with some limit. Synchronous implementation,
+	 * should be wrapped with AsyncTask or so.
+	 * 
+	 * @param fromTime
+	 *            long epoch milliseconds
+	 * @param limit
+	 *            int for limit of moments
+	 * @return Moments collection instance
+	 * @throws IOException
+	 */
+	public Moments getMoments(long fromTime, int limit) throws IOException {
+		return getMoments(null, fromTime, limit);
+	}
+
+	/**
+	 * Continues getting moments posted after some time from cursor, which
+	 * was returned for the same fromTime. Synchronous implementation, should
+	 * be wrapped with AsyncTask or so.
+	 * 
+	 * @param cursor
+	 *            String for cursor, may be null for the first page
+	 * @param fromTime
+	 *            long epoch milliseconds
+	 * @param limit
+	 *            int for limit of moments
+	 * @return Moments collection instance
+	 * @throws IOException
+	 */
+	public Moments getMoments(String cursor, long fromTime, int limit)
+			throws IOException {
+		return getMoments(cursor, fromTime, limit, 0);
+	}
+
+	/**
+	 * Long polls for moments posted after some time. If there are none yet,
+	 * the server holds the request until some are posted or the wait time
+	 * is over, and returns empty page then. Server not supporting it returns
+	 * right away. Synchronous implementation, should be wrapped with
+	 * AsyncTask or so.
+	 * 
+	 * @param fromTime
+	 *            long epoch milliseconds
+	 * @param limit
+	 *            int for limit of moments
+	 * @param wait
+	 *            maximal time to wait for new moments, in seconds, should be
+	 *            shorter than read timeout
+	 * @return Moments collection instance
+	 * @throws IOException
+	 */
+	public Moments pollMoments(long fromTime, int limit, int wait)
+			throws IOException {
+		return getMoments(null, fromTime, limit, wait);
+	}
+
+	private Moments getMoments(String cursor, long fromTime, int limit,
+			int wait) throws IOException {
+
+		// Generate API endpoint URL
+		String urlstring = mBaseUrl + "moments" + "?";
+		if (cursor != null)
+			urlstring += "&cursor=" + cursor;
+		urlstring += "&from_time=" + Timestamps.format(fromTime);
+		urlstring += "&limit=" + Integer.toString(limit);
+		if (wait > 0)
+			urlstring += "&wait=" + Integer.toString(wait);
+
+		URL url = null;
+		try {
+			url = new URL(urlstring);
+		} catch (MalformedURLException e) {
+			e.printStackTrace();
+		}
+
+		return getMoments(url, limit);
+	}
+	
+	
+	/**
+	 * Universal method for getting Moments by any parameters
+	 * 
+	 * @param url URL instance for API call
+	 * @param limit int for limit of moments, used to size the result
+	 * @return Moments instance
+	 * @throws IOException
+	 */
+	private Moments getMoments(URL url, final int limit) throws IOException {
+
+		final String key = url.toString();
+
+		// Fetch the API endpoint and parse moments right from the stream
+		Moments result = mApiFetcher.get(url,
+				new ApiFetcher.ResponseHandler<Moments>() {
+					@Override
+					public Moments handleResponse(int statusCode,
+							InputStream is) throws IOException {
+						// Page hasn't changed, so there is no need to parse
+						// it again if it was parsed recently
+						if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+							synchronized (mParsedPages) {
+								Moments moments = mParsedPages.get(key);
+								if (moments != null)
+									return moments.copy();
+							}
+						} else if (statusCode != HttpURLConnection.HTTP_OK) {
+							// Handle possible error response
+							handleError(new ApiFetcher.Result(statusCode,
+									ApiFetcher.readContent(is)));
+						}
+
+						CountingInputStream counting = new CountingInputStream(
+								is);
+						Moments moments = mCodec.readMoments(counting, limit);
+						moments.setByteCount(counting.getCount());
+						return moments;
+					}
+				});
+
+		if (mApiFetcher.getResponseCache() != null) {
+			// Callers may change what they get, so a copy is kept
+			Moments parsed = result.copy();
+			synchronized (mParsedPages) {
+				mParsedPages.put(key, parsed);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return empty request body of current thread
+	 */
+	private static RequestBody obtainRequestBody() {
+		RequestBody body = sRequestBody.get();
+		body.reset();
+		return body;
+	}
+
+	private static void recycleRequestBody(RequestBody body) {
+		// Don't hold on to memory of a large batch
+		if (body.getCapacity() > MAX_KEPT_BODY_CAPACITY)
+			sRequestBody.remove();
+	}
+
+	/**
+	 * Parses moment from response to posting it.
+	 * 
+	 * @param content
+	 *            of the response
+	 * @return Moment instance, or null if there is none
+	 */
+	private Moment parsePosted(byte[] content) {
+		if (content.length == 0)
+			return null;
+
+		try {
+			return mCodec.readPosted(new ByteArrayInputStream(content));
+		} catch (IOException e) {
+			// Moment is posted anyway, it's just not known yet
+			ApiLog.w(TAG, "Unable to parse posted moment: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Checks whether there is error status code and throws exception with
+	 * appropriate text.
+	 * 
+	 * @param result
+	 *            of request to the API
+	 * @throws ApiException
+	 */
+	private void handleError(ApiFetcher.Result result) throws ApiException {
+		if (result.getStatusCode() != HttpURLConnection.HTTP_OK) {
+			// Get error message from content
+			String errorMessage = parseError(result.getBytes());
+			if (errorMessage != null)
+				errorMessage = ", " + errorMessage;
+
+			throw new ApiException(result.getStatusCode(),
+					"Error fetching API endpoint ("
+							+ Integer.toString(result.getStatusCode())
+							+ errorMessage + ")");
+		}
+	}
+
+	/**
+	 * Parses error message from response.
+	 * 
+	 * @param content
+	 *            of the response.
+	 * @return
+	 */
+	private String parseError(byte[] content) {
+		String message = null;
+		try {
+			message = mCodec.readError(new ByteArrayInputStream(content));
+		} catch (IOException e) {
+		}
+		return message != null ? message : "";
+	}
+}
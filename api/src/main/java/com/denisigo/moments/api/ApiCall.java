@@ -0,0 +1,160 @@
+package com.denisigo.moments.api;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Asynchronous API call. Cancelling it aborts the connection being read, so
+ * the worker thread and the socket are released immediately rather than
+ * after the read timeout.
+ */
+public class ApiCall<T> extends FutureTask<T> {
+
+	// Call being run by the current thread, so ApiFetcher can attach the
+	// connection to it
+	private static final ThreadLocal<ApiCall<?>> sCurrent = new ThreadLocal<ApiCall<?>>();
+
+	private final Callback<T> mCallback;
+	private final Executor mCallbackExecutor;
+
+	// Connection being read by the call, if any
+	private volatile ApiTransport.Exchange mConnection;
+
+	/*
+	 * Receives result of the call. Isn't called if the call is cancelled.
+	 */
+	public interface Callback<T> {
+		/**
+		 * Called when the call is completed successfully.
+		 *
+		 * @param result
+		 *            result of the call
+		 */
+		public void onSuccess(T result);
+
+		/**
+		 * Called when the call failed.
+		 *
+		 * @param e
+		 *            exception thrown by the call
+		 */
+		public void onFailure(IOException e);
+	}
+
+	/**
+	 * @param request
+	 *            Callable doing the request, run in worker thread
+	 * @param callback
+	 *            Callback for the result, may be null
+	 * @param callbackExecutor
+	 *            Executor to run callback with, i.e. in UI thread
+	 */
+	public ApiCall(Callable<T> request, Callback<T> callback,
+			Executor callbackExecutor) {
+		super(request);
+		mCallback = callback;
+		mCallbackExecutor = callbackExecutor;
+	}
+
+	/**
+	 * @return call being run by the current thread, or null
+	 */
+	static ApiCall<?> current() {
+		return sCurrent.get();
+	}
+
+	@Override
+	public void run() {
+		sCurrent.set(this);
+		try {
+			super.run();
+		} finally {
+			sCurrent.remove();
+		}
+	}
+
+	/**
+	 * Cancels the call. If it's running, the connection is aborted and the
+	 * worker thread is interrupted.
+	 */
+	public boolean cancel() {
+		return cancel(true);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean result = super.cancel(mayInterruptIfRunning);
+		if (result)
+			abort();
+		return result;
+	}
+
+	/**
+	 * Attaches connection to the call, so it can be aborted. Called by
+	 * ApiFetcher once the connection is opened.
+	 */
+	void attach(ApiTransport.Exchange connection) throws IOException {
+		mConnection = connection;
+
+		// Call could be cancelled before connection was attached
+		if (isCancelled()) {
+			abort();
+			throw new IOException("Call is cancelled");
+		}
+	}
+
+	/**
+	 * Detaches connection from the call once it's not used anymore.
+	 */
+	void detach() {
+		mConnection = null;
+	}
+
+	private void abort() {
+		ApiTransport.Exchange connection = mConnection;
+		if (connection != null)
+			// Closes the socket, so blocked reading throws IOException
+			connection.disconnect();
+	}
+
+	@Override
+	protected void done() {
+		if (mCallback == null || isCancelled())
+			return;
+
+		mCallbackExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				// Could be cancelled while waiting for callback executor
+				if (isCancelled())
+					return;
+
+				T result;
+				try {
+					result = get();
+				} catch (CancellationException e) {
+					return;
+				} catch (InterruptedException e) {
+					return;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException) {
+						mCallback.onFailure((IOException) cause);
+						return;
+					}
+					// Programming errors must not be swallowed
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					if (cause instanceof Error)
+						throw (Error) cause;
+					throw new RuntimeException(cause);
+				}
+				mCallback.onSuccess(result);
+			}
+		});
+	}
+}
@@ -0,0 +1,156 @@
+package com.denisigo.moments.api;
+
+import java.io.IOException;
+
+/**
+ * Circuit breaker protecting the server from clients hammering it while
+ * it's failing. After several consecutive failures requests fail fast for
+ * some time, then a single probe request is let through, and the circuit
+ * closes again if it succeeds. Thread-safe.
+ */
+public class ApiCircuitBreaker {
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_OPEN_DURATION = 30000;
+
+	/*
+	 * Breaker states.
+	 */
+	public enum State {
+		// Requests go through
+		CLOSED,
+		// Requests fail fast
+		OPEN,
+		// Single probe request goes through
+		HALF_OPEN
+	}
+
+	/*
+	 * Thrown instead of making a request while the circuit is open.
+	 */
+	public static class OpenException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public OpenException() {
+			super("Circuit is open, request is not sent");
+		}
+	}
+
+	private final int mFailureThreshold;
+	private final long mOpenDuration;
+
+	private State mState = State.CLOSED;
+	private int mConsecutiveFailures;
+	private long mOpenedAt;
+	private boolean mIsProbing;
+
+	// Counters
+	private long mTripCount;
+	private long mRejectedCount;
+
+	public ApiCircuitBreaker() {
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION);
+	}
+
+	/**
+	 * @param failureThreshold
+	 *            amount of consecutive failures opening the circuit
+	 * @param openDuration
+	 *            time the circuit stays open before probing, in milliseconds
+	 */
+	public ApiCircuitBreaker(int failureThreshold, long openDuration) {
+		if (failureThreshold <= 0 || openDuration < 0)
+			throw new IllegalArgumentException("Invalid breaker parameters");
+
+		mFailureThreshold = failureThreshold;
+		mOpenDuration = openDuration;
+	}
+
+	/**
+	 * Should be called before making a request.
+	 *
+	 * @throws OpenException
+	 *             if the request must not be made
+	 */
+	public synchronized void acquire() throws OpenException {
+		if (mState == State.OPEN && now() - mOpenedAt >= mOpenDuration)
+			mState = State.HALF_OPEN;
+
+		if (mState == State.OPEN || (mState == State.HALF_OPEN && mIsProbing)) {
+			mRejectedCount++;
+			throw new OpenException();
+		}
+
+		if (mState == State.HALF_OPEN)
+			mIsProbing = true;
+	}
+
+	/**
+	 * Should be called when server responded normally.
+	 */
+	public synchronized void onSuccess() {
+		mConsecutiveFailures = 0;
+		mIsProbing = false;
+		mState = State.CLOSED;
+	}
+
+	/**
+	 * Should be called when request failed because of the server or
+	 * network.
+	 */
+	public synchronized void onFailure() {
+		mConsecutiveFailures++;
+
+		// Failed probe opens the circuit right away
+		if (mState == State.HALF_OPEN
+				|| (mState == State.CLOSED && mConsecutiveFailures >= mFailureThreshold)) {
+			mState = State.OPEN;
+			mOpenedAt = now();
+			mTripCount++;
+		}
+		mIsProbing = false;
+	}
+
+	/**
+	 * Should be called when request was given up without an outcome, i.e.
+	 * cancelled, so the probe doesn't block the circuit.
+	 */
+	public synchronized void onAbandoned() {
+		mIsProbing = false;
+	}
+
+	public synchronized State getState() {
+		if (mState == State.OPEN && now() - mOpenedAt >= mOpenDuration)
+			return State.HALF_OPEN;
+		return mState;
+	}
+
+	/**
+	 * @return how many times the circuit was opened
+	 */
+	public synchronized long getTripCount() {
+		return mTripCount;
+	}
+
+	/**
+	 * @return amount of requests failed fast
+	 */
+	public synchronized long getRejectedCount() {
+		return mRejectedCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ApiCircuitBreaker [state=" + getState() + ", failures="
+				+ mConsecutiveFailures + ", trips=" + mTripCount
+				+ ", rejected=" + mRejectedCount + "]";
+	}
+
+	/**
+	 * @return current monotonic time in milliseconds, can be overridden for
+	 *         virtual time
+	 */
+	protected long now() {
+		return System.nanoTime() / 1000000;
+	}
+}
@@ -0,0 +1,60 @@
+package com.denisigo.moments.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Format of API requests and responses. JsonApiCodec is used by default.
+ * Implementations must be thread-safe.
+ */
+public interface ApiCodec {
+
+	/**
+	 * Reads page of moments.
+	 *
+	 * @param is
+	 *            InputStream of the response
+	 * @param expectedCount
+	 *            expected amount of moments (usually request limit)
+	 * @return Moments instance
+	 * @throws IOException
+	 *             if stream can't be read or response is malformed
+	 */
+	Moments readMoments(InputStream is, int expectedCount) throws IOException;
+
+	/**
+	 * Reads response to posting a moment.
+	 *
+	 * @return posted Moment, or null if the response has no moment
+	 * @throws IOException
+	 *             if stream can't be read or response is malformed
+	 */
+	Moment readPosted(InputStream is) throws IOException;
+
+	/**
+	 * Reads message of error response.
+	 *
+	 * @return error message, or null if there is none
+	 */
+	String readError(InputStream is) throws IOException;
+
+	/**
+	 * Writes moment to post.
+	 *
+	 * @param moment
+	 *            Moment instance, only its text and author name are written
+	 * @param body
+	 *            RequestBody to append to
+	 */
+	void writeMoment(Moment moment, RequestBody body) throws IOException;
+
+	/**
+	 * Writes batch of moments to post in single request.
+	 *
+	 * @param moments
+	 *            array of moments
+	 * @param body
+	 *            RequestBody to append to
+	 */
+	void writeMoments(Moment[] moments, RequestBody body) throws IOException;
+}
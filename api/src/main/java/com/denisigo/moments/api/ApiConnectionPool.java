@@ -0,0 +1,312 @@
+package com.denisigo.moments.api;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keep-alive connection pool configuration and reuse counters.
+ *
+ * HttpURLConnection keeps sockets alive by itself as long as we read the
+ * response to the end, close the stream and don't call disconnect(). The
+ * platform pool is configured by "http.*" system properties, which it reads
+ * once, so configurePlatform() should be called at application start.
+ *
+ * The platform pool can't be inspected, so reuse is counted two ways.
+ * Measured counters classify requests by the time connect() took: reused
+ * socket is handed out at once, while new one needs at least a network
+ * round trip. On loopback or very fast networks new connections may be
+ * counted as reused. Modeled counters come from a model of the pool fed
+ * by requests acquiring and releasing connections, with the same limits
+ * and keep-alive time. Connections closed by the server or the network are
+ * not seen by the model, so it's an upper bound of reuse, and the gap
+ * between the two shows connections lost that way.
+ */
+public class ApiConnectionPool {
+
+	// Default maximum of idle connections kept alive, in total
+	public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+	// Default time idle connection is kept alive, in milliseconds
+	public static final long DEFAULT_KEEP_ALIVE_DURATION = 5 * 60 * 1000;
+	// Longest connect() of reused connection, in nanoseconds
+	public static final long MAX_REUSED_CONNECT_TIME = 1000000;
+
+	private final int mMaxIdleConnections;
+	private final long mKeepAliveDuration;
+
+	// Release times of modeled idle connections by host, most recent is the
+	// last
+	private final Map<String, ArrayDeque<Long>> mIdle = new HashMap<String, ArrayDeque<Long>>();
+	private int mIdleCount;
+
+	// Measured counters
+	private long mReusedCount;
+	private long mNewCount;
+
+	// Modeled counters
+	private long mModeledReusedCount;
+	private long mModeledNewCount;
+	private long mModeledExpiredCount;
+
+	/**
+	 * Models the pool configured by the "http.*" system properties, i.e. by
+	 * configurePlatform().
+	 */
+	public ApiConnectionPool() {
+		this(getPlatformMaxIdleConnections(), getPlatformKeepAliveDuration());
+	}
+
+	/**
+	 * Models the pool with the given limits. The platform pool isn't
+	 * changed.
+	 *
+	 * @param maxIdleConnections
+	 *            maximum of idle connections kept alive, in total
+	 * @param keepAliveDuration
+	 *            time in milliseconds idle connection is kept alive
+	 */
+	public ApiConnectionPool(int maxIdleConnections, long keepAliveDuration) {
+		if (maxIdleConnections < 0 || keepAliveDuration < 0)
+			throw new IllegalArgumentException("Pool parameters must be >= 0");
+
+		mMaxIdleConnections = maxIdleConnections;
+		mKeepAliveDuration = keepAliveDuration;
+	}
+
+	/**
+	 * Configures the platform pool of the process. Should be called once at
+	 * application start, before any connection is opened, as the platform
+	 * reads the configuration when its pool is first used and ignores later
+	 * changes.
+	 *
+	 * Android pools idle connections of all hosts together, so the limit is
+	 * in total. Desktop JVMs apply it per host, which is the same for our
+	 * single API host.
+	 *
+	 * @param maxIdleConnections
+	 *            maximum of idle connections to keep alive, in total
+	 * @param keepAliveDuration
+	 *            time in milliseconds idle connection is kept alive
+	 */
+	public static void configurePlatform(int maxIdleConnections,
+			long keepAliveDuration) {
+		if (maxIdleConnections < 0 || keepAliveDuration < 0)
+			throw new IllegalArgumentException("Pool parameters must be >= 0");
+
+		boolean keepAlive = maxIdleConnections > 0 && keepAliveDuration > 0;
+		System.setProperty("http.keepAlive", Boolean.toString(keepAlive));
+		System.setProperty("http.maxConnections",
+				Integer.toString(Math.max(maxIdleConnections, 1)));
+		// Honored by Android's HttpURLConnection implementation
+		System.setProperty("http.keepAliveDuration",
+				Long.toString(keepAliveDuration));
+	}
+
+	public int getMaxIdleConnections() {
+		return mMaxIdleConnections;
+	}
+
+	public long getKeepAliveDuration() {
+		return mKeepAliveDuration;
+	}
+
+	/**
+	 * Should be called before opening a connection to the host.
+	 *
+	 * @param host
+	 *            host and port of the URL
+	 * @return true if the model has a warm connection to reuse
+	 */
+	synchronized boolean acquire(String host) {
+		expire();
+
+		ArrayDeque<Long> idle = mIdle.get(host);
+		if (idle != null && !idle.isEmpty()) {
+			// Most recently used connection is picked up first
+			idle.pollLast();
+			mIdleCount--;
+			mModeledReusedCount++;
+			return true;
+		}
+
+		mModeledNewCount++;
+		return false;
+	}
+
+	/**
+	 * Should be called once connection is opened.
+	 *
+	 * @param connectTime
+	 *            time connect() took, in nanoseconds
+	 */
+	synchronized void connected(long connectTime) {
+		if (connectTime <= MAX_REUSED_CONNECT_TIME)
+			mReusedCount++;
+		else
+			mNewCount++;
+	}
+
+	/**
+	 * Should be called when response was read to the end and connection is
+	 * returned to the pool.
+	 *
+	 * @param host
+	 *            host and port of the URL
+	 */
+	synchronized void release(String host) {
+		if (mMaxIdleConnections == 0 || mKeepAliveDuration == 0)
+			return;
+
+		ArrayDeque<Long> idle = mIdle.get(host);
+		if (idle == null) {
+			idle = new ArrayDeque<Long>();
+			mIdle.put(host, idle);
+		}
+		idle.addLast(now());
+		mIdleCount++;
+
+		// Platform pool drops the oldest connections when it's full
+		while (mIdleCount > mMaxIdleConnections)
+			expireOldest();
+	}
+
+	/**
+	 * Forgets modeled connections the platform has closed by now, being
+	 * idle longer than keep alive duration.
+	 */
+	private void expire() {
+		long deadline = now() - mKeepAliveDuration;
+
+		Iterator<ArrayDeque<Long>> it = mIdle.values().iterator();
+		while (it.hasNext()) {
+			ArrayDeque<Long> idle = it.next();
+			while (!idle.isEmpty() && idle.peekFirst() <= deadline) {
+				idle.pollFirst();
+				mIdleCount--;
+				mModeledExpiredCount++;
+			}
+			if (idle.isEmpty())
+				it.remove();
+		}
+	}
+
+	/**
+	 * Forgets the oldest modeled idle connection of all hosts.
+	 */
+	private void expireOldest() {
+		ArrayDeque<Long> oldest = null;
+		for (ArrayDeque<Long> idle : mIdle.values()) {
+			if (!idle.isEmpty()
+					&& (oldest == null || idle.peekFirst() < oldest.peekFirst()))
+				oldest = idle;
+		}
+		if (oldest == null)
+			return;
+
+		oldest.pollFirst();
+		mIdleCount--;
+		mModeledExpiredCount++;
+	}
+
+	/**
+	 * @return amount of requests served by reused connections, measured by
+	 *         connect time
+	 */
+	public synchronized long getReusedCount() {
+		return mReusedCount;
+	}
+
+	/**
+	 * @return amount of requests which opened a new connection, measured by
+	 *         connect time
+	 */
+	public synchronized long getNewCount() {
+		return mNewCount;
+	}
+
+	/**
+	 * @return measured part of requests served by reused connections, from 0
+	 *         to 1
+	 */
+	public synchronized float getHitRate() {
+		return rate(mReusedCount, mNewCount);
+	}
+
+	/**
+	 * @return amount of idle connections in the model
+	 */
+	public synchronized int getModeledIdleCount() {
+		return mIdleCount;
+	}
+
+	/**
+	 * @return amount of requests served by warm connections in the model
+	 */
+	public synchronized long getModeledReusedCount() {
+		return mModeledReusedCount;
+	}
+
+	/**
+	 * @return amount of requests which required a new connection in the
+	 *         model
+	 */
+	public synchronized long getModeledNewCount() {
+		return mModeledNewCount;
+	}
+
+	/**
+	 * @return amount of idle connections closed by the platform in the model
+	 */
+	public synchronized long getModeledExpiredCount() {
+		return mModeledExpiredCount;
+	}
+
+	/**
+	 * @return part of requests served by warm connections in the model, from
+	 *         0 to 1
+	 */
+	public synchronized float getModeledHitRate() {
+		return rate(mModeledReusedCount, mModeledNewCount);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(Locale.US, "ApiConnectionPool [reused=%d, "
+				+ "new=%d, hit rate=%.2f; modeled reused=%d, new=%d, "
+				+ "expired=%d, idle=%d, hit rate=%.2f]", mReusedCount,
+				mNewCount, getHitRate(), mModeledReusedCount,
+				mModeledNewCount, mModeledExpiredCount, mIdleCount,
+				getModeledHitRate());
+	}
+
+	private static float rate(long reused, long created) {
+		long total = reused + created;
+		return total == 0 ? 0 : (float) reused / total;
+	}
+
+	private static int getPlatformMaxIdleConnections() {
+		if (!Boolean.parseBoolean(System.getProperty("http.keepAlive", "true")))
+			return 0;
+		try {
+			return Integer.parseInt(System.getProperty("http.maxConnections",
+					Integer.toString(DEFAULT_MAX_IDLE_CONNECTIONS)));
+		} catch (NumberFormatException e) {
+			return DEFAULT_MAX_IDLE_CONNECTIONS;
+		}
+	}
+
+	private static long getPlatformKeepAliveDuration() {
+		try {
+			return Long.parseLong(System.getProperty("http.keepAliveDuration",
+					Long.toString(DEFAULT_KEEP_ALIVE_DURATION)));
+		} catch (NumberFormatException e) {
+			return DEFAULT_KEEP_ALIVE_DURATION;
+		}
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+}
@@ -0,0 +1,36 @@
+package com.denisigo.moments.api;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Thrown when API server responds with an error status.
+ */
+public class ApiException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int mStatusCode;
+
+	public ApiException(int statusCode, String message) {
+		super(message);
+		mStatusCode = statusCode;
+	}
+
+	/**
+	 * @return HTTP status code of the response
+	 */
+	public int getStatusCode() {
+		return mStatusCode;
+	}
+
+	/**
+	 * @return whether the same request is going to fail again, i.e. it's
+	 *         invalid, rather than the server being temporarily unavailable
+	 */
+	public boolean isPermanent() {
+		return mStatusCode >= 400 && mStatusCode < 500
+				&& mStatusCode != HttpURLConnection.HTTP_CLIENT_TIMEOUT
+				&& mStatusCode != ApiRetryPolicy.HTTP_TOO_MANY_REQUESTS;
+	}
+}
@@ -0,0 +1,218 @@
+package com.denisigo.moments.api;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread pool for API requests. Unlike the serial AsyncTask executor, it
+ * runs several independent requests at once and picks queued requests by
+ * priority, so user initiated requests don't wait behind prefetching.
+ */
+public class ApiExecutor {
+
+	// Default amount of threads
+	public static final int DEFAULT_POOL_SIZE = 3;
+	// Idle threads are stopped after this time, in seconds
+	private static final long KEEP_ALIVE_TIME = 30;
+
+	/*
+	 * Priorities of the requests, from the highest to the lowest.
+	 */
+	public enum Priority {
+		// Requests the user explicitly asked for: refresh, post
+		USER,
+		// Requests the user waits for: visible page load
+		VISIBLE,
+		// Requests made ahead of time: prefetching
+		BACKGROUND
+	}
+
+	private static ApiExecutor sInstance;
+
+	private final ThreadPoolExecutor mExecutor;
+	private final Executor[] mPriorityExecutors;
+
+	// Sequence number to keep FIFO order within the same priority
+	private final AtomicLong mSequence = new AtomicLong();
+
+	// Stats
+	private final AtomicLong mTaskCount = new AtomicLong();
+	private final AtomicLong mTotalWaitTime = new AtomicLong();
+	private final AtomicLong mMaxWaitTime = new AtomicLong();
+	private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+	/**
+	 * @return process-wide executor instance
+	 */
+	public static synchronized ApiExecutor getInstance() {
+		if (sInstance == null)
+			sInstance = new ApiExecutor(DEFAULT_POOL_SIZE);
+		return sInstance;
+	}
+
+	public ApiExecutor(int poolSize) {
+		if (poolSize <= 0)
+			throw new IllegalArgumentException("Pool size must be > 0");
+
+		mExecutor = new ThreadPoolExecutor(poolSize, poolSize,
+				KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger mCount = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Api #"
+								+ mCount.incrementAndGet());
+						// Keep UI thread responsive
+						thread.setPriority(Thread.NORM_PRIORITY - 1);
+						return thread;
+					}
+				});
+		mExecutor.allowCoreThreadTimeOut(true);
+
+		Priority[] priorities = Priority.values();
+		mPriorityExecutors = new Executor[priorities.length];
+		for (final Priority priority : priorities) {
+			mPriorityExecutors[priority.ordinal()] = new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					ApiExecutor.this.execute(command, priority);
+				}
+			};
+		}
+	}
+
+	/**
+	 * Schedules the task.
+	 *
+	 * @param task
+	 *            Runnable to run in the pool
+	 * @param priority
+	 *            priority of the task
+	 */
+	public void execute(Runnable task, Priority priority) {
+		mExecutor.execute(new PrioritizedTask(task, priority,
+				mSequence.getAndIncrement()));
+
+		int depth = mExecutor.getQueue().size();
+		int max;
+		while (depth > (max = mMaxQueueDepth.get())
+				&& !mMaxQueueDepth.compareAndSet(max, depth))
+			;
+	}
+
+	/**
+	 * @param priority
+	 *            priority of the tasks
+	 * @return Executor scheduling tasks with the priority, i.e. for
+	 *         AsyncTask.executeOnExecutor()
+	 */
+	public Executor getExecutor(Priority priority) {
+		return mPriorityExecutors[priority.ordinal()];
+	}
+
+	/**
+	 * Stops accepting new tasks.
+	 */
+	public void shutdown() {
+		mExecutor.shutdown();
+	}
+
+	public int getPoolSize() {
+		return mExecutor.getMaximumPoolSize();
+	}
+
+	/**
+	 * @return amount of tasks waiting for a thread
+	 */
+	public int getQueueDepth() {
+		return mExecutor.getQueue().size();
+	}
+
+	public int getMaxQueueDepth() {
+		return mMaxQueueDepth.get();
+	}
+
+	public int getActiveCount() {
+		return mExecutor.getActiveCount();
+	}
+
+	/**
+	 * @return amount of tasks started
+	 */
+	public long getTaskCount() {
+		return mTaskCount.get();
+	}
+
+	/**
+	 * @return average time tasks waited for a thread, in milliseconds
+	 */
+	public long getAverageWaitTime() {
+		long count = mTaskCount.get();
+		return count == 0 ? 0 : mTotalWaitTime.get() / count;
+	}
+
+	/**
+	 * @return maximal time task waited for a thread, in milliseconds
+	 */
+	public long getMaxWaitTime() {
+		return mMaxWaitTime.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ApiExecutor [pool=" + getPoolSize() + ", active="
+				+ getActiveCount() + ", queue=" + getQueueDepth()
+				+ ", maxQueue=" + getMaxQueueDepth() + ", tasks="
+				+ getTaskCount() + ", avgWait=" + getAverageWaitTime()
+				+ "ms, maxWait=" + getMaxWaitTime() + "ms]";
+	}
+
+	private void onTaskStarted(long waitTime) {
+		mTaskCount.incrementAndGet();
+		mTotalWaitTime.addAndGet(waitTime);
+
+		long max;
+		while (waitTime > (max = mMaxWaitTime.get())
+				&& !mMaxWaitTime.compareAndSet(max, waitTime))
+			;
+	}
+
+	/*
+	 * Task wrapper ordered by priority and then by submission order.
+	 */
+	private class PrioritizedTask implements Runnable,
+			Comparable<PrioritizedTask> {
+		private final Runnable mTask;
+		private final Priority mPriority;
+		private final long mSequence;
+		private final long mEnqueueTime;
+
+		PrioritizedTask(Runnable task, Priority priority, long sequence) {
+			mTask = task;
+			mPriority = priority;
+			mSequence = sequence;
+			mEnqueueTime = System.nanoTime();
+		}
+
+		@Override
+		public void run() {
+			onTaskStarted((System.nanoTime() - mEnqueueTime) / 1000000);
+			mTask.run();
+		}
+
+		@Override
+		public int compareTo(PrioritizedTask another) {
+			int result = mPriority.compareTo(another.mPriority);
+			if (result != 0)
+				return result;
+			return mSequence < another.mSequence ? -1
+					: (mSequence == another.mSequence ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,809 @@
+package com.denisigo.moments.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Helper class used to fetch API URLs via GET or POST and send data.
+ * Thread-safe, connections are kept alive and shared between requests.
+ * Exchanges are made by ApiTransport, HttpTransport by default.
+ * Failed requests are retried according to ApiRetryPolicy, and requests fail
+ * fast while ApiCircuitBreaker is open.
+ */
+public class ApiFetcher {
+	private static final String TAG = "ApiFetcher";
+
+	private final static String GET = "GET";
+	private final static String POST = "POST";
+
+	private final static String GZIP = "gzip";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final byte[] EMPTY_CONTENT = new byte[0];
+
+	// Content longer than that isn't read into array of announced length
+	// at once, in case the header is bogus
+	private static final int MAX_PRESIZED_LENGTH = 4 * 1024 * 1024;
+
+	// The rest of failed response is skipped to keep the connection only
+	// if it's not longer than that
+	private static final long MAX_SKIPPED_LENGTH = 16 * 1024;
+
+	// Buffers for reading contents of unknown length and draining streams
+	private static final BufferPool sBufferPool = new BufferPool(8192, 16);
+
+	private final ApiTransport mTransport;
+	private final ApiConnectionPool mPool;
+	private final ApiTrafficStats mTrafficStats = new ApiTrafficStats();
+	private final ApiMetrics mMetrics = new ApiMetrics();
+	private final AtomicLong mRetryCount = new AtomicLong();
+
+	// Whether request bodies should be compressed, server must support it
+	private volatile boolean mCompressRequests;
+	// Cache for conditional GET requests, may be null
+	private volatile ApiResponseCache mResponseCache;
+	private volatile ApiRetryPolicy mRetryPolicy = new ApiRetryPolicy();
+	private volatile ApiCircuitBreaker mCircuitBreaker = new ApiCircuitBreaker();
+
+	/*
+	 * Thrown by single attempt when the request should be repeated.
+	 */
+	private static class RetryException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private final long mDelay;
+		// Retry should be made without cache validators
+		private final boolean mIsUnconditional;
+
+		RetryException(long delay, Throwable cause) {
+			this(delay, cause, false);
+		}
+
+		RetryException(long delay, Throwable cause, boolean isUnconditional) {
+			super("Request should be retried");
+			initCause(cause);
+			mDelay = delay;
+			mIsUnconditional = isUnconditional;
+		}
+	}
+
+	public ApiFetcher() {
+		this(new ApiConnectionPool());
+	}
+
+	public ApiFetcher(ApiConnectionPool pool) {
+		this(new HttpTransport(), pool);
+	}
+
+	public ApiFetcher(ApiTransport transport) {
+		this(transport, new ApiConnectionPool());
+	}
+
+	public ApiFetcher(ApiTransport transport, ApiConnectionPool pool) {
+		mTransport = transport;
+		mPool = pool;
+	}
+
+	/**
+	 * @return transport making the exchanges
+	 */
+	public ApiTransport getTransport() {
+		return mTransport;
+	}
+
+	/**
+	 * @return connection pool used by the fetcher
+	 */
+	public ApiConnectionPool getConnectionPool() {
+		return mPool;
+	}
+
+	/**
+	 * @return counters of transferred bytes by endpoint
+	 */
+	public ApiTrafficStats getTrafficStats() {
+		return mTrafficStats;
+	}
+
+	/**
+	 * @return latency, status and traffic metrics by endpoint
+	 */
+	public ApiMetrics getMetrics() {
+		return mMetrics;
+	}
+
+	/**
+	 * Enables gzip compression of request bodies. Disabled by default.
+	 * 
+	 * @param compressRequests
+	 *            whether to compress request bodies
+	 */
+	public void setCompressRequests(boolean compressRequests) {
+		mCompressRequests = compressRequests;
+	}
+
+	/**
+	 * Sets cache for GET responses. Cached responses are revalidated with
+	 * conditional requests and passed to the handler with
+	 * HTTP_NOT_MODIFIED status if they haven't changed.
+	 * 
+	 * @param cache
+	 *            ApiResponseCache instance, or null to disable caching
+	 */
+	public void setResponseCache(ApiResponseCache cache) {
+		mResponseCache = cache;
+	}
+
+	public ApiResponseCache getResponseCache() {
+		return mResponseCache;
+	}
+
+	/**
+	 * Sets policy of retrying failed requests. Only GET requests and POST
+	 * requests with idempotency key are retried after network errors and
+	 * server errors, any request is retried after 429 Too Many Requests.
+	 * 
+	 * @param policy
+	 *            ApiRetryPolicy instance, ApiRetryPolicy.NONE to disable
+	 *            retries
+	 */
+	public void setRetryPolicy(ApiRetryPolicy policy) {
+		mRetryPolicy = policy;
+	}
+
+	public ApiRetryPolicy getRetryPolicy() {
+		return mRetryPolicy;
+	}
+
+	/**
+	 * Sets circuit breaker used to fail fast while the server is down.
+	 * 
+	 * @param breaker
+	 *            ApiCircuitBreaker instance
+	 */
+	public void setCircuitBreaker(ApiCircuitBreaker breaker) {
+		mCircuitBreaker = breaker;
+	}
+
+	public ApiCircuitBreaker getCircuitBreaker() {
+		return mCircuitBreaker;
+	}
+
+	/**
+	 * @return amount of retried attempts
+	 */
+	public long getRetryCount() {
+		return mRetryCount.get();
+	}
+
+	/*
+	 * Container for result. Contains status code and content data of the
+	 * response.
+	 */
+	public static class Result {
+		private byte[] mBytes;
+		// Decoded lazily, once
+		private String mContent;
+		private int mStatusCode;
+
+		public Result(int statusCode, byte[] content) {
+			this.setBytes(content);
+			this.setStatusCode(statusCode);
+		}
+
+		public Result(int statusCode, String content) {
+			this(statusCode, content.getBytes(UTF_8));
+			mContent = content;
+		}
+
+		/**
+		 * @return content decoded as UTF-8
+		 */
+		public String getContent() {
+			if (mContent == null)
+				mContent = new String(mBytes, UTF_8);
+			return mContent;
+		}
+
+		/**
+		 * @return raw bytes of the content, must not be modified
+		 */
+		public byte[] getBytes() {
+			return mBytes;
+		}
+
+		private void setBytes(byte[] bytes) {
+			mBytes = bytes;
+		}
+
+		public int getStatusCode() {
+			return mStatusCode;
+		}
+
+		private void setStatusCode(int statusCode) {
+			mStatusCode = statusCode;
+		}
+	}
+
+	/*
+	 * Handler of the response stream. Allows to process the content while
+	 * it's being read, without buffering it as a string.
+	 */
+	public interface ResponseHandler<T> {
+		/**
+		 * Called in the fetching thread once the response status is known.
+		 * 
+		 * @param statusCode
+		 *            HTTP status code, HTTP_NOT_MODIFIED if the content is
+		 *            read from the response cache
+		 * @param is
+		 *            InputStream of the response content, may be null if
+		 *            there is no content. Must not be closed by handler.
+		 * @return result of the processing
+		 * @throws IOException
+		 */
+		public T handleResponse(int statusCode, InputStream is)
+				throws IOException;
+	}
+
+	/*
+	 * Handler which reads the content into Result.
+	 */
+	private final ResponseHandler<Result> mResultHandler = new ResponseHandler<Result>() {
+		@Override
+		public Result handleResponse(int statusCode, InputStream is)
+				throws IOException {
+			return new Result(statusCode, readContent(is));
+		}
+	};
+
+	/*
+	 * Fetches given URL using GET.
+	 */
+	public Result get(URL url) throws IOException {
+		return fetch(url, GET, null, 0, null, mResultHandler);
+	}
+
+	/*
+	 * Fetches given URL using GET and passes the response to the handler.
+	 */
+	public <T> T get(URL url, ResponseHandler<T> handler) throws IOException {
+		return fetch(url, GET, null, 0, null, handler);
+	}
+	
+	/*
+	 * Fetches given URL using POST.
+	 */
+	public Result post(URL url, String data) throws IOException {
+		return post(url, data, null);
+	}
+
+	/*
+	 * Fetches given URL using POST with Idempotency-Key header, so the server
+	 * ignores repeated requests and they can be retried safely.
+	 */
+	public Result post(URL url, String data, String idempotencyKey)
+			throws IOException {
+		byte[] bytes = data == null ? null : data.getBytes(UTF_8);
+		return post(url, bytes, bytes == null ? 0 : bytes.length,
+				idempotencyKey);
+	}
+
+	/*
+	 * Fetches given URL using POST with body already encoded, i.e. from
+	 * reusable RequestBody buffer. The body is sent with fixed length.
+	 */
+	public Result post(URL url, byte[] data, int length,
+			String idempotencyKey) throws IOException {
+		return fetch(url, POST, data, length, idempotencyKey, mResultHandler);
+	}
+
+	/*
+	 * Fetches given URL using method and data, retrying if needed.
+	 */
+	private <T> T fetch(URL url, String method, byte[] data,
+			int dataLength, String idempotencyKey, ResponseHandler<T> handler)
+			throws IOException {
+		ApiRetryPolicy policy = mRetryPolicy;
+		ApiCircuitBreaker breaker = mCircuitBreaker;
+		ApiCall<?> call = ApiCall.current();
+		boolean isConditional = true;
+
+		for (int attempt = 0;; attempt++) {
+			breaker.acquire();
+			try {
+				return fetchOnce(url, method, data, dataLength,
+						idempotencyKey, handler, isConditional, policy,
+						breaker, attempt);
+			} catch (RetryException e) {
+				if (call != null && call.isCancelled())
+					throw new InterruptedIOException("Call is cancelled");
+
+				// Not a failure, so it's made right away and doesn't count
+				if (e.mIsUnconditional) {
+					isConditional = false;
+					attempt--;
+					continue;
+				}
+
+				mRetryCount.incrementAndGet();
+				try {
+					Thread.sleep(e.mDelay);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Retry is interrupted");
+				}
+			}
+		}
+	}
+
+	/*
+	 * Makes single attempt to fetch given URL. Throws RetryException if the
+	 * attempt failed and should be repeated after a delay, or if cached
+	 * content validated by the server is gone and it should be fetched
+	 * again unconditionally.
+	 */
+	private <T> T fetchOnce(URL url, String method, byte[] data,
+			int dataLength, String idempotencyKey, ResponseHandler<T> handler,
+			boolean isConditional, ApiRetryPolicy policy,
+			ApiCircuitBreaker breaker, int attempt) throws IOException {
+
+		InputStream is = null;
+		TimingInputStream timedIs = null;
+		CountingInputStream wireIs = null;
+		CountingInputStream decodedIs = null;
+		long wireBytesSent = 0;
+		long bytesSent = 0;
+		ApiTransport.Exchange conn = null;
+		ApiResponseCache cache = method == GET ? mResponseCache : null;
+		ApiResponseCache.Entry cached = null;
+		ApiResponseCache.CacheWriter cacheWriter = null;
+		InputStream cachedIs = null;
+		String host = url.getAuthority();
+		boolean completed = false;
+		// Whether the outcome was reported to the breaker
+		boolean reported = false;
+		// Length of the body on the wire, -1 if unknown
+		long wireLength = -1;
+		boolean isIdempotent = method == GET || idempotencyKey != null;
+		int statusCode = -1;
+		// Call to be able to abort the connection, if it's running in one
+		ApiCall<?> call = ApiCall.current();
+
+		// Durations of the phases in nanoseconds, -1 if not reached
+		long[] phases = new long[ApiMetrics.Phase.values().length];
+		Arrays.fill(phases, -1);
+		long start = System.nanoTime();
+		long mark = start;
+
+		try {
+			mPool.acquire(host);
+
+			conn = mTransport.open(url, method);
+			if (call != null)
+				call.attach(conn);
+			// Asking for gzip explicitly disables transparent decompression,
+			// so we can count bytes on the wire
+			conn.setRequestProperty("Accept-Encoding", GZIP);
+			if (idempotencyKey != null)
+				conn.setRequestProperty("Idempotency-Key", idempotencyKey);
+
+			// Ask to send the content only if it has changed since cached
+			if (cache != null && isConditional) {
+				cached = cache.get(url.toString());
+				if (cached != null && cached.getETag() != null)
+					conn.setRequestProperty("If-None-Match", cached.getETag());
+				if (cached != null && cached.getLastModified() != null)
+					conn.setRequestProperty("If-Modified-Since",
+							cached.getLastModified());
+			}
+
+			// In case we have POST data
+			boolean compress = false;
+			if (method == POST) {
+				// Our API uses json and UTF-8, so set appropriate content type
+				conn.setRequestProperty("Content-Type",
+						"application/json; charset=utf-8");
+
+				if (data != null) {
+					compress = mCompressRequests;
+					if (compress) {
+						// Compressed length isn't known in advance
+						conn.setRequestProperty("Content-Encoding", GZIP);
+						conn.setChunkedStreamingMode();
+					} else {
+						// Body is streamed right away instead of being
+						// buffered by the connection
+						conn.setFixedLengthStreamingMode(dataLength);
+					}
+				} else {
+					// on Android 2.2.2 there was 411 (content-length not set)
+					// response when POST and no data was posted
+					conn.setFixedLengthStreamingMode(0);
+				}
+			}
+
+			// Connection is opened explicitly to time it separately
+			conn.connect();
+			mark = phase(phases, ApiMetrics.Phase.CONNECT, mark);
+			mPool.connected(phases[ApiMetrics.Phase.CONNECT.ordinal()]);
+
+			// Write data to the output
+			if (method == POST && data != null) {
+				CountingOutputStream wireOs = new CountingOutputStream(
+						conn.getOutputStream());
+				OutputStream os = compress ? new GZIPOutputStream(wireOs)
+						: wireOs;
+				os.write(data, 0, dataLength);
+				os.close();
+
+				wireBytesSent = wireOs.getCount();
+				bytesSent = dataLength;
+
+				mark = phase(phases, ApiMetrics.Phase.SEND, mark);
+			}
+
+			// Read response code and content if present
+			statusCode = conn.getResponseCode();
+			mark = phase(phases, ApiMetrics.Phase.TTFB, mark);
+
+			// Success is reported once the body is read in full
+			if (statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+					|| statusCode == ApiRetryPolicy.HTTP_TOO_MANY_REQUESTS) {
+				breaker.onFailure();
+				reported = true;
+			}
+
+			// Error responses have content too
+			is = conn.getInputStream();
+			if (is != null) {
+				timedIs = new TimingInputStream(is);
+				is = timedIs;
+				wireIs = new CountingInputStream(is);
+				InputStream decoded = wireIs;
+				// Not modified response has no body, whatever the header says
+				if (statusCode != HttpURLConnection.HTTP_NOT_MODIFIED)
+					wireLength = conn.getContentLength();
+				// Decoded length is known only if the content isn't encoded
+				long expectedLength = wireLength;
+				if (GZIP.equalsIgnoreCase(conn
+						.getHeaderField("Content-Encoding"))) {
+					decoded = new GZIPInputStream(wireIs);
+					expectedLength = -1;
+				}
+				decodedIs = new CountingInputStream(decoded, expectedLength);
+			}
+
+			// Retry would be rejected if the failure opened the circuit
+			if (policy.isRetryable(statusCode, isIdempotent)
+					&& breaker.getState() == ApiCircuitBreaker.State.CLOSED) {
+				long delay = policy.getDelay(attempt, ApiRetryPolicy
+						.parseRetryAfter(conn.getHeaderField("Retry-After")));
+				if (delay >= 0) {
+					// Error body is skipped, so the connection can be reused
+					drain(decodedIs);
+					drain(wireIs);
+					completed = true;
+					throw new RetryException(delay, null);
+				}
+				// Otherwise handler gets the error as usual
+			}
+
+			InputStream content = decodedIs;
+			if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED
+					&& cached != null) {
+				// Content hasn't changed, so read the cached one
+				try {
+					cachedIs = cache.open(cached);
+				} catch (IOException e) {
+					// Evicted meanwhile, so the content is fetched again.
+					// The server has answered in full, the connection can be
+					// reused.
+					cache.remove(url.toString());
+					drain(decodedIs);
+					drain(wireIs);
+					completed = true;
+					breaker.onSuccess();
+					reported = true;
+					throw new RetryException(0, e, true);
+				}
+				content = cachedIs;
+			} else if (statusCode == HttpURLConnection.HTTP_OK
+					&& cache != null && decodedIs != null) {
+				// Cache the content while it's being read, if it can be
+				// validated later
+				String eTag = conn.getHeaderField("ETag");
+				String lastModified = conn.getHeaderField("Last-Modified");
+				if (eTag != null || lastModified != null) {
+					cacheWriter = cache.write(url.toString(), eTag,
+							lastModified, decodedIs);
+					content = cacheWriter;
+				}
+			}
+
+			long readTime = timedIs == null ? 0 : timedIs.getReadTime();
+			T result = handler.handleResponse(statusCode, content);
+			// Handler time not spent waiting for the body
+			if (timedIs != null)
+				readTime = timedIs.getReadTime() - readTime;
+			phases[ApiMetrics.Phase.PARSE.ordinal()] = System.nanoTime()
+					- mark - readTime;
+
+			if (cacheWriter != null)
+				drain(cacheWriter);
+
+			// Handler may stop reading before the end (i.e. trailing
+			// whitespace), but the connection can be reused only if the
+			// whole response was consumed. Gzip stream may end before the
+			// raw one, so both are drained.
+			drain(decodedIs);
+			drain(wireIs);
+			// Stream may just end if the connection is closed early
+			if (wireLength >= 0 && wireIs.getCount() < wireLength)
+				throw new ProtocolException("Response body is truncated, "
+						+ wireIs.getCount() + " of " + wireLength + " bytes");
+
+			// Only complete content is cached
+			if (cacheWriter != null) {
+				cacheWriter.commit();
+				cacheWriter = null;
+			}
+			completed = true;
+
+			if (!reported) {
+				breaker.onSuccess();
+				reported = true;
+			}
+
+			mTrafficStats.record(url.getPath(), wireBytesSent, bytesSent,
+					wireIs == null ? 0 : wireIs.getCount(),
+					decodedIs == null ? 0 : decodedIs.getCount());
+
+			return result;
+
+		} catch (IOException e) {
+			if (e instanceof RetryException)
+				throw e;
+
+			// Server wasn't reached, or dropped the connection before the
+			// end of the body. Other errors, i.e. of parsing, would repeat.
+			boolean isTruncated = timedIs != null
+					&& (timedIs.isFailed() || (timedIs.isEnded()
+							&& wireLength >= 0 && wireIs.getCount() < wireLength));
+			if (statusCode >= 0 && !isTruncated) {
+				// Server has responded in full, the error is ours
+				if (!reported) {
+					breaker.onSuccess();
+					reported = true;
+				}
+				// Error responses end up here, so short rest of the body is
+				// skipped to reuse the connection
+				if (call == null || !call.isCancelled()) {
+					try {
+						completed = drain(decodedIs, MAX_SKIPPED_LENGTH)
+								&& drain(wireIs, MAX_SKIPPED_LENGTH)
+								&& (wireLength < 0
+										|| wireIs.getCount() >= wireLength);
+					} catch (IOException de) {
+						// Connection isn't reused then
+					}
+				}
+				throw e;
+			}
+
+			if (call != null && call.isCancelled()) {
+				breaker.onAbandoned();
+				reported = true;
+				throw e;
+			}
+			if (!reported) {
+				breaker.onFailure();
+				reported = true;
+			}
+
+			// POST could be processed already, so it isn't repeated unless
+			// the server can recognize it
+			long delay = isIdempotent ? policy.getDelay(attempt, -1) : -1;
+			if (delay < 0
+					|| breaker.getState() != ApiCircuitBreaker.State.CLOSED)
+				throw e;
+			throw new RetryException(delay, e);
+
+		} finally {
+			// Any other exit, i.e. RuntimeException of the handler, must
+			// not leave the probe in flight
+			if (!reported)
+				breaker.onAbandoned();
+
+			// Aborted requests would skew the latencies
+			if (call == null || !call.isCancelled()) {
+				if (timedIs != null)
+					phases[ApiMetrics.Phase.READ.ordinal()] = timedIs
+							.getReadTime();
+				phases[ApiMetrics.Phase.TOTAL.ordinal()] = System.nanoTime()
+						- start;
+				mMetrics.record(method + " " + url.getPath(),
+						statusCode >= 0 ? statusCode
+								: ApiMetrics.STATUS_NETWORK_ERROR, phases,
+						wireBytesSent, wireIs == null ? 0 : wireIs.getCount());
+			}
+
+			if (call != null)
+				call.detach();
+
+			if (cacheWriter != null)
+				cacheWriter.abort();
+			closeQuietly(cachedIs);
+
+			// Stream was read to the end, so the connection goes back to the
+			// pool. Otherwise it's in unknown state and must not be reused.
+			// Closing decoding stream closes the underlying ones and releases
+			// the inflater
+			if (decodedIs != null)
+				is = decodedIs;
+			if (completed) {
+				if (is != null)
+					is.close();
+				mPool.release(host);
+			} else if (conn != null) {
+				conn.disconnect();
+				closeQuietly(is);
+			}
+		}
+	}
+
+	/**
+	 * Records duration of the phase ended now.
+	 * 
+	 * @return end time of the phase
+	 */
+	private static long phase(long[] phases, ApiMetrics.Phase phase,
+			long start) {
+		long now = System.nanoTime();
+		phases[phase.ordinal()] = now - start;
+		return now;
+	}
+
+	/**
+	 * Closes stream ignoring errors, i.e. when the connection is aborted and
+	 * there is another exception to report already.
+	 * @param is InputStream instance, may be null
+	 */
+	private static void closeQuietly(InputStream is) {
+		if (is == null)
+			return;
+		try {
+			is.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Skips the rest of the stream.
+	 * @param is InputStream instance, may be null
+	 * @throws IOException
+	 */
+	private void drain(InputStream is) throws IOException {
+		if (is == null)
+			return;
+
+		byte[] buffer = sBufferPool.acquire();
+		try {
+			while (is.read(buffer) != -1)
+				;
+		} finally {
+			sBufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * Skips the rest of the stream if it's not longer than the limit.
+	 * @param is InputStream instance, may be null
+	 * @param limit maximal amount of bytes to skip
+	 * @return true if the end of the stream is reached
+	 * @throws IOException
+	 */
+	private boolean drain(InputStream is, long limit) throws IOException {
+		if (is == null)
+			return true;
+
+		byte[] buffer = sBufferPool.acquire();
+		try {
+			long skipped = 0;
+			int count;
+			while ((count = is.read(buffer)) != -1) {
+				skipped += count;
+				if (skipped > limit)
+					return false;
+			}
+			return true;
+		} finally {
+			sBufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * Helper method for reading content from InputStream. If the length is
+	 * known in advance, the content is read right into the resulting array,
+	 * otherwise into pooled buffers and copied once. Stream is closed by
+	 * fetch().
+	 * @param is InputStream instance, may be null
+	 * @return raw content
+	 * @throws IOException
+	 */
+	static byte[] readContent(InputStream is) throws IOException {
+		// Error responses may have no body at all
+		if (is == null)
+			return EMPTY_CONTENT;
+
+		long expectedLength = -1;
+		if (is instanceof CountingInputStream)
+			expectedLength = ((CountingInputStream) is).getExpectedLength();
+
+		byte[] content = EMPTY_CONTENT;
+		int length = 0;
+		if (expectedLength > 0 && expectedLength <= MAX_PRESIZED_LENGTH) {
+			content = new byte[(int) expectedLength];
+			length = readFully(is, content);
+			if (length < content.length)
+				return Arrays.copyOf(content, length);
+		}
+
+		// The rest, which is also the end of stream check if the content is
+		// read already
+		List<byte[]> buffers = new ArrayList<byte[]>();
+		try {
+			int total = length;
+			int count;
+			do {
+				byte[] buffer = sBufferPool.acquire();
+				buffers.add(buffer);
+				count = readFully(is, buffer);
+				total += count;
+			} while (count == sBufferPool.getBufferSize());
+
+			if (total == length)
+				return content;
+
+			byte[] result = Arrays.copyOf(content, total);
+			int offset = length;
+			for (byte[] buffer : buffers) {
+				int n = Math.min(buffer.length, total - offset);
+				System.arraycopy(buffer, 0, result, offset, n);
+				offset += n;
+			}
+			return result;
+		} finally {
+			for (byte[] buffer : buffers)
+				sBufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * Reads until the buffer is full or the stream ends.
+	 * @return amount of bytes read
+	 */
+	private static int readFully(InputStream is, byte[] buffer)
+			throws IOException {
+		int offset = 0;
+		while (offset < buffer.length) {
+			int count = is.read(buffer, offset, buffer.length - offset);
+			if (count == -1)
+				break;
+			offset += count;
+		}
+		return offset;
+	}
+}
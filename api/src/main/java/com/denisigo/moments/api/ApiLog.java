@@ -0,0 +1,74 @@
+package com.denisigo.moments.api;
+
+/**
+ * Logging of the API client. Messages go to the standard error by default,
+ * the app plugs in the platform logger with setLogger().
+ */
+public final class ApiLog {
+
+	// Priorities, the same values as android.util.Log ones
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	/*
+	 * Destination of the messages. Must be thread-safe.
+	 */
+	public interface Logger {
+		void log(int priority, String tag, String message);
+	}
+
+	private static final Logger STDERR_LOGGER = new Logger() {
+		private static final String PRIORITIES = "??VDIWE";
+
+		@Override
+		public void log(int priority, String tag, String message) {
+			System.err.println(PRIORITIES.charAt(priority) + "/" + tag + ": "
+					+ message);
+		}
+	};
+
+	private static volatile Logger sLogger = STDERR_LOGGER;
+	private static volatile int sMinPriority = INFO;
+
+	private ApiLog() {
+	}
+
+	/**
+	 * @param logger
+	 *            Logger instance, or null to log to the standard error
+	 */
+	public static void setLogger(Logger logger) {
+		sLogger = logger != null ? logger : STDERR_LOGGER;
+	}
+
+	/**
+	 * @param priority
+	 *            minimal priority of messages to log, INFO by default
+	 */
+	public static void setMinPriority(int priority) {
+		sMinPriority = priority;
+	}
+
+	public static void d(String tag, String message) {
+		log(DEBUG, tag, message);
+	}
+
+	public static void i(String tag, String message) {
+		log(INFO, tag, message);
+	}
+
+	public static void w(String tag, String message) {
+		log(WARN, tag, message);
+	}
+
+	public static void e(String tag, String message) {
+		log(ERROR, tag, message);
+	}
+
+	private static void log(int priority, String tag, String message) {
+		if (priority >= sMinPriority)
+			sLogger.log(priority, tag, message);
+	}
+}
@@ -0,0 +1,291 @@
+package com.denisigo.moments.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of request metrics by endpoint: latency histograms of request
+ * phases, responses by status code and bytes transferred. Recording takes
+ * a single uncontended lock per request, so it can stay on in production.
+ * Thread-safe.
+ */
+public class ApiMetrics {
+
+	/*
+	 * Phases of the request.
+	 */
+	public enum Phase {
+		// Opening the connection, including TLS handshake, ~0 if reused
+		CONNECT,
+		// Writing the request body
+		SEND,
+		// Waiting for the response status, time to first byte
+		TTFB,
+		// Waiting for the response body
+		READ,
+		// Processing the body by the handler, i.e. JSON parsing, without
+		// waiting for it
+		PARSE,
+		// Whole request
+		TOTAL
+	}
+
+	// Status code recorded for requests failed without a response
+	public static final int STATUS_NETWORK_ERROR = -1;
+
+	// Upper bounds of histogram buckets, in milliseconds. The last bucket
+	// has no upper bound.
+	private static final long[] BUCKET_BOUNDS = { 1, 2, 5, 10, 20, 50, 100,
+			200, 500, 1000, 2000, 5000, 10000, 30000 };
+
+	private final ConcurrentHashMap<String, Endpoint> mEndpoints = new ConcurrentHashMap<String, Endpoint>();
+
+	/*
+	 * Latency histogram with fixed logarithmic buckets.
+	 */
+	public static class Histogram {
+		private final long[] mCounts = new long[BUCKET_BOUNDS.length + 1];
+		private long mCount;
+		private long mSum;
+		private long mMax;
+
+		Histogram() {
+		}
+
+		Histogram(Histogram another) {
+			System.arraycopy(another.mCounts, 0, mCounts, 0, mCounts.length);
+			mCount = another.mCount;
+			mSum = another.mSum;
+			mMax = another.mMax;
+		}
+
+		void record(long millis) {
+			int bucket = Arrays.binarySearch(BUCKET_BOUNDS, millis);
+			if (bucket < 0)
+				bucket = -bucket - 1;
+			mCounts[bucket]++;
+			mCount++;
+			mSum += millis;
+			if (millis > mMax)
+				mMax = millis;
+		}
+
+		public long getCount() {
+			return mCount;
+		}
+
+		/**
+		 * @return average value, in milliseconds
+		 */
+		public long getMean() {
+			return mCount == 0 ? 0 : mSum / mCount;
+		}
+
+		/**
+		 * @return maximal value, in milliseconds
+		 */
+		public long getMax() {
+			return mMax;
+		}
+
+		/**
+		 * @param percentile
+		 *            from 0 to 100
+		 * @return upper bound of the bucket containing the percentile, in
+		 *         milliseconds, or the maximum if it's in the last bucket
+		 */
+		public long getPercentile(float percentile) {
+			if (mCount == 0)
+				return 0;
+			long rank = (long) Math.ceil(mCount * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+				seen += mCounts[i];
+				if (seen >= rank)
+					return Math.min(BUCKET_BOUNDS[i], mMax);
+			}
+			return mMax;
+		}
+
+		@Override
+		public String toString() {
+			return "n=" + mCount + " mean=" + getMean() + " p50="
+					+ getPercentile(50) + " p90=" + getPercentile(90)
+					+ " p99=" + getPercentile(99) + " max=" + mMax;
+		}
+	}
+
+	/*
+	 * Metrics of single endpoint.
+	 */
+	public static class Endpoint {
+		private final String mName;
+		private final Histogram[] mPhases = new Histogram[Phase.values().length];
+		private final Map<Integer, Long> mStatusCounts = new TreeMap<Integer, Long>();
+		private long mBytesSent;
+		private long mBytesReceived;
+
+		Endpoint(String name) {
+			mName = name;
+			for (int i = 0; i < mPhases.length; i++)
+				mPhases[i] = new Histogram();
+		}
+
+		Endpoint(Endpoint another) {
+			mName = another.mName;
+			for (int i = 0; i < mPhases.length; i++)
+				mPhases[i] = new Histogram(another.mPhases[i]);
+			mStatusCounts.putAll(another.mStatusCounts);
+			mBytesSent = another.mBytesSent;
+			mBytesReceived = another.mBytesReceived;
+		}
+
+		/**
+		 * @return method and path of the endpoint
+		 */
+		public String getName() {
+			return mName;
+		}
+
+		/**
+		 * @return latency histogram of the phase
+		 */
+		public Histogram getLatency(Phase phase) {
+			return mPhases[phase.ordinal()];
+		}
+
+		/**
+		 * @return amount of responses by status code,
+		 *         STATUS_NETWORK_ERROR for requests failed without response
+		 */
+		public Map<Integer, Long> getStatusCounts() {
+			return Collections.unmodifiableMap(mStatusCounts);
+		}
+
+		/**
+		 * @return amount of requests failed with error status or without
+		 *         response
+		 */
+		public long getErrorCount() {
+			long errors = 0;
+			for (Map.Entry<Integer, Long> entry : mStatusCounts.entrySet()) {
+				int status = entry.getKey();
+				if (status == STATUS_NETWORK_ERROR || status >= 400)
+					errors += entry.getValue();
+			}
+			return errors;
+		}
+
+		/**
+		 * @return bytes sent over the wire
+		 */
+		public long getBytesSent() {
+			return mBytesSent;
+		}
+
+		/**
+		 * @return bytes received over the wire
+		 */
+		public long getBytesReceived() {
+			return mBytesReceived;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(mName);
+			sb.append(" status=").append(mStatusCounts);
+			sb.append(" sent=").append(mBytesSent);
+			sb.append(" received=").append(mBytesReceived);
+			for (Phase phase : Phase.values()) {
+				Histogram histogram = mPhases[phase.ordinal()];
+				if (histogram.getCount() > 0)
+					sb.append("\n  ").append(phase).append(": ")
+							.append(histogram);
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Records single request. Called by ApiFetcher.
+	 * 
+	 * @param endpoint
+	 *            method and path of the request
+	 * @param statusCode
+	 *            status code, or STATUS_NETWORK_ERROR
+	 * @param phaseTimes
+	 *            times of the phases by Phase ordinal, in nanoseconds, -1 for
+	 *            phases not reached
+	 * @param bytesSent
+	 *            bytes sent over the wire
+	 * @param bytesReceived
+	 *            bytes received over the wire
+	 */
+	void record(String endpoint, int statusCode, long[] phaseTimes,
+			long bytesSent, long bytesReceived) {
+		Endpoint metrics = mEndpoints.get(endpoint);
+		if (metrics == null) {
+			Endpoint created = new Endpoint(endpoint);
+			metrics = mEndpoints.putIfAbsent(endpoint, created);
+			if (metrics == null)
+				metrics = created;
+		}
+
+		synchronized (metrics) {
+			for (int i = 0; i < phaseTimes.length; i++) {
+				if (phaseTimes[i] >= 0)
+					metrics.mPhases[i].record(phaseTimes[i] / 1000000);
+			}
+			Long count = metrics.mStatusCounts.get(statusCode);
+			metrics.mStatusCounts.put(statusCode, count == null ? 1
+					: count + 1);
+			metrics.mBytesSent += bytesSent;
+			metrics.mBytesReceived += bytesReceived;
+		}
+	}
+
+	/**
+	 * @return consistent copy of the metrics of every endpoint, sorted by
+	 *         name
+	 */
+	public List<Endpoint> snapshot() {
+		List<Endpoint> endpoints = new ArrayList<Endpoint>(mEndpoints.size());
+		for (Endpoint endpoint : mEndpoints.values()) {
+			synchronized (endpoint) {
+				endpoints.add(new Endpoint(endpoint));
+			}
+		}
+		Collections.sort(endpoints, new Comparator<Endpoint>() {
+			@Override
+			public int compare(Endpoint lhs, Endpoint rhs) {
+				return lhs.mName.compareTo(rhs.mName);
+			}
+		});
+		return endpoints;
+	}
+
+	/**
+	 * @return human readable dump of the metrics, i.e. for logs
+	 */
+	public String dump() {
+		StringBuilder sb = new StringBuilder("ApiMetrics");
+		for (Endpoint endpoint : snapshot())
+			sb.append('\n').append(endpoint);
+		return sb.toString();
+	}
+
+	public void reset() {
+		mEndpoints.clear();
+	}
+
+	@Override
+	public String toString() {
+		return dump();
+	}
+}
@@ -0,0 +1,410 @@
+package com.denisigo.moments.api;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded on-disk cache of GET responses keyed by URL, used to make
+ * conditional requests (If-None-Match / If-Modified-Since). Only responses
+ * having ETag or Last-Modified are cached. The least recently used
+ * responses are evicted first. Thread-safe.
+ */
+public class ApiResponseCache {
+
+	private static final String BODY_SUFFIX = ".body";
+	private static final String META_SUFFIX = ".meta";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final File mDirectory;
+	private final long mMaxSize;
+
+	// Entries by key, in access order
+	private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+	private long mSize;
+	private boolean mIsLoaded;
+
+	// Counters
+	private long mHitCount;
+	private long mMissCount;
+
+	/*
+	 * Cached response validators.
+	 */
+	public static class Entry {
+		private final String mKey;
+		private final String mETag;
+		private final String mLastModified;
+		private final long mLength;
+
+		Entry(String key, String eTag, String lastModified, long length) {
+			mKey = key;
+			mETag = eTag;
+			mLastModified = lastModified;
+			mLength = length;
+		}
+
+		public String getETag() {
+			return mETag;
+		}
+
+		public String getLastModified() {
+			return mLastModified;
+		}
+
+		public long getLength() {
+			return mLength;
+		}
+	}
+
+	/**
+	 * @param directory
+	 *            directory to keep responses in, is created if needed
+	 * @param maxSize
+	 *            maximal total size of the responses, in bytes
+	 */
+	public ApiResponseCache(File directory, long maxSize) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Max size must be > 0");
+		mDirectory = directory;
+		mMaxSize = maxSize;
+	}
+
+	/**
+	 * @param url
+	 *            URL of the request
+	 * @return validators of cached response, or null if there is none
+	 */
+	public synchronized Entry get(String url) {
+		ensureLoaded();
+		Entry entry = mEntries.get(key(url));
+		if (entry == null)
+			mMissCount++;
+		return entry;
+	}
+
+	/**
+	 * Opens body of cached response.
+	 *
+	 * @return InputStream of the body, should be closed by caller
+	 * @throws IOException
+	 *             if the body is not available anymore
+	 */
+	public synchronized InputStream open(Entry entry) throws IOException {
+		mHitCount++;
+		// Reading the file is fine even if it's replaced or removed meanwhile
+		return new FileInputStream(file(entry.mKey, BODY_SUFFIX));
+	}
+
+	/**
+	 * Removes cached response.
+	 */
+	public synchronized void remove(String url) {
+		ensureLoaded();
+		Entry entry = mEntries.remove(key(url));
+		if (entry != null)
+			delete(entry);
+	}
+
+	/**
+	 * Wraps the response stream, so the body is written to the cache while
+	 * it's being read. The response is cached only if commit() is called
+	 * after the stream is read to the end.
+	 *
+	 * @return CacheWriter instance
+	 * @throws IOException
+	 */
+	CacheWriter write(String url, String eTag, String lastModified,
+			InputStream is) throws IOException {
+		synchronized (this) {
+			ensureLoaded();
+		}
+		return new CacheWriter(key(url), eTag, lastModified, is);
+	}
+
+	public synchronized long getSize() {
+		return mSize;
+	}
+
+	public long getMaxSize() {
+		return mMaxSize;
+	}
+
+	public synchronized int getEntryCount() {
+		ensureLoaded();
+		return mEntries.size();
+	}
+
+	public synchronized long getHitCount() {
+		return mHitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return mMissCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ApiResponseCache [entries=" + mEntries.size() + ", size="
+				+ mSize + "/" + mMaxSize + ", hits=" + mHitCount
+				+ ", misses=" + mMissCount + "]";
+	}
+
+	/*
+	 * Response stream copying the body into the cache.
+	 */
+	class CacheWriter extends FilterInputStream {
+		private final String mKey;
+		private final String mETag;
+		private final String mLastModified;
+		private final File mTempFile;
+		private OutputStream mOut;
+		private long mLength;
+
+		CacheWriter(String key, String eTag, String lastModified,
+				InputStream is) throws IOException {
+			super(is);
+			mKey = key;
+			mETag = eTag;
+			mLastModified = lastModified;
+			mTempFile = File.createTempFile(key, TEMP_SUFFIX, mDirectory);
+			mOut = new FileOutputStream(mTempFile);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b != -1) {
+				mOut.write(b);
+				mLength++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length)
+				throws IOException {
+			int count = in.read(buffer, offset, length);
+			if (count > 0) {
+				mOut.write(buffer, offset, count);
+				mLength += count;
+			}
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// Skipped bytes must be cached too
+			byte[] buffer = new byte[(int) Math.min(n, 4096)];
+			long skipped = 0;
+			while (skipped < n) {
+				int count = read(buffer, 0,
+						(int) Math.min(buffer.length, n - skipped));
+				if (count == -1)
+					break;
+				skipped += count;
+			}
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		/**
+		 * Puts the response to the cache. Should be called once the stream
+		 * is read to the end.
+		 */
+		void commit() throws IOException {
+			mOut.close();
+			mOut = null;
+
+			Entry entry = new Entry(mKey, mETag, mLastModified, mLength);
+			synchronized (ApiResponseCache.this) {
+				// Meta is written the last, so it never describes a body
+				// which isn't there or the body of the replaced entry
+				Entry old = mEntries.remove(mKey);
+				if (old != null)
+					mSize -= old.mLength;
+				file(mKey, META_SUFFIX).delete();
+
+				if (!mTempFile.renameTo(file(mKey, BODY_SUFFIX))) {
+					mTempFile.delete();
+					delete(entry);
+					throw new IOException("Unable to write cache entry");
+				}
+				try {
+					writeMeta(entry);
+				} catch (IOException e) {
+					delete(entry);
+					throw e;
+				}
+
+				mEntries.put(mKey, entry);
+				mSize += entry.mLength;
+
+				trimToSize();
+			}
+		}
+
+		/**
+		 * Drops the response, i.e. when it wasn't read completely.
+		 */
+		void abort() {
+			if (mOut != null) {
+				try {
+					mOut.close();
+				} catch (IOException e) {
+				}
+				mOut = null;
+			}
+			mTempFile.delete();
+		}
+	}
+
+	/**
+	 * Reads index of the entries from the disk, once.
+	 */
+	private void ensureLoaded() {
+		if (mIsLoaded)
+			return;
+		mIsLoaded = true;
+
+		mDirectory.mkdirs();
+		File[] files = mDirectory.listFiles();
+		if (files == null)
+			return;
+
+		// Sort by modification time to restore LRU order approximately
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long l = lhs.lastModified();
+				long r = rhs.lastModified();
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(TEMP_SUFFIX)) {
+				// Leftover of interrupted write
+				file.delete();
+			} else if (name.endsWith(BODY_SUFFIX)) {
+				// Write interrupted before its meta
+				String key = name.substring(0,
+						name.length() - BODY_SUFFIX.length());
+				if (!file(key, META_SUFFIX).exists())
+					file.delete();
+			} else if (name.endsWith(META_SUFFIX)) {
+				String key = name.substring(0,
+						name.length() - META_SUFFIX.length());
+				Entry entry = readMeta(key);
+				if (entry == null) {
+					file.delete();
+					file(key, BODY_SUFFIX).delete();
+					continue;
+				}
+				mEntries.put(key, entry);
+				mSize += entry.mLength;
+			}
+		}
+
+		trimToSize();
+	}
+
+	private void trimToSize() {
+		Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet()
+				.iterator();
+		while (mSize > mMaxSize && it.hasNext()) {
+			Entry entry = it.next().getValue();
+			it.remove();
+			mSize -= entry.mLength;
+			delete(entry);
+		}
+	}
+
+	private void delete(Entry entry) {
+		file(entry.mKey, BODY_SUFFIX).delete();
+		file(entry.mKey, META_SUFFIX).delete();
+	}
+
+	private void writeMeta(Entry entry) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(
+				file(entry.mKey, META_SUFFIX)), "UTF-8");
+		try {
+			writer.write(entry.mETag == null ? "" : entry.mETag);
+			writer.write('\n');
+			writer.write(entry.mLastModified == null ? ""
+					: entry.mLastModified);
+			writer.write('\n');
+		} finally {
+			writer.close();
+		}
+	}
+
+	private Entry readMeta(String key) {
+		File body = file(key, BODY_SUFFIX);
+		if (!body.exists())
+			return null;
+
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(file(key, META_SUFFIX)), "UTF-8"));
+			try {
+				String eTag = reader.readLine();
+				String lastModified = reader.readLine();
+				if (eTag == null || lastModified == null)
+					return null;
+				return new Entry(key, eTag.length() == 0 ? null : eTag,
+						lastModified.length() == 0 ? null : lastModified,
+						body.length());
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private File file(String key, String suffix) {
+		return new File(mDirectory, key + suffix);
+	}
+
+	/**
+	 * @return file name safe key of the URL
+	 */
+	private static String key(String url) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			byte[] hash = digest.digest(url.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
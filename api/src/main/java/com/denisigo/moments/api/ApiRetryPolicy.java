@@ -0,0 +1,154 @@
+package com.denisigo.moments.api;
+
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Decides whether and when a failed request should be retried. Delays grow
+ * exponentially with "full jitter", so clients failed at the same time don't
+ * retry at the same time. Immutable and thread-safe.
+ */
+public class ApiRetryPolicy {
+
+	// Too Many Requests status, there is no constant in HttpURLConnection
+	public static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+	public static final int DEFAULT_MAX_RETRIES = 3;
+	public static final long DEFAULT_BASE_DELAY = 500;
+	public static final long DEFAULT_MAX_DELAY = 8000;
+	// Longer Retry-After isn't waited for, request just fails
+	public static final long DEFAULT_MAX_RETRY_AFTER = 30000;
+
+	/**
+	 * Policy which never retries.
+	 */
+	public static final ApiRetryPolicy NONE = new ApiRetryPolicy(0,
+			DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MAX_RETRY_AFTER);
+
+	private final int mMaxRetries;
+	private final long mBaseDelay;
+	private final long mMaxDelay;
+	private final long mMaxRetryAfter;
+	private final Random mRandom;
+
+	public ApiRetryPolicy() {
+		this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY,
+				DEFAULT_MAX_RETRY_AFTER);
+	}
+
+	/**
+	 * @param maxRetries
+	 *            maximal amount of retries of single request
+	 * @param baseDelay
+	 *            delay before the first retry, in milliseconds
+	 * @param maxDelay
+	 *            maximal delay between retries, in milliseconds
+	 * @param maxRetryAfter
+	 *            maximal Retry-After to wait for, in milliseconds
+	 */
+	public ApiRetryPolicy(int maxRetries, long baseDelay, long maxDelay,
+			long maxRetryAfter) {
+		this(maxRetries, baseDelay, maxDelay, maxRetryAfter, new Random());
+	}
+
+	/**
+	 * Same as above, with the given source of jitter. Seeded Random makes
+	 * delays repeatable, i.e. in tests.
+	 */
+	public ApiRetryPolicy(int maxRetries, long baseDelay, long maxDelay,
+			long maxRetryAfter, Random random) {
+		if (maxRetries < 0 || baseDelay <= 0 || maxDelay < baseDelay
+				|| maxRetryAfter < 0)
+			throw new IllegalArgumentException("Invalid retry policy");
+
+		mMaxRetries = maxRetries;
+		mBaseDelay = baseDelay;
+		mMaxDelay = maxDelay;
+		mMaxRetryAfter = maxRetryAfter;
+		mRandom = random;
+	}
+
+	public int getMaxRetries() {
+		return mMaxRetries;
+	}
+
+	/**
+	 * @param statusCode
+	 *            HTTP status code of the response
+	 * @param isIdempotent
+	 *            whether request can be safely repeated
+	 * @return whether request with such a response may be retried
+	 */
+	public boolean isRetryable(int statusCode, boolean isIdempotent) {
+		// Request is rejected before processing, so it's safe to repeat
+		if (statusCode == HTTP_TOO_MANY_REQUESTS)
+			return true;
+
+		if (!isIdempotent)
+			return false;
+
+		return statusCode == HttpURLConnection.HTTP_INTERNAL_ERROR
+				|| statusCode == HttpURLConnection.HTTP_BAD_GATEWAY
+				|| statusCode == HttpURLConnection.HTTP_UNAVAILABLE
+				|| statusCode == HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+	}
+
+	/**
+	 * @param attempt
+	 *            number of the failed attempt, starting from 0
+	 * @param retryAfter
+	 *            delay requested by server in milliseconds, or -1
+	 * @return delay before the next attempt in milliseconds, or -1 if it
+	 *         should not be retried
+	 */
+	public long getDelay(int attempt, long retryAfter) {
+		if (attempt >= mMaxRetries)
+			return -1;
+
+		if (retryAfter >= 0)
+			return retryAfter <= mMaxRetryAfter ? retryAfter : -1;
+
+		long ceiling = mBaseDelay << Math.min(attempt, 30);
+		if (ceiling <= 0 || ceiling > mMaxDelay)
+			ceiling = mMaxDelay;
+
+		// Full jitter, but not shorter than half of the base delay
+		long delay;
+		synchronized (mRandom) {
+			delay = (long) (mRandom.nextDouble() * ceiling);
+		}
+		return Math.max(delay, mBaseDelay / 2);
+	}
+
+	/**
+	 * @param value
+	 *            value of Retry-After header, may be null
+	 * @return delay in milliseconds, or -1 if value is missing or invalid
+	 */
+	public static long parseRetryAfter(String value) {
+		if (value == null)
+			return -1;
+		value = value.trim();
+
+		// Delay in seconds
+		try {
+			long seconds = Long.parseLong(value);
+			return seconds < 0 ? -1 : seconds * 1000;
+		} catch (NumberFormatException e) {
+		}
+
+		// HTTP date
+		SimpleDateFormat format = new SimpleDateFormat(
+				"EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		try {
+			long delay = format.parse(value).getTime()
+					- System.currentTimeMillis();
+			return Math.max(0, delay);
+		} catch (ParseException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.denisigo.moments.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per endpoint counters of bytes transferred over the wire and after
+ * decoding, to measure compression savings. Thread-safe.
+ */
+public class ApiTrafficStats {
+
+	/*
+	 * Counters of single endpoint.
+	 */
+	public static class Endpoint {
+		private final String mName;
+		private long mRequests;
+		private long mWireBytesSent;
+		private long mBytesSent;
+		private long mWireBytesReceived;
+		private long mBytesReceived;
+
+		Endpoint(String name) {
+			mName = name;
+		}
+
+		Endpoint(Endpoint another) {
+			mName = another.mName;
+			mRequests = another.mRequests;
+			mWireBytesSent = another.mWireBytesSent;
+			mBytesSent = another.mBytesSent;
+			mWireBytesReceived = another.mWireBytesReceived;
+			mBytesReceived = another.mBytesReceived;
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		public long getRequests() {
+			return mRequests;
+		}
+
+		/**
+		 * @return bytes of request bodies sent, after compression
+		 */
+		public long getWireBytesSent() {
+			return mWireBytesSent;
+		}
+
+		/**
+		 * @return bytes of request bodies sent, before compression
+		 */
+		public long getBytesSent() {
+			return mBytesSent;
+		}
+
+		/**
+		 * @return bytes of response bodies received, before decompression
+		 */
+		public long getWireBytesReceived() {
+			return mWireBytesReceived;
+		}
+
+		/**
+		 * @return bytes of response bodies received, after decompression
+		 */
+		public long getBytesReceived() {
+			return mBytesReceived;
+		}
+
+		/**
+		 * @return part of received bytes saved by compression, from 0 to 1
+		 */
+		public float getReceivedSavings() {
+			return mBytesReceived == 0 ? 0
+					: 1 - (float) mWireBytesReceived / mBytesReceived;
+		}
+
+		@Override
+		public String toString() {
+			return mName + " [requests=" + mRequests + ", sent="
+					+ mWireBytesSent + "/" + mBytesSent + ", received="
+					+ mWireBytesReceived + "/" + mBytesReceived + "]";
+		}
+	}
+
+	private final Map<String, Endpoint> mEndpoints = new HashMap<String, Endpoint>();
+
+	/**
+	 * Records transferred bytes of single request.
+	 */
+	synchronized void record(String endpoint, long wireBytesSent,
+			long bytesSent, long wireBytesReceived, long bytesReceived) {
+		Endpoint stats = mEndpoints.get(endpoint);
+		if (stats == null) {
+			stats = new Endpoint(endpoint);
+			mEndpoints.put(endpoint, stats);
+		}
+		stats.mRequests++;
+		stats.mWireBytesSent += wireBytesSent;
+		stats.mBytesSent += bytesSent;
+		stats.mWireBytesReceived += wireBytesReceived;
+		stats.mBytesReceived += bytesReceived;
+	}
+
+	/**
+	 * @return copy of the counters of all endpoints
+	 */
+	public synchronized List<Endpoint> getEndpoints() {
+		List<Endpoint> endpoints = new ArrayList<Endpoint>(mEndpoints.size());
+		for (Endpoint endpoint : mEndpoints.values())
+			endpoints.add(new Endpoint(endpoint));
+		return endpoints;
+	}
+
+	public synchronized void reset() {
+		mEndpoints.clear();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ApiTrafficStats " + mEndpoints.values();
+	}
+}
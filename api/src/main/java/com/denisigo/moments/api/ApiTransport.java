@@ -0,0 +1,81 @@
+package com.denisigo.moments.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+
+/**
+ * Engine making HTTP exchanges for ApiFetcher. HttpTransport is used by
+ * default, others allow to run the client against in-process backends.
+ * Implementations must be thread-safe.
+ */
+public interface ApiTransport {
+
+	/**
+	 * Opens new exchange. Nothing is sent until connect() is called.
+	 *
+	 * @param url
+	 *            URL of the request
+	 * @param method
+	 *            "GET" or "POST"
+	 * @return Exchange instance
+	 * @throws IOException
+	 */
+	Exchange open(URL url, String method) throws IOException;
+
+	/*
+	 * Single request and its response, the way HttpURLConnection makes them.
+	 * Used by single thread, except disconnect().
+	 */
+	public interface Exchange {
+		void setRequestProperty(String name, String value);
+
+		/**
+		 * Request body will be of the given length.
+		 */
+		void setFixedLengthStreamingMode(int length);
+
+		/**
+		 * Request body length isn't known in advance.
+		 */
+		void setChunkedStreamingMode();
+
+		void connect() throws IOException;
+
+		/**
+		 * @return stream to write request body to, closed once it's written
+		 */
+		OutputStream getOutputStream() throws IOException;
+
+		/**
+		 * Sends the request if it's not sent yet and waits for the response.
+		 *
+		 * @return HTTP status code
+		 */
+		int getResponseCode() throws IOException;
+
+		/**
+		 * @return value of response header, or null
+		 */
+		String getHeaderField(String name);
+
+		/**
+		 * @return length of response body on the wire, -1 if unknown
+		 */
+		long getContentLength();
+
+		/**
+		 * @return response body, of error responses too, or null if there
+		 *         is none. Closing it after reading to the end allows to
+		 *         reuse the connection.
+		 */
+		InputStream getInputStream() throws IOException;
+
+		/**
+		 * Aborts the exchange and closes the connection, may be called from
+		 * another thread to unblock reading.
+		 */
+		void disconnect();
+	}
+}
@@ -0,0 +1,59 @@
+package com.denisigo.moments.api;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of equally sized byte buffers, so reading responses doesn't allocate
+ * new buffers every time. Buffers are handed out most recently used first,
+ * while they are still warm in cache. Thread-safe.
+ */
+class BufferPool {
+
+	private final int mBufferSize;
+	private final int mMaxPooled;
+	private final ArrayDeque<byte[]> mBuffers = new ArrayDeque<byte[]>();
+
+	/**
+	 * @param bufferSize
+	 *            size of the buffers, in bytes
+	 * @param maxPooled
+	 *            maximal amount of idle buffers kept in the pool
+	 */
+	public BufferPool(int bufferSize, int maxPooled) {
+		mBufferSize = bufferSize;
+		mMaxPooled = maxPooled;
+	}
+
+	public int getBufferSize() {
+		return mBufferSize;
+	}
+
+	/**
+	 * @return pooled buffer, or a new one if the pool is empty. Its content
+	 *         is undefined.
+	 */
+	public byte[] acquire() {
+		synchronized (this) {
+			byte[] buffer = mBuffers.pollLast();
+			if (buffer != null)
+				return buffer;
+		}
+		return new byte[mBufferSize];
+	}
+
+	/**
+	 * Returns buffer to the pool. The buffer must not be used afterwards.
+	 */
+	public void release(byte[] buffer) {
+		if (buffer.length != mBufferSize)
+			throw new IllegalArgumentException("Buffer is not from the pool");
+		synchronized (this) {
+			if (mBuffers.size() < mMaxPooled)
+				mBuffers.addLast(buffer);
+		}
+	}
+
+	public synchronized int getPooledCount() {
+		return mBuffers.size();
+	}
+}
@@ -0,0 +1,70 @@
+package com.denisigo.moments.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream counting bytes read through it.
+ */
+class CountingInputStream extends FilterInputStream {
+
+	private long mCount;
+	private final long mExpectedLength;
+
+	public CountingInputStream(InputStream in) {
+		this(in, -1);
+	}
+
+	/**
+	 * @param expectedLength
+	 *            length of the content if it's known in advance, i.e. from
+	 *            Content-Length header, -1 otherwise
+	 */
+	public CountingInputStream(InputStream in, long expectedLength) {
+		super(in);
+		mExpectedLength = expectedLength;
+	}
+
+	/**
+	 * @return length of the content if it's known in advance, -1 otherwise
+	 */
+	public long getExpectedLength() {
+		return mExpectedLength;
+	}
+
+	/**
+	 * @return amount of bytes read so far
+	 */
+	public long getCount() {
+		return mCount;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+		if (b != -1)
+			mCount++;
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int count = in.read(buffer, offset, length);
+		if (count > 0)
+			mCount += count;
+		return count;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long count = in.skip(n);
+		mCount += count;
+		return count;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+}
@@ -0,0 +1,37 @@
+package com.denisigo.moments.api;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream counting bytes written through it.
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+	private long mCount;
+
+	public CountingOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	/**
+	 * @return amount of bytes written so far
+	 */
+	public long getCount() {
+		return mCount;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		mCount++;
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length)
+			throws IOException {
+		out.write(buffer, offset, length);
+		mCount += length;
+	}
+}
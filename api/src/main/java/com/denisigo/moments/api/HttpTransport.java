@@ -0,0 +1,106 @@
+package com.denisigo.moments.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Transport making exchanges with HttpURLConnection. Keep-alive connections
+ * are pooled by the platform, see ApiConnectionPool.
+ */
+public class HttpTransport implements ApiTransport {
+
+	// HTTP timeouts in milliseconds
+	public static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+	public static final int DEFAULT_READ_TIMEOUT = 10000;
+
+	private final int mConnectTimeout;
+	private final int mReadTimeout;
+
+	public HttpTransport() {
+		this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+	}
+
+	public HttpTransport(int connectTimeout, int readTimeout) {
+		mConnectTimeout = connectTimeout;
+		mReadTimeout = readTimeout;
+	}
+
+	@Override
+	public Exchange open(URL url, String method) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setReadTimeout(mReadTimeout);
+		conn.setConnectTimeout(mConnectTimeout);
+		conn.setRequestMethod(method);
+		conn.setDoInput(true);
+		if (method.equals("POST"))
+			conn.setDoOutput(true);
+		return new HttpExchange(conn);
+	}
+
+	/*
+	 * Exchange over HttpURLConnection.
+	 */
+	private static class HttpExchange implements Exchange {
+		private final HttpURLConnection mConnection;
+
+		HttpExchange(HttpURLConnection connection) {
+			mConnection = connection;
+		}
+
+		@Override
+		public void setRequestProperty(String name, String value) {
+			mConnection.setRequestProperty(name, value);
+		}
+
+		@Override
+		public void setFixedLengthStreamingMode(int length) {
+			mConnection.setFixedLengthStreamingMode(length);
+		}
+
+		@Override
+		public void setChunkedStreamingMode() {
+			mConnection.setChunkedStreamingMode(0);
+		}
+
+		@Override
+		public void connect() throws IOException {
+			mConnection.connect();
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			return mConnection.getOutputStream();
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			return mConnection.getResponseCode();
+		}
+
+		@Override
+		public String getHeaderField(String name) {
+			return mConnection.getHeaderField(name);
+		}
+
+		@Override
+		public long getContentLength() {
+			return mConnection.getContentLength();
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			// Content is available in different streams in depend of status
+			if (mConnection.getResponseCode() == HttpURLConnection.HTTP_OK)
+				return mConnection.getInputStream();
+			return mConnection.getErrorStream();
+		}
+
+		@Override
+		public void disconnect() {
+			mConnection.disconnect();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.denisigo.moments.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * JSON format of the moments API.
+ */
+public class JsonApiCodec implements ApiCodec {
+
+	private final MomentWriter mWriter = new MomentWriter();
+
+	@Override
+	public Moments readMoments(InputStream is, int expectedCount)
+			throws IOException {
+		return new MomentsReader().read(is, expectedCount);
+	}
+
+	@Override
+	public Moment readPosted(InputStream is) throws IOException {
+		return new MomentsReader().readPosted(is);
+	}
+
+	/**
+	 * Reads message of {"error": {"message": "..."}} response.
+	 */
+	@Override
+	public String readError(InputStream is) throws IOException {
+		JsonReader reader = new JsonReader(new InputStreamReader(is, "UTF-8"));
+		String message = null;
+
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (!reader.nextName().equals("error")
+						|| reader.peek() != JsonToken.BEGIN_OBJECT) {
+					reader.skipValue();
+					continue;
+				}
+
+				reader.beginObject();
+				while (reader.hasNext()) {
+					if (reader.nextName().equals("message")
+							&& reader.peek() == JsonToken.STRING)
+						message = reader.nextString();
+					else
+						reader.skipValue();
+				}
+				reader.endObject();
+			}
+			reader.endObject();
+		} catch (IllegalStateException e) {
+			throw new IOException("Unable to parse API response.");
+		}
+
+		return message;
+	}
+
+	@Override
+	public void writeMoment(Moment moment, RequestBody body) {
+		mWriter.writeMoment(moment, body);
+	}
+
+	@Override
+	public void writeMoments(Moment[] moments, RequestBody body) {
+		mWriter.writeMoments(moments, body);
+	}
+}
@@ -0,0 +1,477 @@
+package com.denisigo.moments.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming JSON reader not depending on the platform. Has the same methods
+ * as android.util.JsonReader, so code using one runs with the other:
+ * unexpected tokens are reported with IllegalStateException, malformed JSON
+ * with IOException.
+ *
+ * Not thread-safe.
+ */
+public class JsonReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 1024;
+
+	// Scopes of the stack
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private final Reader mIn;
+	private final char[] mBuffer = new char[BUFFER_SIZE];
+	private int mPos;
+	private int mLimit;
+
+	private int[] mStack = new int[32];
+	private int mStackSize;
+
+	// Peeked token and its value, if any
+	private JsonToken mToken;
+	private String mValue;
+
+	public JsonReader(Reader in) {
+		if (in == null)
+			throw new NullPointerException("in == null");
+		mIn = in;
+		push(EMPTY_DOCUMENT);
+	}
+
+	public void beginArray() throws IOException {
+		expect(JsonToken.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws IOException {
+		expect(JsonToken.END_ARRAY);
+		mStackSize--;
+	}
+
+	public void beginObject() throws IOException {
+		expect(JsonToken.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws IOException {
+		expect(JsonToken.END_OBJECT);
+		mStackSize--;
+	}
+
+	/**
+	 * @return whether current array or object has more elements
+	 */
+	public boolean hasNext() throws IOException {
+		JsonToken token = peek();
+		return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY
+				&& token != JsonToken.END_DOCUMENT;
+	}
+
+	/**
+	 * @return type of the next token without consuming it
+	 */
+	public JsonToken peek() throws IOException {
+		if (mToken != null)
+			return mToken;
+
+		int c;
+		switch (mStack[mStackSize - 1]) {
+		case EMPTY_DOCUMENT:
+			mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+			return readValue();
+		case NONEMPTY_DOCUMENT:
+			if (nextNonWhitespace() != -1)
+				throw syntaxError("Expected end of document");
+			return mToken = JsonToken.END_DOCUMENT;
+		case EMPTY_ARRAY:
+			if (nextNonWhitespace() == ']') {
+				mPos++;
+				return mToken = JsonToken.END_ARRAY;
+			}
+			mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+			return readValue();
+		case NONEMPTY_ARRAY:
+			c = nextNonWhitespace();
+			if (c == ']') {
+				mPos++;
+				return mToken = JsonToken.END_ARRAY;
+			}
+			if (c != ',')
+				throw syntaxError("Expected ',' or ']'");
+			mPos++;
+			return readValue();
+		case EMPTY_OBJECT:
+			if (nextNonWhitespace() == '}') {
+				mPos++;
+				return mToken = JsonToken.END_OBJECT;
+			}
+			return readName();
+		case NONEMPTY_OBJECT:
+			c = nextNonWhitespace();
+			if (c == '}') {
+				mPos++;
+				return mToken = JsonToken.END_OBJECT;
+			}
+			if (c != ',')
+				throw syntaxError("Expected ',' or '}'");
+			mPos++;
+			return readName();
+		case DANGLING_NAME:
+			if (nextNonWhitespace() != ':')
+				throw syntaxError("Expected ':'");
+			mPos++;
+			mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+			return readValue();
+		default:
+			throw new AssertionError();
+		}
+	}
+
+	public String nextName() throws IOException {
+		expect(JsonToken.NAME);
+		return takeValue();
+	}
+
+	/**
+	 * @return string value, numbers are returned as strings too
+	 */
+	public String nextString() throws IOException {
+		JsonToken token = peek();
+		if (token != JsonToken.STRING && token != JsonToken.NUMBER)
+			throw new IllegalStateException("Expected a string but was "
+					+ token);
+		mToken = null;
+		return takeValue();
+	}
+
+	public boolean nextBoolean() throws IOException {
+		expect(JsonToken.BOOLEAN);
+		return takeValue().equals("true");
+	}
+
+	public void nextNull() throws IOException {
+		expect(JsonToken.NULL);
+		takeValue();
+	}
+
+	/**
+	 * @return long value, strings are parsed too
+	 * @throws NumberFormatException
+	 *             if the value is not an integer which fits long
+	 */
+	public long nextLong() throws IOException {
+		JsonToken token = peek();
+		if (token != JsonToken.STRING && token != JsonToken.NUMBER)
+			throw new IllegalStateException("Expected a long but was "
+					+ token);
+
+		String value = mValue;
+		long result;
+		try {
+			result = Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			// I.e. 1.0 or 1e3
+			double d = Double.parseDouble(value);
+			result = (long) d;
+			if (result != d)
+				throw new NumberFormatException("Expected a long but was "
+						+ value);
+		}
+		mToken = null;
+		mValue = null;
+		return result;
+	}
+
+	public int nextInt() throws IOException {
+		JsonToken token = peek();
+		if (token != JsonToken.STRING && token != JsonToken.NUMBER)
+			throw new IllegalStateException("Expected an int but was "
+					+ token);
+
+		String value = mValue;
+		int result;
+		try {
+			result = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			double d = Double.parseDouble(value);
+			result = (int) d;
+			if (result != d)
+				throw new NumberFormatException("Expected an int but was "
+						+ value);
+		}
+		mToken = null;
+		mValue = null;
+		return result;
+	}
+
+	public double nextDouble() throws IOException {
+		JsonToken token = peek();
+		if (token != JsonToken.STRING && token != JsonToken.NUMBER)
+			throw new IllegalStateException("Expected a double but was "
+					+ token);
+
+		double result = Double.parseDouble(mValue);
+		mToken = null;
+		mValue = null;
+		return result;
+	}
+
+	/**
+	 * Skips the next value, with all its nested values if it's an array or
+	 * an object.
+	 */
+	public void skipValue() throws IOException {
+		JsonToken token = peek();
+		if (token == JsonToken.NAME || token == JsonToken.END_ARRAY
+				|| token == JsonToken.END_OBJECT
+				|| token == JsonToken.END_DOCUMENT)
+			throw new IllegalStateException("Expected a value but was "
+					+ token);
+
+		int depth = 0;
+		do {
+			token = peek();
+			if (token == JsonToken.BEGIN_ARRAY) {
+				beginArray();
+				depth++;
+			} else if (token == JsonToken.BEGIN_OBJECT) {
+				beginObject();
+				depth++;
+			} else if (token == JsonToken.END_ARRAY) {
+				endArray();
+				depth--;
+			} else if (token == JsonToken.END_OBJECT) {
+				endObject();
+				depth--;
+			} else {
+				// Names and primitive values
+				mToken = null;
+				mValue = null;
+			}
+		} while (depth > 0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		mToken = null;
+		mValue = null;
+		mStackSize = 0;
+		mIn.close();
+	}
+
+	private void expect(JsonToken expected) throws IOException {
+		JsonToken token = peek();
+		if (token != expected)
+			throw new IllegalStateException("Expected " + expected
+					+ " but was " + token);
+		mToken = null;
+	}
+
+	private String takeValue() {
+		String value = mValue;
+		mValue = null;
+		return value;
+	}
+
+	private void push(int scope) {
+		if (mStackSize == mStack.length) {
+			int[] stack = new int[mStackSize * 2];
+			System.arraycopy(mStack, 0, stack, 0, mStackSize);
+			mStack = stack;
+		}
+		mStack[mStackSize++] = scope;
+	}
+
+	private JsonToken readName() throws IOException {
+		if (nextNonWhitespace() != '"')
+			throw syntaxError("Expected name");
+		mPos++;
+		mValue = readString();
+		mStack[mStackSize - 1] = DANGLING_NAME;
+		return mToken = JsonToken.NAME;
+	}
+
+	private JsonToken readValue() throws IOException {
+		int c = nextNonWhitespace();
+		switch (c) {
+		case '{':
+			mPos++;
+			return mToken = JsonToken.BEGIN_OBJECT;
+		case '[':
+			mPos++;
+			return mToken = JsonToken.BEGIN_ARRAY;
+		case '"':
+			mPos++;
+			mValue = readString();
+			return mToken = JsonToken.STRING;
+		case 't':
+		case 'f':
+		case 'n':
+			return readLiteral();
+		case -1:
+			throw syntaxError("Unexpected end of document");
+		default:
+			if (c == '-' || (c >= '0' && c <= '9'))
+				return readNumber();
+			throw syntaxError("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	private JsonToken readLiteral() throws IOException {
+		String word = readWhile("abcdefghijklmnopqrstuvwxyz");
+		if (word.equals("true") || word.equals("false")) {
+			mValue = word;
+			return mToken = JsonToken.BOOLEAN;
+		} else if (word.equals("null")) {
+			return mToken = JsonToken.NULL;
+		}
+		throw syntaxError("Unexpected literal " + word);
+	}
+
+	private JsonToken readNumber() throws IOException {
+		mValue = readWhile("0123456789+-.eE");
+		return mToken = JsonToken.NUMBER;
+	}
+
+	/**
+	 * Reads characters from the set.
+	 */
+	private String readWhile(String chars) throws IOException {
+		StringBuilder builder = null;
+		while (true) {
+			int start = mPos;
+			while (mPos < mLimit && chars.indexOf(mBuffer[mPos]) != -1)
+				mPos++;
+			if (mPos < mLimit) {
+				// Reached other character
+				if (builder == null)
+					return new String(mBuffer, start, mPos - start);
+				builder.append(mBuffer, start, mPos - start);
+				return builder.toString();
+			}
+			if (builder == null)
+				builder = new StringBuilder();
+			builder.append(mBuffer, start, mPos - start);
+			if (!fill(1))
+				return builder.toString();
+		}
+	}
+
+	/**
+	 * Reads string which opening quote is already consumed. Characters are
+	 * copied right from the buffer unless there are escapes or the string
+	 * doesn't fit the buffer.
+	 */
+	private String readString() throws IOException {
+		StringBuilder builder = null;
+		while (true) {
+			int start = mPos;
+			while (mPos < mLimit) {
+				char c = mBuffer[mPos++];
+				if (c == '"') {
+					if (builder == null)
+						return new String(mBuffer, start, mPos - start - 1);
+					builder.append(mBuffer, start, mPos - start - 1);
+					return builder.toString();
+				} else if (c == '\\') {
+					if (builder == null)
+						builder = new StringBuilder();
+					builder.append(mBuffer, start, mPos - start - 1);
+					builder.append(readEscape());
+					start = mPos;
+				}
+			}
+			if (builder == null)
+				builder = new StringBuilder();
+			builder.append(mBuffer, start, mPos - start);
+			if (!fill(1))
+				throw syntaxError("Unterminated string");
+		}
+	}
+
+	/**
+	 * Reads escape sequence which backslash is already consumed.
+	 */
+	private char readEscape() throws IOException {
+		if (mPos == mLimit && !fill(1))
+			throw syntaxError("Unterminated escape sequence");
+
+		char c = mBuffer[mPos++];
+		switch (c) {
+		case 'u':
+			if (mLimit - mPos < 4 && !fill(4))
+				throw syntaxError("Unterminated escape sequence");
+			int result = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(mBuffer[mPos++], 16);
+				if (digit == -1)
+					throw syntaxError("Malformed \\u escape sequence");
+				result = (result << 4) | digit;
+			}
+			return (char) result;
+		case 't':
+			return '\t';
+		case 'b':
+			return '\b';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 'f':
+			return '\f';
+		case '"':
+		case '\\':
+		case '/':
+			return c;
+		default:
+			throw syntaxError("Invalid escape sequence \\" + c);
+		}
+	}
+
+	/**
+	 * @return next non-whitespace character without consuming it, or -1 at
+	 *         the end of the document
+	 */
+	private int nextNonWhitespace() throws IOException {
+		while (true) {
+			if (mPos == mLimit && !fill(1))
+				return -1;
+			char c = mBuffer[mPos];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+				return c;
+			mPos++;
+		}
+	}
+
+	/**
+	 * Moves unread characters to the beginning of the buffer and reads
+	 * until there are at least the given amount of them.
+	 *
+	 * @return false if the document ended before
+	 */
+	private boolean fill(int minimum) throws IOException {
+		int remaining = mLimit - mPos;
+		if (remaining > 0)
+			System.arraycopy(mBuffer, mPos, mBuffer, 0, remaining);
+		mPos = 0;
+		mLimit = remaining;
+
+		while (mLimit < minimum) {
+			int count = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit);
+			if (count == -1)
+				return false;
+			mLimit += count;
+		}
+		return true;
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException("Malformed JSON: " + message);
+	}
+}
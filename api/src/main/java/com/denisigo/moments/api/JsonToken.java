@@ -0,0 +1,8 @@
+package com.denisigo.moments.api;
+
+/**
+ * Kinds of tokens read by JsonReader.
+ */
+public enum JsonToken {
+	BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+}
@@ -1,7 +1,4 @@
-package com.denisigo.moments;
-
-import java.util.Date;
-
+package com.denisigo.moments.api;
 
 /**
  * Represents a Moment.
@@ -11,7 +8,8 @@ public class Moment{
 	private long mId;
 	private String mText;
 	private String mAuthorName;
-	private Date mAdded;	
+	// Epoch milliseconds, UTC
+	private long mAdded;
 
 	public Moment() {
 
@@ -22,7 +20,7 @@ public class Moment{
 		this.setAuthorName(authorName);
 	}
 
-	public Moment(long id, String text, String authorName, Date added) {
+	public Moment(long id, String text, String authorName, long added) {
 		this.setId(id);
 		this.setText(text);
 		this.setAuthorName(authorName);
@@ -53,11 +51,11 @@ public class Moment{
 		mId = id;
 	}
 
-	public Date getAdded() {
+	public long getAdded() {
 		return mAdded;
 	}
 
-	public void setAdded(Date added) {
+	public void setAdded(long added) {
 		mAdded = added;
 	}
 }
@@ -0,0 +1,70 @@
+package com.denisigo.moments.api;
+
+/**
+ * Builds info lines of moments, like "Posted on 2014-03-08 15:04 by John",
+ * from a template with "%1$s" standing for the date and "%2$s" for the
+ * author, i.e. a string resource of the app. The template is split once, so
+ * formatting only appends to the given StringBuilder.
+ *
+ * Thread-safe.
+ */
+public class MomentInfoFormatter {
+
+	private static final String DATE = "%1$s";
+	private static final String AUTHOR = "%2$s";
+
+	private final String mPrefix;
+	private final String mInfix;
+	private final String mSuffix;
+	private final boolean mIsDateFirst;
+	private final String mAnonymous;
+
+	/**
+	 * @param template
+	 *            template of the line with "%1$s" and "%2$s"
+	 * @param anonymous
+	 *            author shown for moments without author name
+	 */
+	public MomentInfoFormatter(String template, String anonymous) {
+		int date = template.indexOf(DATE);
+		int author = template.indexOf(AUTHOR);
+		if (date < 0 || author < 0)
+			throw new IllegalArgumentException("Template must have " + DATE
+					+ " and " + AUTHOR);
+
+		mIsDateFirst = date < author;
+		int first = Math.min(date, author);
+		int second = Math.max(date, author);
+		mPrefix = template.substring(0, first);
+		mInfix = template.substring(first + DATE.length(), second);
+		mSuffix = template.substring(second + AUTHOR.length());
+		mAnonymous = anonymous;
+	}
+
+	/**
+	 * @param sb
+	 *            StringBuilder to reuse, it's cleared first
+	 * @param moment
+	 *            Moment instance
+	 * @return info line of the moment
+	 */
+	public String format(StringBuilder sb, Moment moment) {
+		String authorName = moment.getAuthorName();
+		if (authorName == null)
+			authorName = mAnonymous;
+
+		sb.setLength(0);
+		sb.append(mPrefix);
+		if (mIsDateFirst)
+			Timestamps.appendDisplay(sb, moment.getAdded());
+		else
+			sb.append(authorName);
+		sb.append(mInfix);
+		if (mIsDateFirst)
+			sb.append(authorName);
+		else
+			Timestamps.appendDisplay(sb, moment.getAdded());
+		sb.append(mSuffix);
+		return sb.toString();
+	}
+}
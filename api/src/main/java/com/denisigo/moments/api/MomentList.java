@@ -0,0 +1,298 @@
+package com.denisigo.moments.api;
+
+import java.util.Arrays;
+
+/**
+ * Ordered list of moments without duplicates. Moments are stored in a ring
+ * buffer, so they can be added both at the head and at the tail in amortized
+ * constant time, and ids are kept in a primitive hash set, so duplicate
+ * moments are rejected in constant time too.
+ *
+ * Not thread-safe.
+ */
+public class MomentList {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	// Ring buffer of moments, capacity is always power of two
+	private Moment[] mItems;
+	private int mHead;
+	private int mSize;
+
+	// Open addressing hash set of ids, with linear probing
+	private long[] mIds;
+	private boolean[] mUsed;
+	private int mIdsMask;
+
+	public MomentList() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public MomentList(int capacity) {
+		int size = powerOfTwo(Math.max(capacity, DEFAULT_CAPACITY));
+		mItems = new Moment[size];
+		allocateIds(size * 2);
+	}
+
+	public int size() {
+		return mSize;
+	}
+
+	public boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	/**
+	 * @param position
+	 *            position of the moment, 0 is the head
+	 * @return moment at the position
+	 */
+	public Moment get(int position) {
+		if (position < 0 || position >= mSize)
+			throw new IndexOutOfBoundsException("Position " + position
+					+ ", size " + mSize);
+		return mItems[(mHead + position) & (mItems.length - 1)];
+	}
+
+	/**
+	 * @return whether there is a moment with the id
+	 */
+	public boolean contains(long id) {
+		return mUsed[find(id)];
+	}
+
+	/**
+	 * Adds moment at the head of the list.
+	 *
+	 * @return false if there is a moment with the same id already
+	 */
+	public boolean addFirst(Moment moment) {
+		if (!addId(moment.getId()))
+			return false;
+
+		ensureCapacity(mSize + 1);
+		mHead = (mHead - 1) & (mItems.length - 1);
+		mItems[mHead] = moment;
+		mSize++;
+		return true;
+	}
+
+	/**
+	 * Adds moment at the tail of the list.
+	 *
+	 * @return false if there is a moment with the same id already
+	 */
+	public boolean addLast(Moment moment) {
+		if (!addId(moment.getId()))
+			return false;
+
+		ensureCapacity(mSize + 1);
+		mItems[(mHead + mSize) & (mItems.length - 1)] = moment;
+		mSize++;
+		return true;
+	}
+
+	/**
+	 * Inserts moment at the position, shifting the moments before it towards
+	 * the head. Takes time linear in the position.
+	 *
+	 * @return false if there is a moment with the same id already
+	 */
+	public boolean add(int position, Moment moment) {
+		if (position < 0 || position > mSize)
+			throw new IndexOutOfBoundsException("Position " + position
+					+ ", size " + mSize);
+		if (!addId(moment.getId()))
+			return false;
+
+		ensureCapacity(mSize + 1);
+		int mask = mItems.length - 1;
+		mHead = (mHead - 1) & mask;
+		for (int i = 0; i < position; i++)
+			mItems[(mHead + i) & mask] = mItems[(mHead + i + 1) & mask];
+		mItems[(mHead + position) & mask] = moment;
+		mSize++;
+		return true;
+	}
+
+	/**
+	 * Merges moments, newest first, into the list ordered by added time,
+	 * starting from the position. Each one is put before the first moment
+	 * which isn't newer, so pages of new moments arriving out of order don't
+	 * put older moments above newer ones. Duplicates are skipped. Takes time
+	 * linear in the positions the moments are put at.
+	 *
+	 * @return amount of moments added
+	 */
+	public int addAllByAdded(int position, Moment[] moments) {
+		ensureCapacity(mSize + moments.length);
+
+		int added = 0;
+		for (Moment moment : moments) {
+			while (position < mSize
+					&& get(position).getAdded() > moment.getAdded())
+				position++;
+			if (add(position, moment)) {
+				position++;
+				added++;
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Adds moments at the head of the list keeping their order, so the first
+	 * one becomes the head. Duplicates are skipped.
+	 *
+	 * @return amount of moments added
+	 */
+	public int addAllFirst(Moment[] moments) {
+		ensureCapacity(mSize + moments.length);
+
+		int added = 0;
+		for (int i = moments.length - 1; i >= 0; i--) {
+			if (addFirst(moments[i]))
+				added++;
+		}
+		return added;
+	}
+
+	/**
+	 * Adds moments at the tail of the list keeping their order. Duplicates
+	 * are skipped.
+	 *
+	 * @return amount of moments added
+	 */
+	public int addAllLast(Moment[] moments) {
+		ensureCapacity(mSize + moments.length);
+
+		int added = 0;
+		for (Moment moment : moments) {
+			if (addLast(moment))
+				added++;
+		}
+		return added;
+	}
+
+	/**
+	 * Removes moment with the id. Takes linear time.
+	 *
+	 * @return false if there is no such moment
+	 */
+	public boolean remove(long id) {
+		if (!removeId(id))
+			return false;
+
+		int mask = mItems.length - 1;
+		for (int i = 0; i < mSize; i++) {
+			if (mItems[(mHead + i) & mask].getId() == id) {
+				// Shift the tail one position back
+				for (int j = i; j < mSize - 1; j++)
+					mItems[(mHead + j) & mask] = mItems[(mHead + j + 1) & mask];
+				mItems[(mHead + mSize - 1) & mask] = null;
+				mSize--;
+				return true;
+			}
+		}
+		return true;
+	}
+
+	public void clear() {
+		Arrays.fill(mItems, null);
+		Arrays.fill(mUsed, false);
+		mHead = 0;
+		mSize = 0;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= mItems.length)
+			return;
+
+		Moment[] items = new Moment[powerOfTwo(capacity)];
+		for (int i = 0; i < mSize; i++)
+			items[i] = mItems[(mHead + i) & (mItems.length - 1)];
+		mItems = items;
+		mHead = 0;
+
+		// Keep load factor of the id set below 0.5
+		if (capacity * 2 > mIds.length)
+			rehash(items.length * 2);
+	}
+
+	/*
+	 * Id set operations
+	 */
+
+	private void allocateIds(int size) {
+		mIds = new long[size];
+		mUsed = new boolean[size];
+		mIdsMask = size - 1;
+	}
+
+	private void rehash(int size) {
+		long[] ids = mIds;
+		boolean[] used = mUsed;
+		allocateIds(size);
+		for (int i = 0; i < ids.length; i++) {
+			if (used[i]) {
+				int slot = find(ids[i]);
+				mIds[slot] = ids[i];
+				mUsed[slot] = true;
+			}
+		}
+	}
+
+	/**
+	 * @return slot containing the id, or empty slot where it should be put
+	 */
+	private int find(long id) {
+		int slot = hash(id) & mIdsMask;
+		while (mUsed[slot] && mIds[slot] != id)
+			slot = (slot + 1) & mIdsMask;
+		return slot;
+	}
+
+	private boolean addId(long id) {
+		if ((mSize + 1) * 2 > mIds.length)
+			rehash(mIds.length * 2);
+
+		int slot = find(id);
+		if (mUsed[slot])
+			return false;
+		mIds[slot] = id;
+		mUsed[slot] = true;
+		return true;
+	}
+
+	private boolean removeId(long id) {
+		int slot = find(id);
+		if (!mUsed[slot])
+			return false;
+		mUsed[slot] = false;
+
+		// Move back the following ids of the probe sequence, so there are no
+		// holes breaking lookups
+		int next = (slot + 1) & mIdsMask;
+		while (mUsed[next]) {
+			int home = hash(mIds[next]) & mIdsMask;
+			if (((next - home) & mIdsMask) >= ((next - slot) & mIdsMask)) {
+				mIds[slot] = mIds[next];
+				mUsed[slot] = true;
+				mUsed[next] = false;
+				slot = next;
+			}
+			next = (next + 1) & mIdsMask;
+		}
+		return true;
+	}
+
+	private static int hash(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static int powerOfTwo(int n) {
+		int size = Integer.highestOneBit(n);
+		return size < n ? size << 1 : size;
+	}
+}
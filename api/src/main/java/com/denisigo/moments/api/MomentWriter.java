@@ -0,0 +1,115 @@
+package com.denisigo.moments.api;
+
+/**
+ * Serializer of moments to post. Encodes JSON right into UTF-8 bytes of
+ * RequestBody, without building strings or going through Writer.
+ *
+ * Single moment is written as {"text": ..., "author_name": ...}, several
+ * moments as {"moments": [...]}.
+ */
+public class MomentWriter {
+
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6',
+			'7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	// The longest encoding of single char, \\uXXXX escape
+	private static final int MAX_CHAR_LENGTH = 6;
+
+	/**
+	 * Writes single moment.
+	 */
+	public void writeMoment(Moment moment, RequestBody body) {
+		body.writeAscii("{\"text\":");
+		writeString(moment.getText(), body);
+		// Anonymous moments have no author name at all
+		if (moment.getAuthorName() != null) {
+			body.writeAscii(",\"author_name\":");
+			writeString(moment.getAuthorName(), body);
+		}
+		body.write('}');
+	}
+
+	/**
+	 * Writes batch of moments.
+	 */
+	public void writeMoments(Moment[] moments, RequestBody body) {
+		body.writeAscii("{\"moments\":[");
+		for (int i = 0; i < moments.length; i++) {
+			if (i > 0)
+				body.write(',');
+			writeMoment(moments[i], body);
+		}
+		body.writeAscii("]}");
+	}
+
+	private static void writeString(String value, RequestBody body) {
+		if (value == null) {
+			body.writeAscii("null");
+			return;
+		}
+
+		int length = value.length();
+		// Worst case, so the loop doesn't check the capacity
+		body.ensureCapacity(length * MAX_CHAR_LENGTH + 2);
+		byte[] buffer = body.getBuffer();
+		int pos = body.getLength();
+
+		buffer[pos++] = '"';
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				if (c >= 0x20 && c != '"' && c != '\\') {
+					buffer[pos++] = (byte) c;
+				} else if (c == '"' || c == '\\') {
+					buffer[pos++] = '\\';
+					buffer[pos++] = (byte) c;
+				} else if (c == '\n') {
+					buffer[pos++] = '\\';
+					buffer[pos++] = 'n';
+				} else if (c == '\r') {
+					buffer[pos++] = '\\';
+					buffer[pos++] = 'r';
+				} else if (c == '\t') {
+					buffer[pos++] = '\\';
+					buffer[pos++] = 't';
+				} else {
+					pos = writeEscape(c, buffer, pos);
+				}
+			} else if (c < 0x800) {
+				buffer[pos++] = (byte) (0xc0 | (c >> 6));
+				buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+			} else if (c == '\u2028' || c == '\u2029') {
+				// Line separators break JavaScript parsers
+				pos = writeEscape(c, buffer, pos);
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer[pos++] = (byte) (0xf0 | (codePoint >> 18));
+				buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+				buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+				buffer[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+			} else if (c >= Character.MIN_SURROGATE
+					&& c <= Character.MAX_SURROGATE) {
+				// Unpaired surrogate can't be encoded, as String.getBytes()
+				buffer[pos++] = '?';
+			} else {
+				buffer[pos++] = (byte) (0xe0 | (c >> 12));
+				buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		buffer[pos++] = '"';
+
+		body.setLength(pos);
+	}
+
+	private static int writeEscape(char c, byte[] buffer, int pos) {
+		buffer[pos++] = '\\';
+		buffer[pos++] = 'u';
+		buffer[pos++] = HEX[(c >> 12) & 0xf];
+		buffer[pos++] = HEX[(c >> 8) & 0xf];
+		buffer[pos++] = HEX[(c >> 4) & 0xf];
+		buffer[pos++] = HEX[c & 0xf];
+		return pos;
+	}
+}
@@ -0,0 +1,70 @@
+package com.denisigo.moments.api;
+
+/*
+ * Container for getMoments result.
+ */
+public class Moments {
+	private Moment[] mMoments;
+	private boolean mIsMore;
+	private String mCursor;
+	// Size of the response content, in bytes
+	private long mByteCount;
+
+	public Moments(Moment[] moments, boolean isMore, String cursor) {
+		this.setMoments(moments);
+		this.setCursor(cursor);
+		this.setIsMore(isMore);
+	}
+
+	public Moment[] getMoments() {
+		return mMoments;
+	}
+
+	private void setMoments(Moment[] moments) {
+		mMoments = moments;
+	}
+
+	public String getCursor() {
+		return mCursor;
+	}
+
+	private void setCursor(String cursor) {
+		mCursor = cursor;
+	}
+	
+	public boolean isMore() {
+		return mIsMore;
+	}
+
+	private void setIsMore(boolean mIsMore) {
+		this.mIsMore = mIsMore;
+	}
+
+	/**
+	 * @return size of the response content the moments were parsed from,
+	 *         in bytes, 0 if unknown
+	 */
+	public long getByteCount() {
+		return mByteCount;
+	}
+
+	void setByteCount(long byteCount) {
+		mByteCount = byteCount;
+	}
+
+	/**
+	 * @return copy with copies of the moments, so changes of one don't
+	 *         show in the other
+	 */
+	Moments copy() {
+		Moment[] moments = new Moment[mMoments.length];
+		for (int i = 0; i < moments.length; i++) {
+			Moment moment = mMoments[i];
+			moments[i] = new Moment(moment.getId(), moment.getText(),
+					moment.getAuthorName(), moment.getAdded());
+		}
+		Moments copy = new Moments(moments, mIsMore, mCursor);
+		copy.mByteCount = mByteCount;
+		return copy;
+	}
+}
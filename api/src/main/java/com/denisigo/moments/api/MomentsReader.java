@@ -0,0 +1,162 @@
+package com.denisigo.moments.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser for the moments API response. Reads tokens right from the
+ * response stream and creates Moment objects as they are read, so neither
+ * the whole response string nor the JSON tree are kept in memory.
+ */
+public class MomentsReader {
+
+	// Initial capacity of the moments list if there is no better guess
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * Reads moments response from the stream.
+	 *
+	 * @param is
+	 *            InputStream of the response
+	 * @param expectedCount
+	 *            expected amount of moments (usually request limit) to size
+	 *            the list
+	 * @return Moments instance
+	 * @throws IOException
+	 *             if stream can't be read or response is malformed
+	 */
+	public Moments read(InputStream is, int expectedCount) throws IOException {
+		JsonReader reader = new JsonReader(new InputStreamReader(is, "UTF-8"));
+
+		String cursor = null;
+		List<Moment> moments = null;
+
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+
+				if (name.equals("cursor")) {
+					cursor = nextStringOrNull(reader);
+				} else if (name.equals("moments")) {
+					moments = new ArrayList<Moment>(
+							expectedCount > 0 ? expectedCount : DEFAULT_CAPACITY);
+					reader.beginArray();
+					while (reader.hasNext())
+						moments.add(readMoment(reader));
+					reader.endArray();
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		} catch (IllegalStateException e) {
+			// JsonReader reports unexpected tokens this way
+			throw new IOException("Unable to parse API response.");
+		} catch (NumberFormatException e) {
+			throw new IOException("Unable to parse API response.");
+		}
+
+		if (moments == null)
+			throw new IOException("Unable to parse API response.");
+
+		boolean isMore = cursor != null;
+
+		return new Moments(moments.toArray(new Moment[moments.size()]),
+				isMore, cursor);
+	}
+
+	/**
+	 * Reads response to posting a moment. The moment may be either the
+	 * response object itself or its "moment" field.
+	 *
+	 * @param is
+	 *            InputStream of the response
+	 * @return posted Moment, or null if the response has no moment with id
+	 *         and added time
+	 * @throws IOException
+	 *             if stream can't be read or response is malformed
+	 */
+	public Moment readPosted(InputStream is) throws IOException {
+		JsonReader reader = new JsonReader(new InputStreamReader(is, "UTF-8"));
+
+		Moment moment = new Moment();
+
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+
+				if (name.equals("moment")
+						&& reader.peek() == JsonToken.BEGIN_OBJECT)
+					moment = readMoment(reader);
+				else
+					readField(reader, name, moment);
+			}
+			reader.endObject();
+		} catch (IllegalStateException e) {
+			throw new IOException("Unable to parse API response.");
+		} catch (NumberFormatException e) {
+			throw new IOException("Unable to parse API response.");
+		}
+
+		// Server ids and times are never 0
+		if (moment.getId() == 0 || moment.getAdded() == 0)
+			return null;
+		return moment;
+	}
+
+	/**
+	 * Reads single moment object.
+	 */
+	private Moment readMoment(JsonReader reader) throws IOException {
+		Moment moment = new Moment();
+
+		reader.beginObject();
+		while (reader.hasNext())
+			readField(reader, reader.nextName(), moment);
+		reader.endObject();
+
+		return moment;
+	}
+
+	/**
+	 * Reads value of moment field, skips unknown fields.
+	 */
+	private void readField(JsonReader reader, String name, Moment moment)
+			throws IOException {
+		if (name.equals("id")) {
+			moment.setId(reader.nextLong());
+		} else if (name.equals("text")) {
+			moment.setText(nextStringOrNull(reader));
+		} else if (name.equals("author_name")) {
+			moment.setAuthorName(nextStringOrNull(reader));
+		} else if (name.equals("added")) {
+			moment.setAdded(parseDate(nextStringOrNull(reader)));
+		} else {
+			reader.skipValue();
+		}
+	}
+
+	private static long parseDate(String value) throws IOException {
+		if (value == null)
+			throw new IOException("Unable to parse API response.");
+		try {
+			return Timestamps.parse(value);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Unable to parse API response.");
+		}
+	}
+
+	private static String nextStringOrNull(JsonReader reader)
+			throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		return reader.nextString();
+	}
+}
@@ -0,0 +1,241 @@
+package com.denisigo.moments.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Live feed of new moments. Keeps long polling the server in its own thread
+ * for moments posted after the newest one seen, and passes them to the
+ * listener as they arrive. After errors it reconnects with growing delays
+ * and resumes from the newest moment seen, so nothing is missed or passed
+ * twice.
+ */
+public class MomentsStream {
+
+	// Time the server holds the poll waiting for new moments, in seconds.
+	// Must be shorter than the read timeout of ApiFetcher.
+	public static final int WAIT_TIME = 8;
+	// Interval between polls returning nothing right away, in milliseconds,
+	// in case the server doesn't hold them. Grows with each such poll in a
+	// row, with jitter, up to the maximal one.
+	public static final long MIN_POLL_INTERVAL = 5000;
+	public static final long MAX_POLL_INTERVAL = 5 * 60 * 1000;
+	// Polls returning nothing sooner than this weren't held by the server,
+	// in milliseconds
+	private static final long MIN_HELD_TIME = WAIT_TIME * 1000 / 2;
+	// Delays between reconnects, in milliseconds
+	private static final long RETRY_BASE_DELAY = 1000;
+	private static final long RETRY_MAX_DELAY = 60000;
+
+	private final Api mApi;
+	private final int mPageSize;
+	private final ApiRetryPolicy mRetryPolicy = new ApiRetryPolicy(
+			Integer.MAX_VALUE, RETRY_BASE_DELAY, RETRY_MAX_DELAY, 0);
+	private final ApiRetryPolicy mIdlePolicy = new ApiRetryPolicy(
+			Integer.MAX_VALUE, MIN_POLL_INTERVAL, MAX_POLL_INTERVAL, 0);
+
+	// Currently running polling
+	private ApiCall<Void> mCall;
+
+	// Resume point: added time of the newest moment seen and ids of the
+	// moments seen with that time
+	private long mLastAdded;
+	private final Set<Long> mLastIds = new HashSet<Long>();
+
+	/*
+	 * Receives new moments. Executed in worker thread without locks held,
+	 * so it may still be called with the result being delivered when stop()
+	 * is called, but not with later ones.
+	 */
+	public interface Listener {
+		/**
+		 * Called when new moments arrive.
+		 * 
+		 * @param result
+		 *            new moments, newest first. If it's not complete, there
+		 *            is a gap between them and the moments seen before.
+		 */
+		public void onMoments(MomentsSync.Result result);
+	}
+
+	/**
+	 * @param api
+	 *            Api instance
+	 * @param pageSize
+	 *            maximal amount of moments requested at once
+	 */
+	public MomentsStream(Api api, int pageSize) {
+		if (pageSize <= 0)
+			throw new IllegalArgumentException("Page size must be > 0");
+		mApi = api;
+		mPageSize = pageSize;
+	}
+
+	/**
+	 * Starts polling, unless it's running already.
+	 * 
+	 * @param newest
+	 *            the newest moment we have, polling resumes from the newest
+	 *            moment seen if it's newer
+	 * @param listener
+	 *            Listener for new moments
+	 */
+	public synchronized void start(Moment newest, final Listener listener) {
+		if (mCall != null)
+			return;
+
+		synchronized (mLastIds) {
+			if (newest.getAdded() > mLastAdded) {
+				mLastAdded = newest.getAdded();
+				mLastIds.clear();
+			}
+			if (newest.getAdded() == mLastAdded)
+				mLastIds.add(newest.getId());
+		}
+
+		mCall = new ApiCall<Void>(new Callable<Void>() {
+			@Override
+			public Void call() {
+				poll(listener);
+				return null;
+			}
+		}, null, null);
+
+		// Polling holds a connection for long, so it doesn't take a thread
+		// of the shared pool
+		Thread thread = new Thread(mCall, "Api stream");
+		thread.setPriority(Thread.NORM_PRIORITY - 1);
+		thread.start();
+	}
+
+	/**
+	 * Stops polling, the connection is aborted right away.
+	 */
+	public synchronized void stop() {
+		if (mCall != null) {
+			mCall.cancel();
+			mCall = null;
+		}
+	}
+
+	public synchronized boolean isRunning() {
+		return mCall != null;
+	}
+
+	/**
+	 * Polls until cancelled. Executed in worker thread.
+	 */
+	private void poll(Listener listener) {
+		ApiCall<?> call = ApiCall.current();
+		int failures = 0;
+		// Polls in a row returning nothing right away
+		int idlePolls = 0;
+
+		while (!call.isCancelled()) {
+			long start = System.nanoTime();
+
+			MomentsSync.Result result;
+			try {
+				result = pollOnce();
+				failures = 0;
+			} catch (IOException e) {
+				if (!sleep(mRetryPolicy.getDelay(failures++, -1)))
+					return;
+				continue;
+			}
+
+			if (result.getMoments().length > 0) {
+				idlePolls = 0;
+				// The listener isn't called under the lock, so it doesn't
+				// block stop() in UI thread
+				synchronized (this) {
+					if (mCall != call)
+						return;
+				}
+				listener.onMoments(result);
+				continue;
+			}
+
+			if (call.isCancelled())
+				return;
+
+			// Server which doesn't hold polls is polled less and less often
+			long elapsed = (System.nanoTime() - start) / 1000000;
+			if (elapsed >= MIN_HELD_TIME)
+				idlePolls = 0;
+			else if (!sleep(mIdlePolicy.getDelay(idlePolls++, -1) - elapsed))
+				return;
+		}
+	}
+
+	/**
+	 * Polls for moments posted after the newest moment seen.
+	 */
+	private MomentsSync.Result pollOnce() throws IOException {
+		long fromTime;
+		synchronized (mLastIds) {
+			fromTime = mLastAdded;
+		}
+
+		Moments page = mApi.pollMoments(fromTime, mPageSize, WAIT_TIME);
+		MomentsSync.Result result;
+		if (page.isMore() && page.getMoments().length >= mPageSize) {
+			// More moments than fit in a page, so the rest is loaded like
+			// by refresh
+			result = new MomentsSync(mApi, mPageSize).syncNewer(fromTime,
+					page);
+		} else {
+			result = new MomentsSync.Result(page.getMoments(), 1, true);
+		}
+
+		return new MomentsSync.Result(filterNew(result.getMoments()),
+				result.getRoundTrips(), result.isComplete());
+	}
+
+	/**
+	 * Drops moments seen already and moves the resume point.
+	 */
+	private Moment[] filterNew(Moment[] moments) {
+		synchronized (mLastIds) {
+			List<Moment> fresh = new ArrayList<Moment>(moments.length);
+			for (Moment moment : moments) {
+				// from_time has seconds precision, so the newest moment seen
+				// is usually returned again
+				if (moment.getAdded() < mLastAdded
+						|| (moment.getAdded() == mLastAdded && mLastIds
+								.contains(moment.getId())))
+					continue;
+				fresh.add(moment);
+			}
+
+			for (Moment moment : fresh) {
+				if (moment.getAdded() > mLastAdded) {
+					mLastAdded = moment.getAdded();
+					mLastIds.clear();
+				}
+				if (moment.getAdded() == mLastAdded)
+					mLastIds.add(moment.getId());
+			}
+
+			return fresh.toArray(new Moment[fresh.size()]);
+		}
+	}
+
+	/**
+	 * @return false if interrupted, i.e. the stream is stopped
+	 */
+	private static boolean sleep(long delay) {
+		if (delay <= 0)
+			return !Thread.currentThread().isInterrupted();
+		try {
+			Thread.sleep(delay);
+			return true;
+		} catch (InterruptedException e) {
+			return false;
+		}
+	}
+}
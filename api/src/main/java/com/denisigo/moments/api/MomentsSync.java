@@ -0,0 +1,140 @@
+package com.denisigo.moments.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loads all the moments posted since the newest moment we have. If there
+ * were more of them than fit in a page, it keeps following the cursor
+ * towards older moments until it reaches our newest moment, so there is no
+ * gap between loaded and already available moments.
+ *
+ * Synchronous, should be wrapped with AsyncTask or so.
+ */
+public class MomentsSync {
+
+	// Default limit of round trips for single sync
+	public static final int DEFAULT_MAX_ROUND_TRIPS = 20;
+
+	private final Api mApi;
+	private final int mPageSize;
+	private final int mMaxRoundTrips;
+
+	/*
+	 * Result of the sync.
+	 */
+	public static class Result {
+		private Moment[] mMoments;
+		private int mRoundTrips;
+		private boolean mIsComplete;
+
+		public Result(Moment[] moments, int roundTrips, boolean isComplete) {
+			mMoments = moments;
+			mRoundTrips = roundTrips;
+			mIsComplete = isComplete;
+		}
+
+		/**
+		 * @return new moments, newest first
+		 */
+		public Moment[] getMoments() {
+			return mMoments;
+		}
+
+		/**
+		 * @return amount of requests made
+		 */
+		public int getRoundTrips() {
+			return mRoundTrips;
+		}
+
+		/**
+		 * @return false if round trips limit was reached before the gap was
+		 *         closed, so moments can't be merged with the existing ones
+		 */
+		public boolean isComplete() {
+			return mIsComplete;
+		}
+	}
+
+	public MomentsSync(Api api, int pageSize) {
+		this(api, pageSize, DEFAULT_MAX_ROUND_TRIPS);
+	}
+
+	public MomentsSync(Api api, int pageSize, int maxRoundTrips) {
+		if (pageSize <= 0 || maxRoundTrips <= 0)
+			throw new IllegalArgumentException(
+					"Page size and round trips must be > 0");
+
+		mApi = api;
+		mPageSize = pageSize;
+		mMaxRoundTrips = maxRoundTrips;
+	}
+
+	/**
+	 * Loads moments posted after the newest moment we have.
+	 *
+	 * @param newestAdded
+	 *            added time of the newest moment we have
+	 * @return Result instance
+	 * @throws IOException
+	 */
+	public Result syncNewer(long newestAdded) throws IOException {
+		return syncNewer(newestAdded, null);
+	}
+
+	/**
+	 * Loads moments posted after the newest moment we have, continuing from
+	 * the first page fetched already.
+	 *
+	 * @param newestAdded
+	 *            added time of the newest moment we have
+	 * @param firstPage
+	 *            first page fetched for newestAdded, or null to fetch it
+	 * @return Result instance
+	 * @throws IOException
+	 */
+	public Result syncNewer(long newestAdded, Moments firstPage)
+			throws IOException {
+		List<Moment> moments = null;
+		String cursor = null;
+		int roundTrips = 0;
+		Moments page = firstPage;
+
+		while (true) {
+			// All the pages are fetched back to back, so they go over the
+			// same kept alive connection
+			if (page == null)
+				page = mApi.getMoments(cursor, newestAdded, mPageSize);
+			roundTrips++;
+
+			Moment[] pageMoments = page.getMoments();
+
+			// Page which is not full or has no cursor reaches our newest
+			// moment, so there is no gap
+			if (!page.isMore() || pageMoments.length < mPageSize) {
+				if (moments == null)
+					return new Result(pageMoments, roundTrips, true);
+
+				moments.addAll(Arrays.asList(pageMoments));
+				return new Result(toArray(moments), roundTrips, true);
+			}
+
+			if (moments == null)
+				moments = new ArrayList<Moment>(mPageSize * 2);
+			moments.addAll(Arrays.asList(pageMoments));
+
+			if (roundTrips >= mMaxRoundTrips)
+				return new Result(toArray(moments), roundTrips, false);
+
+			cursor = page.getCursor();
+			page = null;
+		}
+	}
+
+	private static Moment[] toArray(List<Moment> moments) {
+		return moments.toArray(new Moment[moments.size()]);
+	}
+}
@@ -0,0 +1,266 @@
+package com.denisigo.moments.api;
+
+/**
+ * Picks amount of moments to request per page. Page latency is modelled as
+ * fixed round trip overhead plus cost of every moment, fitted to the recent
+ * pages. Pages are made as large as the latency budget allows, so fast
+ * networks pay fewer round trips and slow ones don't time out, but large
+ * enough to cover the rows scrolled while the page is loading. Chosen sizes
+ * and resulting latencies are kept, so the policy can be tuned.
+ *
+ * Thread-safe.
+ */
+public class PageSizePolicy {
+
+	public static final int DEFAULT_MIN_SIZE = 5;
+	public static final int DEFAULT_MAX_SIZE = 50;
+	public static final int DEFAULT_INITIAL_SIZE = 10;
+	// Latency pages are sized for, in milliseconds
+	public static final long DEFAULT_TARGET_LATENCY = 1000;
+	// Latency pages must not exceed even if scrolling is fast, well below
+	// the read timeout
+	private static final long MAX_LATENCY = 5000;
+
+	// Amount of pages kept in history and used to fit the model
+	private static final int HISTORY_SIZE = 32;
+	// Minimal amount of pages of different sizes needed to fit the model
+	private static final int MIN_FIT_SAMPLES = 4;
+	// Throughput assumed until the model is fitted, in bytes per millisecond
+	private static final float DEFAULT_THROUGHPUT = 50;
+	// Page should hold this much more rows than scrolled while loading it
+	private static final float SCROLL_SAFETY_FACTOR = 1.5f;
+	// Pages grow at most this many times larger than measured ones, since
+	// the model is extrapolated beyond them
+	private static final int MAX_GROWTH = 2;
+
+	private final int mMinSize;
+	private final int mMaxSize;
+	private final int mInitialSize;
+	private final long mTargetLatency;
+
+	// Ring buffer of loaded pages
+	private final Sample[] mHistory = new Sample[HISTORY_SIZE];
+	private int mHistoryHead;
+	private int mHistoryCount;
+
+	/*
+	 * Loaded page.
+	 */
+	public static class Sample {
+		private final int mPageSize;
+		private final int mCount;
+		private final long mLatency;
+		private final long mBytes;
+
+		Sample(int pageSize, int count, long latency, long bytes) {
+			mPageSize = pageSize;
+			mCount = count;
+			mLatency = latency;
+			mBytes = bytes;
+		}
+
+		/**
+		 * @return requested amount of moments
+		 */
+		public int getPageSize() {
+			return mPageSize;
+		}
+
+		/**
+		 * @return received amount of moments
+		 */
+		public int getCount() {
+			return mCount;
+		}
+
+		/**
+		 * @return time it took to load the page, in milliseconds
+		 */
+		public long getLatency() {
+			return mLatency;
+		}
+
+		/**
+		 * @return size of the page content, in bytes
+		 */
+		public long getBytes() {
+			return mBytes;
+		}
+
+		@Override
+		public String toString() {
+			return mPageSize + "/" + mCount + " " + mLatency + "ms " + mBytes
+					+ "b";
+		}
+	}
+
+	public PageSizePolicy() {
+		this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_INITIAL_SIZE,
+				DEFAULT_TARGET_LATENCY);
+	}
+
+	/**
+	 * @param minSize
+	 *            minimal page size
+	 * @param maxSize
+	 *            maximal page size
+	 * @param initialSize
+	 *            page size used until pages are measured
+	 * @param targetLatency
+	 *            latency pages are sized for, in milliseconds
+	 */
+	public PageSizePolicy(int minSize, int maxSize, int initialSize,
+			long targetLatency) {
+		if (minSize <= 0 || maxSize < minSize || initialSize < minSize
+				|| initialSize > maxSize || targetLatency <= 0)
+			throw new IllegalArgumentException("Invalid page size bounds");
+
+		mMinSize = minSize;
+		mMaxSize = maxSize;
+		mInitialSize = initialSize;
+		mTargetLatency = targetLatency;
+	}
+
+	/**
+	 * @param scrollVelocity
+	 *            current scroll velocity, in rows per second
+	 * @return amount of moments to request
+	 */
+	public synchronized int getPageSize(float scrollVelocity) {
+		float[] model = fit();
+		if (model == null)
+			return mInitialSize;
+
+		float overhead = model[0];
+		float costPerMoment = model[1];
+
+		// Largest page fitting the latency budgets
+		float target = sizeFor(mTargetLatency, overhead, costPerMoment);
+		float limit = sizeFor(MAX_LATENCY, overhead, costPerMoment);
+
+		// Page covering the rows scrolled while it's loading:
+		// n >= k * v * (overhead + cost * n)
+		float rate = SCROLL_SAFETY_FACTOR * scrollVelocity / 1000;
+		float scroll;
+		if (rate * costPerMoment >= 1)
+			scroll = mMaxSize;
+		else
+			scroll = rate * overhead / (1 - rate * costPerMoment);
+
+		float size = Math.min(Math.max(target, scroll), limit);
+		size = Math.min(size, MAX_GROWTH * getMaxMeasured());
+		return Math.max(mMinSize,
+				Math.min(mMaxSize, (int) Math.ceil(size)));
+	}
+
+	/**
+	 * Should be called when page is loaded.
+	 * 
+	 * @param pageSize
+	 *            requested amount of moments
+	 * @param count
+	 *            received amount of moments
+	 * @param latency
+	 *            time it took to load the page, in milliseconds
+	 * @param bytes
+	 *            size of the page content, in bytes, 0 if unknown
+	 */
+	public synchronized void onPageLoaded(int pageSize, int count,
+			long latency, long bytes) {
+		mHistory[(mHistoryHead + mHistoryCount) % HISTORY_SIZE] = new Sample(
+				pageSize, count, latency, bytes);
+		if (mHistoryCount < HISTORY_SIZE)
+			mHistoryCount++;
+		else
+			mHistoryHead = (mHistoryHead + 1) % HISTORY_SIZE;
+	}
+
+	/**
+	 * @return recently loaded pages, oldest first
+	 */
+	public synchronized Sample[] getHistory() {
+		Sample[] history = new Sample[mHistoryCount];
+		for (int i = 0; i < mHistoryCount; i++)
+			history[i] = mHistory[(mHistoryHead + i) % HISTORY_SIZE];
+		return history;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("PageSizePolicy [");
+		float[] model = fit();
+		if (model != null)
+			sb.append("overhead=").append((int) model[0])
+					.append("ms, perMoment=").append(model[1]).append("ms");
+		sb.append(", history=");
+		for (int i = 0; i < mHistoryCount; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(mHistory[(mHistoryHead + i) % HISTORY_SIZE]);
+		}
+		return sb.append("]").toString();
+	}
+
+	/**
+	 * @return the largest amount of moments received in one page
+	 */
+	private int getMaxMeasured() {
+		int max = 0;
+		for (int i = 0; i < mHistoryCount; i++)
+			max = Math.max(max,
+					mHistory[(mHistoryHead + i) % HISTORY_SIZE].mCount);
+		return max;
+	}
+
+	/**
+	 * Fits latency = overhead + cost * count to the history with least
+	 * squares. Pages are taken by received amount of moments, so partial
+	 * pages, like the last one, count too, and empty ones are skipped. If
+	 * pages were all of the same size, the cost is estimated from their size
+	 * and assumed throughput.
+	 * 
+	 * @return overhead and cost per moment in milliseconds, or null if there
+	 *         are no pages with moments yet
+	 */
+	private float[] fit() {
+		int n = 0;
+		double sumX = 0, sumY = 0, sumXX = 0, sumXY = 0;
+		long bytes = 0;
+		for (int i = 0; i < mHistoryCount; i++) {
+			Sample sample = mHistory[(mHistoryHead + i) % HISTORY_SIZE];
+			if (sample.mCount == 0)
+				continue;
+			n++;
+			sumX += sample.mCount;
+			sumY += sample.mLatency;
+			sumXX += (double) sample.mCount * sample.mCount;
+			sumXY += (double) sample.mCount * sample.mLatency;
+			bytes += sample.mBytes;
+		}
+		if (n == 0)
+			return null;
+
+		double meanX = sumX / n;
+		double meanY = sumY / n;
+		double varX = sumXX / n - meanX * meanX;
+
+		double cost;
+		if (n >= MIN_FIT_SAMPLES && varX >= 1) {
+			cost = (sumXY / n - meanX * meanY) / varX;
+		} else {
+			double bytesPerMoment = bytes / sumX;
+			cost = bytesPerMoment / DEFAULT_THROUGHPUT;
+		}
+		// Noise may make it negative, larger pages are never cheaper
+		cost = Math.max(cost, 0);
+		double overhead = Math.max(meanY - cost * meanX, 0);
+
+		return new float[] { (float) overhead, (float) cost };
+	}
+
+	private float sizeFor(long latency, float overhead, float costPerMoment) {
+		if (costPerMoment <= 0)
+			return mMaxSize;
+		return Math.max(0, (latency - overhead) / costPerMoment);
+	}
+}
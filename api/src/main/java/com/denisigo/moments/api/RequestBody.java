@@ -0,0 +1,82 @@
+package com.denisigo.moments.api;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable buffer holding request body, reused between requests so posting
+ * doesn't allocate. Unlike ByteArrayOutputStream it's not synchronized and
+ * gives access to the buffer without copying.
+ *
+ * Not thread-safe.
+ */
+public class RequestBody extends OutputStream {
+
+	private byte[] mBuffer;
+	private int mLength;
+
+	public RequestBody(int initialCapacity) {
+		mBuffer = new byte[initialCapacity];
+	}
+
+	/**
+	 * Empties the body keeping the buffer.
+	 */
+	public void reset() {
+		mLength = 0;
+	}
+
+	/**
+	 * @return buffer of the body, valid up to getLength()
+	 */
+	public byte[] getBuffer() {
+		return mBuffer;
+	}
+
+	public int getLength() {
+		return mLength;
+	}
+
+	public int getCapacity() {
+		return mBuffer.length;
+	}
+
+	@Override
+	public void write(int b) {
+		ensureCapacity(1);
+		mBuffer[mLength++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(buffer, offset, mBuffer, mLength, length);
+		mLength += length;
+	}
+
+	/**
+	 * Writes string which has only ASCII characters.
+	 */
+	void writeAscii(String s) {
+		int length = s.length();
+		ensureCapacity(length);
+		for (int i = 0; i < length; i++)
+			mBuffer[mLength + i] = (byte) s.charAt(i);
+		mLength += length;
+	}
+
+	/**
+	 * Makes room for more bytes, so they can be written right into the
+	 * buffer.
+	 */
+	void ensureCapacity(int extra) {
+		int required = mLength + extra;
+		if (required > mBuffer.length)
+			mBuffer = Arrays.copyOf(mBuffer,
+					Math.max(required, mBuffer.length * 2));
+	}
+
+	void setLength(int length) {
+		mLength = length;
+	}
+}
@@ -0,0 +1,224 @@
+package com.denisigo.moments.api;
+
+/**
+ * Parsing and formatting of the API timestamps ("yyyy-MM-ddTHH:mm:ss" with
+ * optional fraction of second and time zone designator) to and from epoch
+ * milliseconds. Timestamps without time zone are treated as UTC, since that's
+ * what API server uses.
+ *
+ * Unlike SimpleDateFormat it has no state, so it's thread-safe, and doesn't
+ * allocate anything but the resulting strings.
+ */
+public final class Timestamps {
+
+	private static final long MILLIS_PER_SECOND = 1000;
+	private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+	private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+	private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+	private Timestamps() {
+	}
+
+	/**
+	 * Parses API timestamp.
+	 *
+	 * @param s
+	 *            timestamp like "2014-03-08T15:04:05", "2014-03-08T15:04:05.123456"
+	 *            or "2014-03-08T15:04:05+02:00"
+	 * @return epoch milliseconds
+	 * @throws IllegalArgumentException
+	 *             if timestamp is malformed
+	 */
+	public static long parse(CharSequence s) {
+		int length = s.length();
+		if (length < 19 || s.charAt(4) != '-' || s.charAt(7) != '-'
+				|| (s.charAt(10) != 'T' && s.charAt(10) != ' ')
+				|| s.charAt(13) != ':' || s.charAt(16) != ':')
+			throw malformed(s);
+
+		int year = digits(s, 0, 4);
+		int month = digits(s, 5, 2);
+		int day = digits(s, 8, 2);
+		int hour = digits(s, 11, 2);
+		int minute = digits(s, 14, 2);
+		int second = digits(s, 17, 2);
+
+		if (month < 1 || month > 12 || day < 1
+				|| day > daysInMonth(year, month) || hour > 23
+				|| minute > 59 || second > 59)
+			throw malformed(s);
+
+		int pos = 19;
+
+		// Optional fraction of second, only milliseconds are kept
+		int millis = 0;
+		if (pos < length && s.charAt(pos) == '.') {
+			pos++;
+			int start = pos;
+			while (pos < length && isDigit(s.charAt(pos))) {
+				if (pos - start < 3)
+					millis = millis * 10 + (s.charAt(pos) - '0');
+				pos++;
+			}
+			if (pos == start)
+				throw malformed(s);
+			for (int i = pos - start; i < 3; i++)
+				millis *= 10;
+		}
+
+		// Optional time zone designator
+		long offset = 0;
+		if (pos < length) {
+			char c = s.charAt(pos);
+			if (c == 'Z' && pos + 1 == length) {
+				pos++;
+			} else if ((c == '+' || c == '-') && pos + 6 == length
+					&& s.charAt(pos + 3) == ':') {
+				int offsetHours = digits(s, pos + 1, 2);
+				int offsetMinutes = digits(s, pos + 4, 2);
+				offset = offsetHours * MILLIS_PER_HOUR + offsetMinutes
+						* MILLIS_PER_MINUTE;
+				if (c == '-')
+					offset = -offset;
+				pos += 6;
+			} else {
+				throw malformed(s);
+			}
+		}
+
+		return daysFromCivil(year, month, day) * MILLIS_PER_DAY + hour
+				* MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE + second
+				* MILLIS_PER_SECOND + millis - offset;
+	}
+
+	/**
+	 * Formats timestamp the way API expects it in requests.
+	 *
+	 * @param millis
+	 *            epoch milliseconds
+	 * @return string like "2014-03-08T15:04:05" (UTC)
+	 */
+	public static String format(long millis) {
+		StringBuilder sb = new StringBuilder(19);
+		appendDate(sb, millis);
+		sb.append('T');
+		appendTime(sb, millis, true);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends timestamp in human readable form to the builder.
+	 *
+	 * @param sb
+	 *            StringBuilder to append to
+	 * @param millis
+	 *            epoch milliseconds
+	 * @return the same StringBuilder, with something like "2014-03-08 15:04"
+	 *         (UTC) appended
+	 */
+	public static StringBuilder appendDisplay(StringBuilder sb, long millis) {
+		appendDate(sb, millis);
+		sb.append(' ');
+		appendTime(sb, millis, false);
+		return sb;
+	}
+
+	private static void appendDate(StringBuilder sb, long millis) {
+		long days = floorDiv(millis, MILLIS_PER_DAY);
+
+		// Converts days since epoch to civil date, see
+		// http://howardhinnant.github.io/date_algorithms.html
+		long z = days + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+		pad(sb, year, 4);
+		sb.append('-');
+		pad(sb, month, 2);
+		sb.append('-');
+		pad(sb, day, 2);
+	}
+
+	private static void appendTime(StringBuilder sb, long millis,
+			boolean seconds) {
+		long time = millis - floorDiv(millis, MILLIS_PER_DAY) * MILLIS_PER_DAY;
+
+		pad(sb, time / MILLIS_PER_HOUR, 2);
+		sb.append(':');
+		pad(sb, time % MILLIS_PER_HOUR / MILLIS_PER_MINUTE, 2);
+		if (seconds) {
+			sb.append(':');
+			pad(sb, time % MILLIS_PER_MINUTE / MILLIS_PER_SECOND, 2);
+		}
+	}
+
+	/**
+	 * Converts civil date to days since epoch, see
+	 * http://howardhinnant.github.io/date_algorithms.html
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yoe = y - era * 400;
+		long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day
+				- 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			boolean leap = (year % 4 == 0 && year % 100 != 0)
+					|| year % 400 == 0;
+			return leap ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	private static int digits(CharSequence s, int start, int count) {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = s.charAt(i);
+			if (!isDigit(c))
+				throw malformed(s);
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static void pad(StringBuilder sb, long value, int width) {
+		for (long limit = 10; width > 1; width--, limit *= 10) {
+			if (value < limit)
+				sb.append('0');
+		}
+		sb.append(value);
+	}
+
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		if ((x % y != 0) && ((x ^ y) < 0))
+			q--;
+		return q;
+	}
+
+	private static IllegalArgumentException malformed(CharSequence s) {
+		return new IllegalArgumentException("Malformed timestamp: " + s);
+	}
+}
@@ -0,0 +1,87 @@
+package com.denisigo.moments.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream measuring time spent waiting in reads, i.e. for the network.
+ * Also tells whether the stream failed or ended, to tell network failures
+ * from errors of the code reading it.
+ */
+class TimingInputStream extends FilterInputStream {
+
+	private long mReadTime;
+	private boolean mIsFailed;
+	private boolean mIsEnded;
+
+	public TimingInputStream(InputStream in) {
+		super(in);
+	}
+
+	/**
+	 * @return time spent in reads so far, in nanoseconds
+	 */
+	public long getReadTime() {
+		return mReadTime;
+	}
+
+	/**
+	 * @return whether a read threw IOException
+	 */
+	public boolean isFailed() {
+		return mIsFailed;
+	}
+
+	/**
+	 * @return whether the end of the stream was reached
+	 */
+	public boolean isEnded() {
+		return mIsEnded;
+	}
+
+	@Override
+	public int read() throws IOException {
+		long start = System.nanoTime();
+		try {
+			int b = in.read();
+			if (b == -1)
+				mIsEnded = true;
+			return b;
+		} catch (IOException e) {
+			mIsFailed = true;
+			throw e;
+		} finally {
+			mReadTime += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		long start = System.nanoTime();
+		try {
+			int count = in.read(buffer, offset, length);
+			if (count == -1)
+				mIsEnded = true;
+			return count;
+		} catch (IOException e) {
+			mIsFailed = true;
+			throw e;
+		} finally {
+			mReadTime += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long start = System.nanoTime();
+		try {
+			return in.skip(n);
+		} catch (IOException e) {
+			mIsFailed = true;
+			throw e;
+		} finally {
+			mReadTime += System.nanoTime() - start;
+		}
+	}
+}
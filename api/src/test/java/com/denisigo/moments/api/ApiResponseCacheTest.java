@@ -0,0 +1,196 @@
+package com.denisigo.moments.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ApiResponseCacheTest {
+
+	private static final String URL = "http://fake.invalid/api/v1/moments?limit=10";
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private File mDirectory;
+
+	@Before
+	public void setUp() throws IOException {
+		mDirectory = mFolder.newFolder("api");
+	}
+
+	@Test
+	public void cachesCommittedResponse() throws IOException {
+		ApiResponseCache cache = new ApiResponseCache(mDirectory, 1024);
+		write(cache, URL, "\"1\"", null, "body");
+
+		ApiResponseCache.Entry entry = cache.get(URL);
+		assertNotNull(entry);
+		assertEquals("\"1\"", entry.getETag());
+		assertNull(entry.getLastModified());
+		assertEquals(4, entry.getLength());
+		assertEquals("body", read(cache, entry));
+		assertEquals(4, cache.getSize());
+	}
+
+	@Test
+	public void dropsUncommittedResponse() throws IOException {
+		ApiResponseCache cache = new ApiResponseCache(mDirectory, 1024);
+		ApiResponseCache.CacheWriter writer = cache.write(URL, "\"1\"", null,
+				stream("body"));
+		writer.read(new byte[2]);
+		writer.abort();
+
+		assertNull(cache.get(URL));
+		assertEquals(0, mDirectory.list().length);
+	}
+
+	@Test
+	public void replacesEntryWithItsBody() throws IOException {
+		ApiResponseCache cache = new ApiResponseCache(mDirectory, 1024);
+		write(cache, URL, "\"1\"", null, "old body");
+		write(cache, URL, "\"2\"", "Sat, 08 Mar 2014 15:04:05 GMT", "new");
+
+		ApiResponseCache.Entry entry = cache.get(URL);
+		assertEquals("\"2\"", entry.getETag());
+		assertEquals("Sat, 08 Mar 2014 15:04:05 GMT", entry.getLastModified());
+		assertEquals("new", read(cache, entry));
+		assertEquals(1, cache.getEntryCount());
+		assertEquals(3, cache.getSize());
+
+		// Meta on the disk describes the new body too
+		ApiResponseCache reloaded = new ApiResponseCache(mDirectory, 1024);
+		entry = reloaded.get(URL);
+		assertEquals("\"2\"", entry.getETag());
+		assertEquals(3, entry.getLength());
+		assertEquals("new", read(reloaded, entry));
+	}
+
+	@Test
+	public void keepsResponseWrittenWhileAnotherIsRead() throws IOException {
+		ApiResponseCache cache = new ApiResponseCache(mDirectory, 1024);
+		write(cache, URL, "\"1\"", null, "old");
+
+		// Replacing the entry doesn't break the stream opened before
+		InputStream is = cache.open(cache.get(URL));
+		try {
+			write(cache, URL, "\"2\"", null, "new");
+			assertEquals("old", read(is));
+		} finally {
+			is.close();
+		}
+		assertEquals("new", read(cache, cache.get(URL)));
+	}
+
+	@Test
+	public void dropsWritesInterruptedBeforeMeta() throws IOException {
+		ApiResponseCache cache = new ApiResponseCache(mDirectory, 1024);
+		write(cache, URL, "\"1\"", null, "body");
+
+		// Body of a write which didn't get to its meta, and a temporary file
+		touch(new File(mDirectory, "0123456789abcdef0123456789abcdef.body"));
+		touch(new File(mDirectory, "0123456789abcdef0123456789abcdef1.tmp"));
+		// Meta whose body is gone
+		File meta = null;
+		for (File file : mDirectory.listFiles()) {
+			if (file.getName().endsWith(".meta"))
+				meta = file;
+		}
+		assertNotNull(meta);
+		String key = meta.getName().substring(0,
+				meta.getName().length() - ".meta".length());
+		new File(mDirectory, key + ".body").delete();
+
+		ApiResponseCache reloaded = new ApiResponseCache(mDirectory, 1024);
+		assertEquals(0, reloaded.getEntryCount());
+		assertEquals(0, reloaded.getSize());
+		assertEquals(0, mDirectory.list().length);
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws IOException {
+		ApiResponseCache cache = new ApiResponseCache(mDirectory, 10);
+		write(cache, URL + 1, "\"1\"", null, "1111");
+		write(cache, URL + 2, "\"2\"", null, "2222");
+		// Makes the first one recently used
+		assertNotNull(cache.get(URL + 1));
+		write(cache, URL + 3, "\"3\"", null, "3333");
+
+		assertNotNull(cache.get(URL + 1));
+		assertNull(cache.get(URL + 2));
+		assertNotNull(cache.get(URL + 3));
+		assertEquals(8, cache.getSize());
+	}
+
+	@Test
+	public void removesEntry() throws IOException {
+		ApiResponseCache cache = new ApiResponseCache(mDirectory, 1024);
+		ApiResponseCache.Entry entry = write(cache, URL, "\"1\"", null,
+				"body");
+		cache.remove(URL);
+
+		assertNull(cache.get(URL));
+		try {
+			cache.open(entry).close();
+			fail("Body of removed entry is opened");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private static ApiResponseCache.Entry write(ApiResponseCache cache,
+			String url, String eTag, String lastModified, String body)
+			throws IOException {
+		ApiResponseCache.CacheWriter writer = cache.write(url, eTag,
+				lastModified, stream(body));
+		try {
+			read(writer);
+			writer.commit();
+		} finally {
+			writer.abort();
+		}
+		return cache.get(url);
+	}
+
+	private static String read(ApiResponseCache cache,
+			ApiResponseCache.Entry entry) throws IOException {
+		InputStream is = cache.open(entry);
+		try {
+			return read(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	private static String read(InputStream is) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		byte[] buffer = new byte[3];
+		int count;
+		while ((count = is.read(buffer)) != -1)
+			os.write(buffer, 0, count);
+		return os.toString("UTF-8");
+	}
+
+	private static InputStream stream(String s) throws IOException {
+		return new ByteArrayInputStream(s.getBytes("UTF-8"));
+	}
+
+	private static void touch(File file) throws IOException {
+		OutputStream os = new FileOutputStream(file);
+		os.write('x');
+		os.close();
+	}
+}
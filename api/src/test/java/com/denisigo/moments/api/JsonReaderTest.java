@@ -0,0 +1,153 @@
+package com.denisigo.moments.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class JsonReaderTest {
+
+	@Test
+	public void readsNestedValues() throws IOException {
+		JsonReader reader = reader("{\"moments\": [{\"id\": 12, \"text\": \"a\","
+				+ " \"author_name\": null}], \"more\": true, \"rate\": 0.5}");
+
+		reader.beginObject();
+		assertEquals("moments", reader.nextName());
+		reader.beginArray();
+		assertTrue(reader.hasNext());
+		reader.beginObject();
+		assertEquals("id", reader.nextName());
+		assertEquals(12, reader.nextLong());
+		assertEquals("text", reader.nextName());
+		assertEquals("a", reader.nextString());
+		assertEquals("author_name", reader.nextName());
+		assertEquals(JsonToken.NULL, reader.peek());
+		reader.nextNull();
+		assertFalse(reader.hasNext());
+		reader.endObject();
+		assertFalse(reader.hasNext());
+		reader.endArray();
+		assertEquals("more", reader.nextName());
+		assertTrue(reader.nextBoolean());
+		assertEquals("rate", reader.nextName());
+		assertEquals(0.5, reader.nextDouble(), 0);
+		reader.endObject();
+		assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+	}
+
+	@Test
+	public void readsEmptyContainers() throws IOException {
+		JsonReader reader = reader("[[], {}]");
+		reader.beginArray();
+		reader.beginArray();
+		assertFalse(reader.hasNext());
+		reader.endArray();
+		reader.beginObject();
+		assertFalse(reader.hasNext());
+		reader.endObject();
+		reader.endArray();
+		assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+	}
+
+	@Test
+	public void unescapesStrings() throws IOException {
+		JsonReader reader = reader("[\"q\\\"b\\\\s\\/n\\nt\\tu\\u00e9\","
+				+ " \"\\ud83d\\ude00\", \"\u65e5\u672c\"]");
+		reader.beginArray();
+		assertEquals("q\"b\\s/n\nt\tu\u00e9", reader.nextString());
+		assertEquals("\ud83d\ude00", reader.nextString());
+		assertEquals("\u65e5\u672c", reader.nextString());
+		reader.endArray();
+	}
+
+	@Test
+	public void readsValuesLongerThanBuffer() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 5000; i++)
+			text.append((char) ('a' + i % 26));
+		JsonReader reader = reader("[\"" + text + "\", 1]");
+		reader.beginArray();
+		assertEquals(text.toString(), reader.nextString());
+		assertEquals(1, reader.nextInt());
+		reader.endArray();
+	}
+
+	@Test
+	public void convertsNumbersAndStrings() throws IOException {
+		JsonReader reader = reader("[1.0, \"42\", 1e3, -7, 9007199254740993]");
+		reader.beginArray();
+		assertEquals(1, reader.nextInt());
+		assertEquals(42, reader.nextLong());
+		assertEquals(1000, reader.nextLong());
+		assertEquals("-7", reader.nextString());
+		assertEquals(9007199254740993L, reader.nextLong());
+		reader.endArray();
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void rejectsFractionalLong() throws IOException {
+		JsonReader reader = reader("[1.5]");
+		reader.beginArray();
+		reader.nextLong();
+	}
+
+	@Test
+	public void skipsNestedValues() throws IOException {
+		JsonReader reader = reader("{\"skipped\": {\"a\": [1, {\"b\": []}],"
+				+ " \"c\": \"}\"}, \"kept\": 1}");
+		reader.beginObject();
+		assertEquals("skipped", reader.nextName());
+		reader.skipValue();
+		assertEquals("kept", reader.nextName());
+		assertEquals(1, reader.nextInt());
+		reader.endObject();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void reportsUnexpectedToken() throws IOException {
+		JsonReader reader = reader("{\"a\": 1}");
+		reader.beginArray();
+	}
+
+	@Test
+	public void reportsMalformedJson() throws IOException {
+		assertMalformed("{\"a\" 1}");
+		assertMalformed("[1 2]");
+		assertMalformed("[\"unterminated");
+		assertMalformed("[1] 2");
+	}
+
+	private static void assertMalformed(String json) {
+		JsonReader reader = reader(json);
+		try {
+			while (reader.peek() != JsonToken.END_DOCUMENT) {
+				JsonToken token = reader.peek();
+				if (token == JsonToken.BEGIN_ARRAY)
+					reader.beginArray();
+				else if (token == JsonToken.END_ARRAY)
+					reader.endArray();
+				else if (token == JsonToken.BEGIN_OBJECT)
+					reader.beginObject();
+				else if (token == JsonToken.END_OBJECT)
+					reader.endObject();
+				else if (token == JsonToken.NAME)
+					reader.nextName();
+				else
+					reader.skipValue();
+			}
+			fail("Malformed JSON is read: " + json);
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private static JsonReader reader(String json) {
+		return new JsonReader(new StringReader(json));
+	}
+}
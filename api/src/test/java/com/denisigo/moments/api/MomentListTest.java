@@ -0,0 +1,133 @@
+package com.denisigo.moments.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MomentListTest {
+
+	@Test
+	public void addsAtBothEnds() {
+		MomentList list = new MomentList();
+		assertTrue(list.isEmpty());
+		assertTrue(list.addLast(moment(2, 20)));
+		assertTrue(list.addFirst(moment(3, 30)));
+		assertTrue(list.addLast(moment(1, 10)));
+
+		assertIds(list, 3, 2, 1);
+		assertTrue(list.contains(2));
+		assertFalse(list.contains(4));
+	}
+
+	@Test
+	public void rejectsDuplicates() {
+		MomentList list = new MomentList();
+		list.addLast(moment(1, 10));
+		assertFalse(list.addFirst(moment(1, 10)));
+		assertFalse(list.addLast(moment(1, 10)));
+		assertFalse(list.add(0, moment(1, 10)));
+		assertEquals(1, list.addAllFirst(new Moment[] { moment(2, 20),
+				moment(1, 10) }));
+		assertEquals(1, list.addAllLast(new Moment[] { moment(2, 20),
+				moment(0, 0) }));
+
+		assertIds(list, 2, 1, 0);
+	}
+
+	@Test
+	public void growsAcrossTheRingBufferEnd() {
+		MomentList list = new MomentList(16);
+		// Adding at both ends wraps the head around before growing
+		for (int i = 0; i < 100; i++) {
+			list.addFirst(moment(1000 + i, 0));
+			list.addLast(moment(i, 0));
+		}
+
+		assertEquals(200, list.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(1099 - i, list.get(i).getId());
+			assertEquals(i, list.get(100 + i).getId());
+		}
+	}
+
+	@Test
+	public void addsAllKeepingOrder() {
+		MomentList list = new MomentList();
+		list.addAllLast(new Moment[] { moment(5, 50), moment(4, 40) });
+		list.addAllFirst(new Moment[] { moment(7, 70), moment(6, 60) });
+		list.addAllLast(new Moment[] { moment(3, 30), moment(2, 20) });
+
+		assertIds(list, 7, 6, 5, 4, 3, 2);
+	}
+
+	@Test
+	public void insertsAtPosition() {
+		MomentList list = new MomentList();
+		list.addAllLast(new Moment[] { moment(3, 30), moment(1, 10) });
+		list.add(1, moment(2, 20));
+		list.add(0, moment(4, 40));
+		list.add(list.size(), moment(0, 0));
+
+		assertIds(list, 4, 3, 2, 1, 0);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void rejectsPositionOutOfBounds() {
+		new MomentList().add(1, moment(1, 10));
+	}
+
+	@Test
+	public void mergesByAddedTimeBelowPosition() {
+		MomentList list = new MomentList();
+		// Two pending moments stay on top, whatever their added times are
+		list.addAllLast(new Moment[] { moment(-2, 5), moment(-1, 5),
+				moment(30, 300), moment(10, 100) });
+
+		// Older page of new moments arrives before the newer one
+		assertEquals(2, list.addAllByAdded(2, new Moment[] { moment(20, 200),
+				moment(15, 150) }));
+		assertEquals(2, list.addAllByAdded(2, new Moment[] { moment(40, 400),
+				moment(30, 300), moment(35, 350) }));
+
+		assertIds(list, -2, -1, 40, 35, 30, 20, 15, 10);
+	}
+
+	@Test
+	public void removesById() {
+		MomentList list = new MomentList();
+		list.addAllLast(new Moment[] { moment(3, 30), moment(2, 20),
+				moment(1, 10) });
+
+		assertTrue(list.remove(2));
+		assertFalse(list.remove(2));
+		assertFalse(list.contains(2));
+		assertIds(list, 3, 1);
+
+		// Removed id can be added again
+		assertTrue(list.add(1, moment(2, 20)));
+		assertIds(list, 3, 2, 1);
+	}
+
+	@Test
+	public void clears() {
+		MomentList list = new MomentList();
+		list.addAllLast(new Moment[] { moment(2, 20), moment(1, 10) });
+		list.clear();
+
+		assertEquals(0, list.size());
+		assertFalse(list.contains(1));
+		assertTrue(list.addFirst(moment(1, 10)));
+	}
+
+	private static void assertIds(MomentList list, long... ids) {
+		assertEquals(ids.length, list.size());
+		for (int i = 0; i < ids.length; i++)
+			assertEquals("Position " + i, ids[i], list.get(i).getId());
+	}
+
+	private static Moment moment(long id, long added) {
+		return new Moment(id, "Moment " + id, null, added);
+	}
+}
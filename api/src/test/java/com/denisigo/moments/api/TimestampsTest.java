@@ -0,0 +1,99 @@
+package com.denisigo.moments.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class TimestampsTest {
+
+	@Test
+	public void parsesUtcTimestamps() {
+		assertEquals(utc(2014, 3, 8, 15, 4, 5, 0),
+				Timestamps.parse("2014-03-08T15:04:05"));
+		assertEquals(utc(2014, 3, 8, 15, 4, 5, 0),
+				Timestamps.parse("2014-03-08 15:04:05"));
+		assertEquals(utc(2014, 3, 8, 15, 4, 5, 0),
+				Timestamps.parse("2014-03-08T15:04:05Z"));
+		assertEquals(0, Timestamps.parse("1970-01-01T00:00:00"));
+		assertEquals(utc(1969, 12, 31, 23, 59, 59, 0),
+				Timestamps.parse("1969-12-31T23:59:59"));
+		assertEquals(utc(2000, 2, 29, 0, 0, 0, 0),
+				Timestamps.parse("2000-02-29T00:00:00"));
+	}
+
+	@Test
+	public void keepsMillisecondsOfFraction() {
+		assertEquals(utc(2014, 3, 8, 15, 4, 5, 123),
+				Timestamps.parse("2014-03-08T15:04:05.123456"));
+		assertEquals(utc(2014, 3, 8, 15, 4, 5, 500),
+				Timestamps.parse("2014-03-08T15:04:05.5"));
+		assertEquals(utc(2014, 3, 8, 15, 4, 5, 70),
+				Timestamps.parse("2014-03-08T15:04:05.07Z"));
+	}
+
+	@Test
+	public void appliesTimeZoneOffset() {
+		assertEquals(utc(2014, 3, 8, 13, 4, 5, 0),
+				Timestamps.parse("2014-03-08T15:04:05+02:00"));
+		assertEquals(utc(2014, 3, 9, 0, 34, 5, 0),
+				Timestamps.parse("2014-03-08T19:04:05-05:30"));
+	}
+
+	@Test
+	public void rejectsMalformedTimestamps() {
+		String[] malformed = { "", "2014-03-08", "2014-03-08T15:04",
+				"2014/03/08T15:04:05", "2014-13-08T15:04:05",
+				"2014-02-29T15:04:05", "2014-04-31T15:04:05",
+				"2014-03-08T24:00:00", "2014-03-08T15:60:05",
+				"2014-03-08T15:04:05.", "2014-03-08T15:04:05+0200",
+				"2014-03-08T15:04:05X", "2014-03-08T15:04:05Z1",
+				"20a4-03-08T15:04:05" };
+		for (String s : malformed) {
+			try {
+				Timestamps.parse(s);
+				fail("Malformed timestamp is parsed: " + s);
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void formatsUtcSeconds() {
+		assertEquals("2014-03-08T15:04:05",
+				Timestamps.format(utc(2014, 3, 8, 15, 4, 5, 999)));
+		assertEquals("1970-01-01T00:00:00", Timestamps.format(0));
+		assertEquals("1969-12-31T23:59:59", Timestamps.format(-1));
+		assertEquals("2000-02-29T00:00:00",
+				Timestamps.format(utc(2000, 2, 29, 0, 0, 0, 0)));
+	}
+
+	@Test
+	public void formatsWhatItParses() {
+		long millis = utc(1999, 12, 31, 23, 59, 59, 0);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(millis, Timestamps.parse(Timestamps.format(millis)));
+			millis += 37 * 24 * 60 * 60 * 1000L + 3661 * 1000L;
+		}
+	}
+
+	@Test
+	public void appendsDisplayedTime() {
+		StringBuilder sb = new StringBuilder("on ");
+		Timestamps.appendDisplay(sb, utc(2014, 3, 8, 5, 4, 59, 0));
+		assertEquals("on 2014-03-08 05:04", sb.toString());
+	}
+
+	private static long utc(int year, int month, int day, int hour,
+			int minute, int second, int millis) {
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(year, month - 1, day, hour, minute, second);
+		calendar.set(Calendar.MILLISECOND, millis);
+		return calendar.getTimeInMillis();
+	}
+}
@@ -3,7 +3,6 @@ package com.denisigo.moments;
 import java.io.IOException;
 
 import android.app.Activity;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.util.Log;
@@ -12,8 +11,9 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.Toast;
 
-import com.denisigo.moments.api.Api;
+import com.denisigo.moments.api.ApiCall;
 
 /**
  * Fragment responsible for handling all the stuff of add moment dialog.
@@ -26,11 +26,11 @@ public class AddMomentFragment extends Fragment {
 	EditText mEtText;
 	Button mBtAddMomentButton;
 
-	// Add moment task
-	AsyncTask<Moment, ?, ?> mTask;
+	// Call saving the moment to the outbox
+	ApiCall<PendingMoment> mCall;
 
 	/**
-	 * IMPORTANT: there is a possibility when the AsyncTask is completed in
+	 * IMPORTANT: there is a possibility when the call is completed in
 	 * between of fragment's detach/attach, so in this case mListener will be
 	 * null and it never be notified about the task is completed. This situation
 	 * is almost impossible, and I'm leaving handling it up to you ;)
@@ -57,21 +57,6 @@ public class AddMomentFragment extends Fragment {
 		setRetainInstance(true);
 	}
 
-	/**
-	 * When fragment is about to be destroyed
-	 */
-	@Override
-	public void onDestroy() {
-		super.onDestroy();
-
-		// Trying to cancel running async task if fragment is about
-		// to be destroyed - say, when user clicks "back" button
-		if (mTask != null) {
-			mTask.cancel(true);
-			mTask = null;
-		}
-	}
-
 	/**
 	 * When fragment is attached to the activity
 	 */
@@ -133,11 +118,12 @@ public class AddMomentFragment extends Fragment {
 			return;
 		}
 
-		// If everything is ok, create Moment object
-		Moment moment = new Moment(text, authorName);
-		// and pass it to the AsyncTask to be added asynchronously
-		mTask = new AddMomentTask();
-		mTask.execute(moment);
+		// If everything is ok, save the moment to the outbox, it's posted
+		// in the background from there. Saving isn't cancelled even if the
+		// user leaves, so the moment isn't lost.
+		mCall = MomentOutbox.getInstance(getActivity()).add(text, authorName,
+				new AddMomentCallback());
+		updateUi();
 	}
 
 	/**
@@ -150,7 +136,7 @@ public class AddMomentFragment extends Fragment {
 		if (getView() == null)
 			return;
 
-		if (mTask == null) {
+		if (mCall == null) {
 			mBtAddMomentButton.setEnabled(true);
 			mBtAddMomentButton.setText(R.string.add_moment);
 		} else {
@@ -160,71 +146,32 @@ public class AddMomentFragment extends Fragment {
 	}
 
 	/**
-	 * AsyncTask for asynchronous adding moments.
+	 * Callback of saving moment to the outbox. Executed in UI thread.
 	 */
-	private class AddMomentTask extends AsyncTask<Moment, Void, Boolean> {
-
-		private Exception e;
+	private class AddMomentCallback implements
+			ApiCall.Callback<PendingMoment> {
 
-		/**
-		 * Executed in UI thread before doInBackground.
-		 */
 		@Override
-		protected void onPreExecute() {
+		public void onSuccess(PendingMoment result) {
+			mCall = null;
 			updateUi();
-		}
 
-		/**
-		 * Executed in worker thread.
-		 */
-		@Override
-		protected Boolean doInBackground(Moment... args) {
-
-			// Instantiate Api object
-			Api api = new Api();
-
-			Moment moment = args[0];
-			boolean result = true;
-
-			try {
-				// Do the Api request
-				api.postMoment(moment);
-			} catch (IOException e) {
-				this.e = e;
-				result = false;
-			}
-
-			// Free Api
-			api.close();
-			api = null;
-
-			return result;
+			// Notify the activity that we're done.
+			if (mListener != null)
+				mListener.onMomentAdded();
 		}
 
-		/**
-		 * Executed in UI thread after doInBackground.
-		 */
 		@Override
-		protected void onPostExecute(Boolean result) {
-			mTask = null;
+		public void onFailure(IOException e) {
+			mCall = null;
 			updateUi();
 
-			// If success, show the toast and notify activity
-			if (result) {
-				// Notify the activity that we're done.
-				if (mListener != null)
-					mListener.onMomentAdded();
+			Log.e(LOG_TAG, e.toString());
 
-			} else {
-				Log.e(LOG_TAG, e.toString());
-				
-				showConnectionErrorDialog();
-			}
+			// Nothing is sent yet, so it's not a connection error
+			if (getActivity() != null)
+				Toast.makeText(getActivity(), R.string.error_adding_moment,
+						Toast.LENGTH_SHORT).show();
 		}
 	}
-	
-	private void showConnectionErrorDialog(){
-		(new ConnectionErrorDialog()).show(getActivity().getSupportFragmentManager(),
-				"ddd");
-	}
 }
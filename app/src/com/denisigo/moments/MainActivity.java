@@ -43,11 +43,10 @@ public class MainActivity extends FragmentActivity {
 	 */
 	@Override
 	protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-		// If moment was successfully added, notify fragment to refresh moments
+		// If moment was successfully added, just tell the user. The fragment
+		// shows it from the outbox, there is no need to refresh.
 		if (requestCode == RC_ADD_MOMENT && resultCode == Activity.RESULT_OK) {
 			showToast(R.string.moment_has_been_added);
-			
-			mFragment.onRefreshMoments();
 		}
 	}
 
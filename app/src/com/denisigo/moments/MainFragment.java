@@ -0,0 +1,933 @@
+package com.denisigo.moments;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import android.database.SQLException;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.v4.app.Fragment;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.denisigo.moments.api.Api;
+import com.denisigo.moments.api.ApiCall;
+import com.denisigo.moments.api.ApiExecutor;
+import com.denisigo.moments.api.Moment;
+import com.denisigo.moments.api.MomentList;
+import com.denisigo.moments.api.Moments;
+import com.denisigo.moments.api.MomentsStream;
+import com.denisigo.moments.api.MomentsSync;
+import com.denisigo.moments.api.PageSizePolicy;
+
+/**
+ * Main fragment which handles moments list
+ *
+ */
+public class MainFragment extends Fragment {
+	
+	private static final String LOG_TAG = MainFragment.class.getSimpleName();
+
+	// Amount of moments loaded at once by refresh and stream, pages of
+	// older moments are sized by PageSizePolicy
+	private static final int LIMIT = 10;
+	// Interval of applying moments arrived from the stream, one frame
+	private static final long FRAME_INTERVAL = 16;
+
+	MomentsAdapter mAdapter;
+	MomentList mMoments;
+	ListView mLvMoments;
+
+	// Cursor to load new bunch of moments from
+	private String mCursor;
+	// If there are more moments on the server?
+	private boolean mIsMore = true;
+
+	// Persistent storage of the loaded moments
+	MomentStore mStore;
+	// Info lines of the loaded moments, built in worker threads
+	MomentInfoCache mInfoCache;
+	// Info line of moments being posted
+	private String mSendingText;
+	// Moments being posted, shown at the top of the list until they're sent
+	MomentOutbox mOutbox;
+	private final OutboxListener mOutboxListener = new OutboxListener();
+	// Ids of posted moments inserted without a sync, they are replaced once
+	// the sync returns them
+	private final Set<Long> mOptimisticIds = new HashSet<Long>();
+
+	// Live feed of new moments, runs while the fragment is resumed
+	MomentsStream mStream;
+	// Listener of the running stream, results of stopped ones are dropped.
+	// Guarded by mIncoming.
+	private StreamListener mStreamListener;
+	// Results arrived from the stream, applied to the list at most once per
+	// frame, so bursts don't update the list for every moment
+	private final List<MomentsSync.Result> mIncoming = new ArrayList<MomentsSync.Result>();
+	private Handler mHandler;
+	private final Runnable mApplyIncoming = new Runnable() {
+		@Override
+		public void run() {
+			applyIncoming();
+		}
+	};
+
+	// Task reading stored moments
+	AsyncTask<?, ?, ?> mStoreTask;
+	// Currently running call loading new moments
+	ApiCall<?> mRefreshCall;
+	// Currently running call loading older moments
+	ApiCall<?> mPageCall;
+
+	// Decides when to load the next page while scrolling
+	ScrollPrefetcher mPrefetcher;
+	// Decides how many moments to load per page
+	PageSizePolicy mPageSizePolicy;
+	// Page loaded ahead of time, shown once the user scrolls close to the end
+	private Moments mReadAhead;
+	// If the user waits for the next page, so the loader is shown?
+	private boolean mIsWaitingForPage;
+
+	/**
+	 * When fragment is about to be created
+	 */
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		// We don't want the fragment to be killed
+		// when activity is recreated
+		setRetainInstance(true);
+
+		// Create list for moments and ListView adapter
+		mMoments = new MomentList();
+		mAdapter = new MomentsAdapter();
+
+		mStore = MomentStore.getInstance(getActivity());
+		mInfoCache = new MomentInfoCache(getActivity());
+		mSendingText = getString(R.string.moment_sending);
+		mPrefetcher = new ScrollPrefetcher();
+		mPageSizePolicy = new PageSizePolicy();
+
+		mOutbox = MomentOutbox.getInstance(getActivity());
+		mOutbox.addListener(mOutboxListener);
+
+		mHandler = new Handler();
+		mStream = new MomentsStream(Api.getInstance(), LIMIT);
+
+		// Show stored moments first, network is hit afterwards
+		LoadStoredMomentsTask task = new LoadStoredMomentsTask();
+		mStoreTask = task;
+		task.executeOnExecutor(ApiExecutor.getInstance().getExecutor(
+				ApiExecutor.Priority.USER));
+	}
+
+	/**
+	 * When fragment becomes visible, new moments are streamed
+	 */
+	@Override
+	public void onResume() {
+		super.onResume();
+		startStream();
+	}
+
+	/**
+	 * When fragment is no more visible, there is no sense to hold the
+	 * connection
+	 */
+	@Override
+	public void onPause() {
+		super.onPause();
+		stopStream();
+	}
+
+	/**
+	 * When fragment is about to be destroyed
+	 */
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+
+		mOutbox.removeListener(mOutboxListener);
+		stopStream();
+		mHandler.removeCallbacks(mApplyIncoming);
+
+		// Trying to cancel running async tasks if fragment is about
+		// to be destroyed - say, when user clicks "back" button. Calls
+		// abort their connections right away.
+		if (mStoreTask != null) {
+			mStoreTask.cancel(true);
+			mStoreTask = null;
+		}
+		if (mRefreshCall != null) {
+			mRefreshCall.cancel();
+			mRefreshCall = null;
+		}
+		if (mPageCall != null) {
+			mPageCall.cancel();
+			mPageCall = null;
+		}
+	}
+
+	/**
+	 * When fragment's view is about to be created
+	 */
+	@Override
+	public View onCreateView(LayoutInflater inflater, ViewGroup container,
+			Bundle savedInstanceState) {
+		View view = inflater.inflate(R.layout.fragment_main, container, false);
+
+		mLvMoments = (ListView) view.findViewById(R.id.moments);
+		mLvMoments.setAdapter(mAdapter);
+
+		// Set onScroll listener to be able to load more messages before
+		// the user reaches the bottom of the list
+		mLvMoments.setOnScrollListener(new AbsListView.OnScrollListener() {
+			@Override
+			public void onScroll(AbsListView lw, final int firstVisibleItem,
+					final int visibleItemCount, final int totalItemCount) {
+				if (mPrefetcher.onScroll(firstVisibleItem, visibleItemCount,
+						totalItemCount))
+					loadMoments();
+			}
+
+			@Override
+			public void onScrollStateChanged(AbsListView view, int scrollState) {
+				mPrefetcher.onScrollStateChanged(scrollState);
+			}
+		});
+
+		return view;
+	}
+
+	/**
+	 * Show loader item at the bottom of the list
+	 */
+	private void showLoaderAtTheBottom() {
+		mAdapter.setLoaderAtTheBottom(true);
+	}
+
+	/**
+	 * Show loader item at the top of the list
+	 */
+	private void showLoaderAtTheTop() {
+		mAdapter.setLoaderAtTheTop(true);
+	}
+
+	/**
+	 * Remove loader from the bottom of the list
+	 */
+	private void hideLoaderAtTheBottom() {
+		mAdapter.setLoaderAtTheBottom(false);
+	}
+
+	/**
+	 * Remove loader from the top of the list
+	 */
+	private void hideLoaderAtTheTop() {
+		mAdapter.setLoaderAtTheTop(false);
+	}
+
+	/**
+	 * @return the newest moment loaded by sync, skipping the ones being posted
+	 *         and just posted, or null if there is none
+	 */
+	private Moment getNewestSynced() {
+		for (int i = 0; i < mMoments.size(); i++) {
+			Moment moment = mMoments.get(i);
+			if (!(moment instanceof PendingMoment)
+					&& !mOptimisticIds.contains(moment.getId()))
+				return moment;
+		}
+		return null;
+	}
+
+	/**
+	 * Shows older moments. The page loaded ahead of time is shown right away,
+	 * otherwise it's loaded while the user waits.
+	 */
+	private void loadMoments() {
+
+		if (mReadAhead != null) {
+			showReadAhead();
+			return;
+		}
+
+		// There is not sense to load if there is nothing
+		if (!mIsMore)
+			return;
+
+		if (!mIsWaitingForPage) {
+			mIsWaitingForPage = true;
+			showLoaderAtTheBottom();
+		}
+
+		prefetchMoments();
+	}
+
+	/**
+	 * Loads older moments using current cursor into read-ahead page
+	 */
+	private void prefetchMoments() {
+
+		// There is not sense to load if there is nothing
+		if (!mIsMore)
+			return;
+
+		// Don't launch another call if there is one running or one page is
+		// loaded ahead already
+		if (mPageCall != null || mReadAhead != null)
+			return;
+
+		// launch the call with current cursor and limit, page the user waits
+		// for goes before other prefetching
+		ApiExecutor.Priority priority = mIsWaitingForPage ? ApiExecutor.Priority.VISIBLE
+				: ApiExecutor.Priority.BACKGROUND;
+		int limit = mPageSizePolicy.getPageSize(mPrefetcher.getVelocity());
+		GetMomentsRequest request = new GetMomentsRequest(mCursor, limit);
+		mPageCall = Api.getInstance().enqueue(request, priority, request);
+	}
+
+	/**
+	 * Adds read-ahead page to the list and starts loading the next one
+	 */
+	private void showReadAhead() {
+		Moments page = mReadAhead;
+		mReadAhead = null;
+
+		if (mIsWaitingForPage) {
+			mIsWaitingForPage = false;
+			hideLoaderAtTheBottom();
+		}
+
+		// Add new moments at the bottom and notify adapter
+		if (mMoments.addAllLast(page.getMoments()) > 0)
+			mAdapter.notifyDataSetChanged();
+
+		// The first page gives the stream a moment to continue from
+		startStream();
+
+		prefetchMoments();
+	}
+
+	/**
+	 * Loads new moments using added time of the most recent moment we have
+	 */
+	private void loadNewMoments() {
+		Moment newest = getNewestSynced();
+		if (newest == null)
+			return;
+
+		// Don't launch another call if there is one running
+		if (mRefreshCall != null)
+			return;
+
+		// launch the call with the added time of the newest moment we have
+		showLoaderAtTheTop();
+		GetNewMomentsRequest request = new GetNewMomentsRequest(
+				newest.getAdded());
+		mRefreshCall = Api.getInstance().enqueue(request,
+				ApiExecutor.Priority.USER, request);
+	}
+
+	/**
+	 * Stores new moments in the write thread of the store, in the order they
+	 * arrive from refresh and the stream.
+	 */
+	private void storeNewMoments(final MomentsSync.Result result) {
+		mStore.getWriteExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					// Too many new moments, stored ones can't be linked with
+					// them, so they are dropped
+					if (!result.isComplete())
+						mStore.clear();
+					else
+						mStore.saveNewMoments(result.getMoments());
+				} catch (SQLException e) {
+					Log.e(LOG_TAG, "Unable to store moments", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds new moments at the top of the list. Executed in UI thread.
+	 */
+	private void showNewMoments(MomentsSync.Result result) {
+		if (!result.isComplete()) {
+			// Start over rather than showing the list with a gap, the
+			// stream is started again once the first page is shown
+			stopStream();
+			synchronized (mIncoming) {
+				mIncoming.clear();
+			}
+			if (mRefreshCall != null) {
+				mRefreshCall.cancel();
+				mRefreshCall = null;
+				hideLoaderAtTheTop();
+			}
+			if (mPageCall != null) {
+				mPageCall.cancel();
+				mPageCall = null;
+			}
+			// Keep moments being posted
+			List<Moment> pending = new ArrayList<Moment>();
+			for (int i = 0; i < mMoments.size(); i++) {
+				if (mMoments.get(i) instanceof PendingMoment)
+					pending.add(mMoments.get(i));
+			}
+			mMoments.clear();
+			for (Moment moment : pending)
+				mMoments.addLast(moment);
+			mOptimisticIds.clear();
+			mCursor = null;
+			mIsMore = true;
+			mReadAhead = null;
+			mAdapter.notifyDataSetChanged();
+			loadMoments();
+			return;
+		}
+
+		// Posted moments inserted ahead of the sync are put to their
+		// places among the synced ones
+		for (Moment moment : result.getMoments()) {
+			if (mOptimisticIds.remove(moment.getId()))
+				mMoments.remove(moment.getId());
+		}
+
+		// Merge all new moments below the ones being posted at once and
+		// notify adapter. Refresh and the stream load them independently,
+		// so a late page may be older than moments shown already. The
+		// newest moment we have is usually returned again since from_time
+		// has seconds precision, duplicates are skipped by the list.
+		if (mMoments.addAllByAdded(getPendingCount(), result.getMoments()) > 0)
+			mAdapter.notifyDataSetChanged();
+
+		startStream();
+	}
+
+	/**
+	 * @return amount of moments being posted, they are always at the top
+	 */
+	private int getPendingCount() {
+		int count = 0;
+		while (count < mMoments.size()
+				&& mMoments.get(count) instanceof PendingMoment)
+			count++;
+		return count;
+	}
+
+	/**
+	 * Starts the live feed from the newest synced moment, if there is one
+	 * and the fragment is visible
+	 */
+	private void startStream() {
+		Moment newest = getNewestSynced();
+		if (newest == null || !isResumed() || mStream.isRunning())
+			return;
+
+		StreamListener listener = new StreamListener();
+		synchronized (mIncoming) {
+			mStreamListener = listener;
+		}
+		mStream.start(newest, listener);
+	}
+
+	/**
+	 * Stops the live feed, results it's delivering meanwhile are dropped
+	 */
+	private void stopStream() {
+		mStream.stop();
+		synchronized (mIncoming) {
+			mStreamListener = null;
+		}
+	}
+
+	/**
+	 * Adds all the moments arrived from the stream since the last frame at
+	 * once
+	 */
+	private void applyIncoming() {
+		List<MomentsSync.Result> incoming;
+		synchronized (mIncoming) {
+			incoming = new ArrayList<MomentsSync.Result>(mIncoming);
+			mIncoming.clear();
+		}
+		if (incoming.isEmpty())
+			return;
+
+		// Later results are newer, so they go first
+		List<Moment> moments = new ArrayList<Moment>();
+		int roundTrips = 0;
+		boolean isComplete = true;
+		for (int i = incoming.size() - 1; i >= 0; i--) {
+			MomentsSync.Result result = incoming.get(i);
+			moments.addAll(Arrays.asList(result.getMoments()));
+			roundTrips += result.getRoundTrips();
+			isComplete &= result.isComplete();
+		}
+
+		showNewMoments(new MomentsSync.Result(moments
+				.toArray(new Moment[moments.size()]), roundTrips, isComplete));
+	}
+
+	/**
+	 * Callback method from the host activity to refresh moments
+	 */
+	public void onRefreshMoments() {
+		if (getNewestSynced() == null)
+			loadMoments();
+		else
+			loadNewMoments();
+	}
+
+	/**
+	 * Our own adapter for the ListView. We need it in order to use custom item
+	 * views. Besides moments, it may show a loader item at the top or at the
+	 * bottom of the list.
+	 */
+	private class MomentsAdapter extends BaseAdapter {
+
+		// View types
+		private static final int TYPE_MOMENT = 0;
+		private static final int TYPE_LOADER = 1;
+		private static final int TYPE_COUNT = 2;
+
+		private LayoutInflater mInflater;
+		private boolean mIsLoaderAtTheTop;
+		private boolean mIsLoaderAtTheBottom;
+
+		public MomentsAdapter() {
+			mInflater = getActivity().getLayoutInflater();
+		}
+
+		/**
+		 * Shows or hides loader item at the top of the list.
+		 */
+		public void setLoaderAtTheTop(boolean isShown) {
+			if (mIsLoaderAtTheTop == isShown)
+				return;
+			mIsLoaderAtTheTop = isShown;
+			notifyDataSetChanged();
+		}
+
+		/**
+		 * Shows or hides loader item at the bottom of the list.
+		 */
+		public void setLoaderAtTheBottom(boolean isShown) {
+			if (mIsLoaderAtTheBottom == isShown)
+				return;
+			mIsLoaderAtTheBottom = isShown;
+			notifyDataSetChanged();
+		}
+
+		@Override
+		public int getCount() {
+			return mMoments.size() + (mIsLoaderAtTheTop ? 1 : 0)
+					+ (mIsLoaderAtTheBottom ? 1 : 0);
+		}
+
+		@Override
+		public Moment getItem(int position) {
+			if (getItemViewType(position) == TYPE_LOADER)
+				return null;
+			return mMoments.get(mIsLoaderAtTheTop ? position - 1 : position);
+		}
+
+		@Override
+		public long getItemId(int position) {
+			Moment item = getItem(position);
+			return item == null ? -1 : item.getId();
+		}
+
+		@Override
+		public int getViewTypeCount() {
+			return TYPE_COUNT;
+		}
+
+		@Override
+		public int getItemViewType(int position) {
+			if ((mIsLoaderAtTheTop && position == 0)
+					|| (mIsLoaderAtTheBottom && position == getCount() - 1))
+				return TYPE_LOADER;
+			return TYPE_MOMENT;
+		}
+
+		@Override
+		public boolean isEnabled(int position) {
+			return getItemViewType(position) == TYPE_MOMENT;
+		}
+
+		/**
+		 * Generate view for the item. ListView passes convertView of the
+		 * same view type only, so it just needs to be bound.
+		 */
+		@Override
+		public View getView(int position, View convertView, ViewGroup parent) {
+			if (getItemViewType(position) == TYPE_LOADER) {
+				if (convertView == null)
+					convertView = mInflater.inflate(R.layout.listitem_loader,
+							parent, false);
+				return convertView;
+			}
+
+			ViewHolder holder;
+			if (convertView == null) {
+				convertView = mInflater.inflate(R.layout.listitem_moment,
+						parent, false);
+				holder = new ViewHolder(convertView, mInfoCache,
+						mSendingText);
+				convertView.setTag(holder);
+			} else {
+				holder = (ViewHolder) convertView.getTag();
+			}
+
+			holder.bind(getItem(position));
+
+			return convertView;
+		}
+	}
+
+	/**
+	 * Holds views of the moment list item to avoid looking them up on every
+	 * bind.
+	 */
+	private static class ViewHolder {
+		final TextView text;
+		final TextView info;
+		private final MomentInfoCache mInfoCache;
+		private final String mSendingText;
+		// Moment the views show, to skip rebinding the same one
+		private Moment mMoment;
+
+		ViewHolder(View view, MomentInfoCache infoCache, String sendingText) {
+			text = (TextView) view.findViewById(R.id.text);
+			info = (TextView) view.findViewById(R.id.info);
+			mInfoCache = infoCache;
+			mSendingText = sendingText;
+		}
+
+		void bind(Moment moment) {
+			// Moments change only by being replaced, i.e. when posted
+			if (moment == mMoment)
+				return;
+			mMoment = moment;
+
+			text.setText(moment.getText());
+			// Info lines are built when moments are loaded, dates are
+			// shown in UTC the server gives them in
+			info.setText(moment instanceof PendingMoment ? mSendingText
+					: mInfoCache.get(moment));
+		}
+	}
+
+	/**
+	 * Moments and sync state read from the store
+	 */
+	private static class StoredMoments {
+		public List<Moment> moments;
+		public List<PendingMoment> pending;
+		public String cursor;
+		public boolean isMore;
+	}
+
+	/**
+	 * AsyncTask for reading moments stored on the device.
+	 */
+	private class LoadStoredMomentsTask extends
+			AsyncTask<Void, Void, StoredMoments> {
+
+		/**
+		 * Executed in worker thread.
+		 */
+		@Override
+		protected StoredMoments doInBackground(Void... args) {
+			StoredMoments result = new StoredMoments();
+			try {
+				result.moments = mStore.loadMoments();
+				mInfoCache.prepare(result.moments);
+				result.pending = mStore.loadOutbox(0);
+				result.cursor = mStore.getCursor();
+				result.isMore = mStore.isMore();
+			} catch (SQLException e) {
+				Log.e(LOG_TAG, "Unable to read stored moments", e);
+				return null;
+			}
+
+			return result;
+		}
+
+		/**
+		 * Executed in UI thread after doInBackground.
+		 */
+		@Override
+		protected void onPostExecute(StoredMoments result) {
+			mStoreTask = null;
+
+			// Moments not posted yet go at the very top, the newest first
+			if (result != null) {
+				for (PendingMoment moment : result.pending)
+					mMoments.addFirst(moment);
+				mAdapter.notifyDataSetChanged();
+			}
+
+			// Nothing is stored, so start from the very beginning
+			if (result == null || result.moments.isEmpty()) {
+				loadMoments();
+				return;
+			}
+
+			// Resume from the stored state and ask for the moments
+			// posted since we have been here last time
+			for (Moment moment : result.moments)
+				mMoments.addLast(moment);
+			mCursor = result.cursor;
+			mIsMore = result.isMore;
+			mAdapter.notifyDataSetChanged();
+
+			loadNewMoments();
+			startStream();
+		}
+	}
+
+	/**
+	 * Request for asynchronous getting moments.
+	 */
+	private class GetMomentsRequest implements Callable<Moments>,
+			ApiCall.Callback<Moments> {
+
+		private final String mPageCursor;
+		private final int mPageLimit;
+		// Time it took to load the page, in milliseconds
+		private long mLatency;
+
+		public GetMomentsRequest(String cursor, int limit) {
+			mPageCursor = cursor;
+			mPageLimit = limit;
+		}
+
+		/**
+		 * Executed in worker thread.
+		 */
+		@Override
+		public Moments call() throws IOException {
+
+			// Shared Api object keeps connections alive between requests
+			Api api = Api.getInstance();
+
+			long start = SystemClock.uptimeMillis();
+			Moments result = api.getMoments(mPageCursor, mPageLimit);
+			mInfoCache.prepare(result.getMoments());
+			mLatency = SystemClock.uptimeMillis() - start;
+
+			mPageSizePolicy.onPageLoaded(mPageLimit, result.getMoments().length,
+					mLatency, result.getByteCount());
+			// Describing the fit isn't free, so only when asked for with
+			// "adb shell setprop log.tag.MainFragment DEBUG"
+			if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+				Log.d(LOG_TAG, mPageSizePolicy.toString());
+				Log.d(LOG_TAG, api.getApiFetcher().getConnectionPool()
+						.toString());
+			}
+
+			// Moments are dropped anyway if the call is cancelled, so don't
+			// store them
+			if (Thread.currentThread().isInterrupted())
+				return result;
+
+			// Store the page together with the cursor to resume from
+			try {
+				mStore.saveOlderMoments(result.getMoments(),
+						result.getCursor(), result.isMore());
+			} catch (SQLException e) {
+				Log.e(LOG_TAG, "Unable to store moments", e);
+			}
+
+			return result;
+		}
+
+		/**
+		 * Executed in UI thread.
+		 */
+		@Override
+		public void onSuccess(Moments result) {
+			mPageCall = null;
+
+			mPrefetcher.onPageLoaded(mLatency);
+
+			mCursor = result.getCursor();
+			mIsMore = result.isMore();
+			mReadAhead = result;
+
+			// Show it right away if the user is waiting for it,
+			// otherwise keep it until the user scrolls close to the end
+			if (mIsWaitingForPage)
+				showReadAhead();
+		}
+
+		/**
+		 * Executed in UI thread.
+		 */
+		@Override
+		public void onFailure(IOException e) {
+			mPageCall = null;
+
+			Log.e(LOG_TAG, e.toString());
+
+			// Failed read-ahead is just retried when the user scrolls,
+			// but the user waiting for it should be notified
+			if (mIsWaitingForPage) {
+				mIsWaitingForPage = false;
+				hideLoaderAtTheBottom();
+				showConnectionErrorDialog();
+			}
+		}
+	}
+
+	/**
+	 * Request for asynchronous getting new moments. Loads all of them, even
+	 * if there are more than fit in one page.
+	 */
+	private class GetNewMomentsRequest implements
+			Callable<MomentsSync.Result>, ApiCall.Callback<MomentsSync.Result> {
+
+		private final long mFromTime;
+
+		public GetNewMomentsRequest(long fromTime) {
+			mFromTime = fromTime;
+		}
+
+		/**
+		 * Executed in worker thread.
+		 */
+		@Override
+		public MomentsSync.Result call() throws IOException {
+
+			// Shared Api object keeps connections alive between requests
+			MomentsSync sync = new MomentsSync(Api.getInstance(), LIMIT);
+
+			// Do the Api requests
+			MomentsSync.Result result = sync.syncNewer(mFromTime);
+			mInfoCache.prepare(result.getMoments());
+			Log.d(LOG_TAG, "Synced " + result.getMoments().length
+					+ " moments in " + result.getRoundTrips()
+					+ " round trips");
+
+			storeNewMoments(result);
+
+			return result;
+		}
+
+		/**
+		 * Executed in UI thread.
+		 */
+		@Override
+		public void onSuccess(MomentsSync.Result result) {
+			mRefreshCall = null;
+
+			hideLoaderAtTheTop();
+
+			showNewMoments(result);
+		}
+
+		/**
+		 * Executed in UI thread.
+		 */
+		@Override
+		public void onFailure(IOException e) {
+			mRefreshCall = null;
+
+			Log.e(LOG_TAG, e.toString());
+
+			hideLoaderAtTheTop();
+			showConnectionErrorDialog();
+		}
+	}
+	
+	/**
+	 * Receives moments from the stream. Executed in worker thread.
+	 */
+	private class StreamListener implements MomentsStream.Listener {
+
+		@Override
+		public void onMoments(MomentsSync.Result result) {
+			mInfoCache.prepare(result.getMoments());
+
+			synchronized (mIncoming) {
+				// Delivered while the stream was being stopped
+				if (mStreamListener != this)
+					return;
+
+				storeNewMoments(result);
+				mIncoming.add(result);
+				// The first result of the frame schedules applying
+				if (mIncoming.size() == 1)
+					mHandler.postDelayed(mApplyIncoming, FRAME_INTERVAL);
+			}
+		}
+	}
+
+	/**
+	 * Keeps moments being posted in the list. Executed in UI thread.
+	 */
+	private class OutboxListener implements MomentOutbox.Listener {
+
+		@Override
+		public void onMomentQueued(PendingMoment moment) {
+			if (mMoments.addFirst(moment))
+				mAdapter.notifyDataSetChanged();
+		}
+
+		@Override
+		public void onMomentSent(PendingMoment moment, Moment posted) {
+			mMoments.remove(moment.getId());
+
+			if (posted == null) {
+				// Load the posted moment from the server
+				mAdapter.notifyDataSetChanged();
+				onRefreshMoments();
+				return;
+			}
+
+			// Show it right away below the moments still being posted, where
+			// the sync puts it too, it's reconciled by id with the next
+			// sync. It's not stored, so stored moments have no gaps.
+			if (mMoments.addAllByAdded(getPendingCount(),
+					new Moment[] { posted }) > 0)
+				mOptimisticIds.add(posted.getId());
+			mAdapter.notifyDataSetChanged();
+		}
+
+		@Override
+		public void onMomentRejected(PendingMoment moment, IOException e) {
+			Log.e(LOG_TAG, e.toString());
+
+			if (mMoments.remove(moment.getId()))
+				mAdapter.notifyDataSetChanged();
+
+			if (getActivity() != null)
+				Toast.makeText(getActivity(), R.string.error_adding_moment,
+						Toast.LENGTH_SHORT).show();
+		}
+	}
+
+	private void showConnectionErrorDialog(){
+		(new ConnectionErrorDialog()).show(getActivity().getSupportFragmentManager(),
+				"ddd");
+	}
+}
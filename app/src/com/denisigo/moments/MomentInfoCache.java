@@ -0,0 +1,64 @@
+package com.denisigo.moments;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.content.Context;
+
+import com.denisigo.moments.api.Moment;
+import com.denisigo.moments.api.MomentInfoFormatter;
+
+/**
+ * Info lines of the moments shown in the feed. They are built in worker
+ * threads as soon as moments are loaded, so binding a row only looks its
+ * line up. Moments are held weakly, so lines go away together with them.
+ *
+ * Thread-safe.
+ */
+public class MomentInfoCache {
+
+	private final MomentInfoFormatter mFormatter;
+	// Moments don't override equals(), so they are looked up by identity
+	// without allocating
+	private final Map<Moment, String> mInfos = Collections
+			.synchronizedMap(new WeakHashMap<Moment, String>());
+
+	public MomentInfoCache(Context context) {
+		mFormatter = new MomentInfoFormatter(
+				context.getString(R.string.moment_info),
+				context.getString(R.string.anonymous));
+	}
+
+	/**
+	 * Builds lines of the moments. Should be called in worker thread.
+	 */
+	public void prepare(Moment[] moments) {
+		StringBuilder sb = new StringBuilder(64);
+		for (Moment moment : moments)
+			mInfos.put(moment, mFormatter.format(sb, moment));
+	}
+
+	/**
+	 * Same as above.
+	 */
+	public void prepare(List<Moment> moments) {
+		StringBuilder sb = new StringBuilder(64);
+		for (Moment moment : moments)
+			mInfos.put(moment, mFormatter.format(sb, moment));
+	}
+
+	/**
+	 * @return info line of the moment, built right away if it wasn't
+	 *         prepared, i.e. for just posted moment
+	 */
+	public String get(Moment moment) {
+		String info = mInfos.get(moment);
+		if (info == null) {
+			info = mFormatter.format(new StringBuilder(64), moment);
+			mInfos.put(moment, info);
+		}
+		return info;
+	}
+}
@@ -0,0 +1,320 @@
+package com.denisigo.moments;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+import android.content.Context;
+import android.database.SQLException;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.denisigo.moments.api.Api;
+import com.denisigo.moments.api.ApiCall;
+import com.denisigo.moments.api.ApiException;
+import com.denisigo.moments.api.ApiExecutor;
+import com.denisigo.moments.api.ApiRetryPolicy;
+import com.denisigo.moments.api.Moment;
+
+/**
+ * Outbox of moments being posted. Moments are saved on the device first, so
+ * they aren't lost if posting fails, and then sent in the background. The
+ * queued moments are sent in batches, each in single request with its own
+ * idempotency key, so resending never duplicates it. Failed sends are
+ * retried with growing delays. If the server rejects a batch, its moments
+ * are sent one by one, so only the invalid ones are dropped.
+ *
+ * Should be used from UI thread only, disk and network work is done in
+ * worker threads.
+ */
+public class MomentOutbox {
+
+	private static final String LOG_TAG = MomentOutbox.class.getSimpleName();
+
+	// Maximal amount of moments sent in single request
+	private static final int BATCH_SIZE = 20;
+	// Delays between failed flushes, in milliseconds
+	private static final long RETRY_BASE_DELAY = 5000;
+	private static final long RETRY_MAX_DELAY = 5 * 60 * 1000;
+
+	private static MomentOutbox sInstance;
+
+	private final MomentStore mStore;
+	private final Api mApi;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	// Outbox is retried until it's empty, with growing delays
+	private final ApiRetryPolicy mRetryPolicy = new ApiRetryPolicy(
+			Integer.MAX_VALUE, RETRY_BASE_DELAY, RETRY_MAX_DELAY, 0);
+	private final List<Listener> mListeners = new ArrayList<Listener>();
+
+	// Currently running flush
+	private ApiCall<Boolean> mFlushCall;
+	// Amount of flushes failed in a row
+	private int mFailures;
+
+	private final Runnable mFlushRunnable = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * Listener of the outbox events. Executed in UI thread.
+	 */
+	public interface Listener {
+		/**
+		 * Called when a moment is saved in the outbox.
+		 */
+		public void onMomentQueued(PendingMoment moment);
+
+		/**
+		 * Called when a moment is posted and removed from the outbox.
+		 * 
+		 * @param moment
+		 *            moment from the outbox
+		 * @param posted
+		 *            moment returned by the server, or null if it wasn't
+		 *            returned
+		 */
+		public void onMomentSent(PendingMoment moment, Moment posted);
+
+		/**
+		 * Called when a moment is rejected by the server and removed from
+		 * the outbox, i.e. it's invalid.
+		 */
+		public void onMomentRejected(PendingMoment moment, IOException e);
+	}
+
+	/**
+	 * @param context
+	 *            any context, application context is used
+	 * @return process-wide outbox instance
+	 */
+	public static synchronized MomentOutbox getInstance(Context context) {
+		if (sInstance == null)
+			sInstance = new MomentOutbox(MomentStore.getInstance(context),
+					Api.getInstance());
+		return sInstance;
+	}
+
+	private MomentOutbox(MomentStore store, Api api) {
+		mStore = store;
+		mApi = api;
+	}
+
+	public void addListener(Listener listener) {
+		mListeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * Saves a new moment in the outbox and starts sending it.
+	 * 
+	 * @param text
+	 *            text of the moment
+	 * @param authorName
+	 *            author name of the moment
+	 * @param callback
+	 *            Callback called once the moment is saved, may be null
+	 * @return ApiCall instance
+	 */
+	public ApiCall<PendingMoment> add(final String text,
+			final String authorName,
+			final ApiCall.Callback<PendingMoment> callback) {
+		return mApi.enqueue(new Callable<PendingMoment>() {
+			@Override
+			public PendingMoment call() throws IOException {
+				try {
+					return mStore.addToOutbox(text, authorName);
+				} catch (SQLException e) {
+					throw new IOException("Unable to save moment", e);
+				}
+			}
+		}, ApiExecutor.Priority.USER, new ApiCall.Callback<PendingMoment>() {
+			@Override
+			public void onSuccess(PendingMoment result) {
+				for (Listener listener : new ArrayList<Listener>(mListeners))
+					listener.onMomentQueued(result);
+				if (callback != null)
+					callback.onSuccess(result);
+
+				flush();
+			}
+
+			@Override
+			public void onFailure(IOException e) {
+				if (callback != null)
+					callback.onFailure(e);
+			}
+		});
+	}
+
+	/**
+	 * Starts sending the moments from the outbox, unless it's being sent
+	 * already.
+	 */
+	public void flush() {
+		if (mFlushCall != null)
+			return;
+
+		// Flushing now, so the scheduled retry isn't needed
+		mHandler.removeCallbacks(mFlushRunnable);
+
+		FlushRequest request = new FlushRequest();
+		mFlushCall = mApi.enqueue(request, ApiExecutor.Priority.USER, request);
+	}
+
+	/**
+	 * @return idempotency key of the batch, made of the keys of its moments,
+	 *         so the same batch sent again after a failure or restart gets
+	 *         the same key
+	 */
+	private static String getBatchKey(List<PendingMoment> batch) {
+		StringBuilder sb = new StringBuilder(batch.size() * 37);
+		for (PendingMoment moment : batch)
+			sb.append(moment.getIdempotencyKey()).append(',');
+		try {
+			return UUID.nameUUIDFromBytes(sb.toString().getBytes("UTF-8"))
+					.toString();
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Request sending a batch of moments from the outbox. Its result is
+	 * whether there are more moments left.
+	 */
+	private class FlushRequest implements Callable<Boolean>,
+			ApiCall.Callback<Boolean> {
+
+		/**
+		 * Executed in worker thread.
+		 */
+		@Override
+		public Boolean call() throws IOException {
+			List<PendingMoment> batch;
+			try {
+				batch = mStore.loadOutbox(BATCH_SIZE);
+			} catch (SQLException e) {
+				throw new IOException("Unable to read outbox", e);
+			}
+
+			if (batch.size() == 1) {
+				postEach(batch);
+			} else if (!batch.isEmpty()) {
+				Moment[] posted;
+				try {
+					posted = mApi.postMoments(
+							batch.toArray(new Moment[batch.size()]),
+							getBatchKey(batch));
+				} catch (ApiException e) {
+					if (!e.isPermanent())
+						throw e;
+					// Whole batch is rejected, so they're sent one by one to
+					// find the invalid ones
+					postEach(batch);
+					return batch.size() == BATCH_SIZE;
+				}
+
+				remove(batch);
+				for (int i = 0; i < posted.length; i++)
+					notifySent(batch.get(i), posted[i]);
+			}
+
+			return batch.size() == BATCH_SIZE;
+		}
+
+		/**
+		 * Executed in worker thread.
+		 */
+		private void postEach(List<PendingMoment> batch) throws IOException {
+			for (final PendingMoment moment : batch) {
+				if (Thread.currentThread().isInterrupted())
+					throw new IOException("Flush is interrupted");
+
+				Moment posted;
+				try {
+					posted = mApi.postMoment(moment, moment.getIdempotencyKey());
+				} catch (final ApiException e) {
+					// Sending it again won't help, so it's dropped
+					if (!e.isPermanent())
+						throw e;
+
+					remove(Collections.singletonList(moment));
+					mHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							for (Listener listener : new ArrayList<Listener>(
+									mListeners))
+								listener.onMomentRejected(moment, e);
+						}
+					});
+					continue;
+				}
+
+				remove(Collections.singletonList(moment));
+				notifySent(moment, posted);
+			}
+		}
+
+		/**
+		 * Executed in worker thread.
+		 */
+		private void notifySent(final PendingMoment moment, final Moment posted) {
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					for (Listener listener : new ArrayList<Listener>(mListeners))
+						listener.onMomentSent(moment, posted);
+				}
+			});
+		}
+
+		/**
+		 * Executed in worker thread.
+		 */
+		private void remove(List<PendingMoment> moments) throws IOException {
+			try {
+				mStore.removeFromOutbox(moments);
+			} catch (SQLException e) {
+				// Idempotency key prevents duplicate if it's sent again
+				throw new IOException("Unable to update outbox", e);
+			}
+		}
+
+		/**
+		 * Executed in UI thread.
+		 */
+		@Override
+		public void onSuccess(Boolean isMore) {
+			mFlushCall = null;
+			mFailures = 0;
+
+			if (isMore)
+				flush();
+		}
+
+		/**
+		 * Executed in UI thread.
+		 */
+		@Override
+		public void onFailure(IOException e) {
+			mFlushCall = null;
+
+			Log.e(LOG_TAG, e.toString());
+
+			long delay = mRetryPolicy.getDelay(mFailures++, -1);
+			mHandler.postDelayed(mFlushRunnable, delay);
+		}
+	}
+}
@@ -0,0 +1,327 @@
+package com.denisigo.moments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.denisigo.moments.api.Moment;
+
+/**
+ * Persistent on-device storage of the moments, so the feed can be shown
+ * before anything is loaded from the network. Stores a contiguous range of
+ * the feed from the newest moment down to the position of the saved cursor.
+ * Also keeps the outbox of moments which are not posted yet.
+ *
+ * Thread-safe, but all the methods hit the disk, so they should be called
+ * in worker thread.
+ */
+public class MomentStore extends SQLiteOpenHelper {
+
+	private static final String DATABASE_NAME = "moments.db";
+	private static final int DATABASE_VERSION = 1;
+
+	private static final String TABLE_MOMENTS = "moments";
+	private static final String TABLE_STATE = "state";
+	private static final String TABLE_OUTBOX = "outbox";
+
+	private static final String COLUMN_ID = "id";
+	private static final String COLUMN_TEXT = "text";
+	private static final String COLUMN_AUTHOR_NAME = "author_name";
+	private static final String COLUMN_ADDED = "added";
+	private static final String COLUMN_KEY = "key";
+	private static final String COLUMN_VALUE = "value";
+	private static final String COLUMN_IDEMPOTENCY_KEY = "idempotency_key";
+
+	// Keys of the sync state
+	private static final String STATE_CURSOR = "cursor";
+	private static final String STATE_IS_MORE = "is_more";
+
+	private static MomentStore sInstance;
+
+	// Runs writes of callers which can't wait for the disk, one by one in
+	// the order they were requested
+	private final ExecutorService mWriteExecutor = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Moment store");
+					thread.setPriority(Thread.NORM_PRIORITY - 1);
+					return thread;
+				}
+			});
+
+	/**
+	 * @param context
+	 *            any context, application context is used
+	 * @return process-wide store instance
+	 */
+	public static synchronized MomentStore getInstance(Context context) {
+		if (sInstance == null)
+			sInstance = new MomentStore(context.getApplicationContext());
+		return sInstance;
+	}
+
+	private MomentStore(Context context) {
+		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+	}
+
+	/**
+	 * @return executor running writes in background thread, in the order
+	 *         they are submitted
+	 */
+	public Executor getWriteExecutor() {
+		return mWriteExecutor;
+	}
+
+	@Override
+	public void onCreate(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_MOMENTS + " (" + COLUMN_ID
+				+ " INTEGER PRIMARY KEY, " + COLUMN_TEXT + " TEXT, "
+				+ COLUMN_AUTHOR_NAME + " TEXT, " + COLUMN_ADDED
+				+ " INTEGER NOT NULL)");
+		db.execSQL("CREATE INDEX " + TABLE_MOMENTS + "_" + COLUMN_ADDED
+				+ " ON " + TABLE_MOMENTS + " (" + COLUMN_ADDED + ")");
+		db.execSQL("CREATE TABLE " + TABLE_STATE + " (" + COLUMN_KEY
+				+ " TEXT PRIMARY KEY, " + COLUMN_VALUE + " TEXT)");
+		db.execSQL("CREATE TABLE " + TABLE_OUTBOX + " (" + COLUMN_ID
+				+ " INTEGER PRIMARY KEY AUTOINCREMENT, " + COLUMN_TEXT
+				+ " TEXT, " + COLUMN_AUTHOR_NAME + " TEXT, " + COLUMN_ADDED
+				+ " INTEGER NOT NULL, " + COLUMN_IDEMPOTENCY_KEY
+				+ " TEXT NOT NULL)");
+	}
+
+	@Override
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		// The first version, there is nothing to upgrade from yet. Once there
+		// is, keep the outbox: it holds moments which exist nowhere else.
+	}
+
+	/**
+	 * Loads stored moments, newest first.
+	 *
+	 * @return list of moments, empty if there is nothing stored
+	 */
+	public synchronized List<Moment> loadMoments() {
+		Cursor c = getReadableDatabase().query(TABLE_MOMENTS,
+				new String[] { COLUMN_ID, COLUMN_TEXT, COLUMN_AUTHOR_NAME,
+						COLUMN_ADDED }, null, null, null, null,
+				COLUMN_ADDED + " DESC, " + COLUMN_ID + " DESC");
+		try {
+			List<Moment> moments = new ArrayList<Moment>(c.getCount());
+			while (c.moveToNext()) {
+				moments.add(new Moment(c.getLong(0), c.getString(1), c
+						.isNull(2) ? null : c.getString(2), c.getLong(3)));
+			}
+			return moments;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return saved cursor to continue loading older moments from, or null
+	 */
+	public synchronized String getCursor() {
+		return getState(STATE_CURSOR);
+	}
+
+	/**
+	 * @return whether there are older moments on the server than stored ones
+	 */
+	public synchronized boolean isMore() {
+		String isMore = getState(STATE_IS_MORE);
+		return isMore == null || Boolean.parseBoolean(isMore);
+	}
+
+	/**
+	 * Saves moments newer than stored ones in single transaction.
+	 *
+	 * @param moments
+	 *            array of moments
+	 */
+	public synchronized void saveNewMoments(Moment[] moments) {
+		SQLiteDatabase db = getWritableDatabase();
+		db.beginTransaction();
+		try {
+			insertMoments(db, moments);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Saves page of older moments together with the cursor pointing to the
+	 * next page in single transaction, so they are always consistent.
+	 *
+	 * @param moments
+	 *            array of moments
+	 * @param cursor
+	 *            cursor of the next page
+	 * @param isMore
+	 *            whether there are more moments on the server
+	 */
+	public synchronized void saveOlderMoments(Moment[] moments,
+			String cursor, boolean isMore) {
+		SQLiteDatabase db = getWritableDatabase();
+		db.beginTransaction();
+		try {
+			insertMoments(db, moments);
+			putState(db, STATE_CURSOR, cursor);
+			putState(db, STATE_IS_MORE, Boolean.toString(isMore));
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Appends a new moment to the outbox.
+	 *
+	 * @param text
+	 *            text of the moment
+	 * @param authorName
+	 *            author name of the moment
+	 * @return PendingMoment instance
+	 */
+	public synchronized PendingMoment addToOutbox(String text,
+			String authorName) {
+		long added = System.currentTimeMillis();
+		String key = UUID.randomUUID().toString();
+
+		SQLiteStatement st = getWritableDatabase().compileStatement(
+				"INSERT INTO " + TABLE_OUTBOX + " (" + COLUMN_TEXT + ", "
+						+ COLUMN_AUTHOR_NAME + ", " + COLUMN_ADDED + ", "
+						+ COLUMN_IDEMPOTENCY_KEY + ") VALUES (?, ?, ?, ?)");
+		try {
+			bindStringOrNull(st, 1, text);
+			bindStringOrNull(st, 2, authorName);
+			st.bindLong(3, added);
+			st.bindString(4, key);
+			long localId = st.executeInsert();
+			if (localId == -1)
+				throw new SQLException("Unable to add moment to outbox");
+			return new PendingMoment(localId, text, authorName, added, key);
+		} finally {
+			st.close();
+		}
+	}
+
+	/**
+	 * Loads moments from the outbox, oldest first.
+	 *
+	 * @param limit
+	 *            maximal amount of moments, or 0 to load all of them
+	 * @return list of moments, empty if the outbox is empty
+	 */
+	public synchronized List<PendingMoment> loadOutbox(int limit) {
+		Cursor c = getReadableDatabase().query(TABLE_OUTBOX,
+				new String[] { COLUMN_ID, COLUMN_TEXT, COLUMN_AUTHOR_NAME,
+						COLUMN_ADDED, COLUMN_IDEMPOTENCY_KEY }, null, null,
+				null, null, COLUMN_ID + " ASC",
+				limit > 0 ? Integer.toString(limit) : null);
+		try {
+			List<PendingMoment> moments = new ArrayList<PendingMoment>(
+					c.getCount());
+			while (c.moveToNext()) {
+				moments.add(new PendingMoment(c.getLong(0), c.getString(1), c
+						.isNull(2) ? null : c.getString(2), c.getLong(3), c
+						.getString(4)));
+			}
+			return moments;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Removes moments from the outbox at once, i.e. once they're posted.
+	 *
+	 * @param moments
+	 *            list of PendingMoment instances
+	 */
+	public synchronized void removeFromOutbox(List<PendingMoment> moments) {
+		SQLiteDatabase db = getWritableDatabase();
+		db.beginTransaction();
+		try {
+			for (PendingMoment moment : moments)
+				db.delete(TABLE_OUTBOX, COLUMN_ID + " = ?",
+						new String[] { Long.toString(moment.getLocalId()) });
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Removes all the loaded moments and sync state. The outbox is kept.
+	 */
+	public synchronized void clear() {
+		SQLiteDatabase db = getWritableDatabase();
+		db.beginTransaction();
+		try {
+			db.delete(TABLE_MOMENTS, null, null);
+			db.delete(TABLE_STATE, null, null);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	private void insertMoments(SQLiteDatabase db, Moment[] moments) {
+		SQLiteStatement st = db.compileStatement("INSERT OR REPLACE INTO "
+				+ TABLE_MOMENTS + " (" + COLUMN_ID + ", " + COLUMN_TEXT + ", "
+				+ COLUMN_AUTHOR_NAME + ", " + COLUMN_ADDED
+				+ ") VALUES (?, ?, ?, ?)");
+		try {
+			for (Moment moment : moments) {
+				st.clearBindings();
+				st.bindLong(1, moment.getId());
+				bindStringOrNull(st, 2, moment.getText());
+				bindStringOrNull(st, 3, moment.getAuthorName());
+				st.bindLong(4, moment.getAdded());
+				st.executeInsert();
+			}
+		} finally {
+			st.close();
+		}
+	}
+
+	private String getState(String key) {
+		Cursor c = getReadableDatabase().query(TABLE_STATE,
+				new String[] { COLUMN_VALUE }, COLUMN_KEY + " = ?",
+				new String[] { key }, null, null, null);
+		try {
+			if (!c.moveToFirst() || c.isNull(0))
+				return null;
+			return c.getString(0);
+		} finally {
+			c.close();
+		}
+	}
+
+	private void putState(SQLiteDatabase db, String key, String value) {
+		db.execSQL("INSERT OR REPLACE INTO " + TABLE_STATE + " ("
+				+ COLUMN_KEY + ", " + COLUMN_VALUE + ") VALUES (?, ?)",
+				new Object[] { key, value });
+	}
+
+	private static void bindStringOrNull(SQLiteStatement st, int index,
+			String value) {
+		if (value == null)
+			st.bindNull(index);
+		else
+			st.bindString(index, value);
+	}
+}
@@ -0,0 +1,59 @@
+package com.denisigo.moments;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.denisigo.moments.api.Api;
+import com.denisigo.moments.api.ApiConnectionPool;
+import com.denisigo.moments.api.ApiLog;
+import com.denisigo.moments.api.ApiResponseCache;
+
+/**
+ * Application class, configures process-wide objects.
+ */
+public class MomentsApplication extends Application {
+
+	// Maximal size of API responses cache, in bytes
+	private static final long API_CACHE_SIZE = 1024 * 1024;
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+
+		// Platform reads keep-alive configuration once, before the first
+		// connection
+		ApiConnectionPool.configurePlatform(
+				ApiConnectionPool.DEFAULT_MAX_IDLE_CONNECTIONS,
+				ApiConnectionPool.DEFAULT_KEEP_ALIVE_DURATION);
+
+		// API client is platform independent, route its messages to logcat
+		ApiLog.setLogger(new ApiLog.Logger() {
+			@Override
+			public void log(int priority, String tag, String message) {
+				Log.println(priority, tag, message);
+			}
+		});
+
+		// Revalidate recently loaded pages instead of downloading them again
+		Api.getInstance().getApiFetcher().setResponseCache(
+				new ApiResponseCache(new File(getCacheDir(), "api"),
+						API_CACHE_SIZE));
+
+		// Deliver results of asynchronous API calls in UI thread
+		final Handler handler = new Handler(Looper.getMainLooper());
+		Api.getInstance().setCallbackExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				handler.post(command);
+			}
+		});
+
+		// Send moments which weren't posted last time
+		MomentOutbox.getInstance(this).flush();
+	}
+}
@@ -0,0 +1,30 @@
+package com.denisigo.moments;
+
+import com.denisigo.moments.api.Moment;
+
+/**
+ * Moment which is saved in the outbox, but isn't posted yet. Its id is
+ * negative local id, so it doesn't collide with ids given by the server.
+ */
+public class PendingMoment extends Moment {
+
+	// Key letting the server recognize repeated posts of the moment
+	private final String mIdempotencyKey;
+
+	public PendingMoment(long localId, String text, String authorName,
+			long added, String idempotencyKey) {
+		super(-localId, text, authorName, added);
+		mIdempotencyKey = idempotencyKey;
+	}
+
+	/**
+	 * @return id of the moment in the outbox
+	 */
+	public long getLocalId() {
+		return -getId();
+	}
+
+	public String getIdempotencyKey() {
+		return mIdempotencyKey;
+	}
+}
@@ -0,0 +1,123 @@
+package com.denisigo.moments;
+
+import android.os.SystemClock;
+import android.widget.AbsListView.OnScrollListener;
+
+/**
+ * Decides when the next page should be loaded while the list is scrolled.
+ * Loading starts when the user is a few rows away from the end, where "a
+ * few" is the amount of rows the user is going to scroll through while the
+ * page is being loaded, according to measured scroll velocity and page
+ * latency. Triggers are debounced, so scroll callbacks don't spam loading.
+ *
+ * Should be used from UI thread only.
+ */
+public class ScrollPrefetcher {
+
+	// Bounds of the threshold, in rows
+	private static final int MIN_THRESHOLD = 3;
+	private static final int MAX_THRESHOLD = 50;
+	// Threshold is increased by this factor to compensate latency spikes
+	private static final float SAFETY_FACTOR = 1.5f;
+	// Minimal interval between triggers, in milliseconds
+	private static final long DEBOUNCE_INTERVAL = 300;
+	// Minimal interval between velocity samples, in milliseconds
+	private static final long SAMPLE_INTERVAL = 50;
+	// Weight of new samples in moving averages
+	private static final float SMOOTHING = 0.3f;
+	// Page latency assumed until the first page is loaded, in milliseconds
+	private static final float INITIAL_LATENCY = 1000;
+
+	// Scroll velocity, rows per second
+	private float mVelocity;
+	// Page latency, milliseconds
+	private float mLatency = INITIAL_LATENCY;
+
+	private int mLastFirstVisible = -1;
+	private long mLastSampleTime;
+	private long mLastTriggerTime;
+
+	/**
+	 * Should be called from OnScrollListener.onScroll.
+	 *
+	 * @return true if the next page should be loaded now
+	 */
+	public boolean onScroll(int firstVisibleItem, int visibleItemCount,
+			int totalItemCount) {
+		long now = SystemClock.uptimeMillis();
+		sampleVelocity(firstVisibleItem, now);
+
+		if (totalItemCount == 0)
+			return false;
+
+		int rowsLeft = totalItemCount - (firstVisibleItem + visibleItemCount);
+		if (rowsLeft > getThreshold())
+			return false;
+
+		if (now - mLastTriggerTime < DEBOUNCE_INTERVAL)
+			return false;
+
+		mLastTriggerTime = now;
+		return true;
+	}
+
+	/**
+	 * Should be called from OnScrollListener.onScrollStateChanged. Velocity
+	 * is sampled only while the list moves, so it's reset once it stops.
+	 */
+	public void onScrollStateChanged(int scrollState) {
+		if (scrollState != OnScrollListener.SCROLL_STATE_IDLE)
+			return;
+
+		mVelocity = 0;
+		// The next scroll starts sampling anew, rather than from the row
+		// the list stopped at
+		mLastFirstVisible = -1;
+	}
+
+	/**
+	 * Should be called when page is loaded.
+	 *
+	 * @param latency
+	 *            time it took to load the page, in milliseconds
+	 */
+	public void onPageLoaded(long latency) {
+		mLatency += (latency - mLatency) * SMOOTHING;
+	}
+
+	/**
+	 * @return amount of rows left before the end of the list when the next
+	 *         page should be loaded
+	 */
+	public int getThreshold() {
+		float rows = mVelocity * mLatency / 1000 * SAFETY_FACTOR;
+		return Math.max(MIN_THRESHOLD,
+				Math.min(MAX_THRESHOLD, MIN_THRESHOLD + (int) Math.ceil(rows)));
+	}
+
+	/**
+	 * @return scroll velocity, in rows per second
+	 */
+	public float getVelocity() {
+		return mVelocity;
+	}
+
+	private void sampleVelocity(int firstVisibleItem, long now) {
+		if (mLastFirstVisible < 0) {
+			mLastFirstVisible = firstVisibleItem;
+			mLastSampleTime = now;
+			return;
+		}
+
+		long elapsed = now - mLastSampleTime;
+		if (elapsed < SAMPLE_INTERVAL)
+			return;
+
+		float velocity = Math.abs(firstVisibleItem - mLastFirstVisible)
+				* 1000f / elapsed;
+		mVelocity += (velocity - mVelocity) * SMOOTHING;
+
+		mLastFirstVisible = firstVisibleItem;
+		mLastSampleTime = now;
+	}
+}
@@ -0,0 +1,92 @@
+package com.denisigo.moments.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Work behind the feed adapter which doesn't need Android views: appending
+ * pages to MomentList, building info lines of the rows with
+ * MomentInfoFormatter the way worker threads of the app do, and binding
+ * rows, which looks them up by position together with their info lines the
+ * way the view holder of MainFragment does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FeedListBenchmark {
+
+	// Page size of the feed
+	private static final int PAGE_SIZE = 10;
+
+	@Param({ "100", "1000", "10000" })
+	public int count;
+
+	private final MomentInfoFormatter mFormatter = new MomentInfoFormatter(
+			"Posted on %1$s by %2$s", "Anonymous");
+	private Moment[][] mPages;
+	private MomentList mList;
+	// Prepared info lines, held like by MomentInfoCache of the app
+	private Map<Moment, String> mInfos;
+
+	@Setup
+	public void setUp() throws IOException {
+		Moment[] moments = new MomentsReader().read(
+				new ByteArrayInputStream(Payloads.moments(count, 80,
+						Payloads.Text.UNICODE, Payloads.SEED)), count)
+				.getMoments();
+
+		mPages = new Moment[(count + PAGE_SIZE - 1) / PAGE_SIZE][];
+		for (int i = 0; i < mPages.length; i++)
+			mPages[i] = Arrays.copyOfRange(moments, i * PAGE_SIZE,
+					Math.min(moments.length, (i + 1) * PAGE_SIZE));
+
+		mList = new MomentList();
+		mList.addAllLast(moments);
+
+		mInfos = Collections.synchronizedMap(new WeakHashMap<Moment, String>());
+		StringBuilder sb = new StringBuilder(64);
+		for (Moment moment : moments)
+			mInfos.put(moment, mFormatter.format(sb, moment));
+	}
+
+	@Benchmark
+	public MomentList appendPages() {
+		MomentList list = new MomentList();
+		for (Moment[] page : mPages)
+			list.addAllLast(page);
+		return list;
+	}
+
+	@Benchmark
+	public void prepareInfo(Blackhole blackhole) {
+		StringBuilder sb = new StringBuilder(64);
+		for (Moment[] page : mPages) {
+			for (Moment moment : page)
+				blackhole.consume(mFormatter.format(sb, moment));
+		}
+	}
+
+	@Benchmark
+	public void bindRows(Blackhole blackhole) {
+		for (int i = 0; i < mList.size(); i++) {
+			Moment moment = mList.get(i);
+			blackhole.consume(moment.getText());
+			blackhole.consume(mInfos.get(moment));
+		}
+	}
+}
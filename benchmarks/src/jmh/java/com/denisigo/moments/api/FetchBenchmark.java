@@ -0,0 +1,51 @@
+package com.denisigo.moments.api;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * End-to-end Api.getMoments() against the loopback server: request, kept
+ * alive connection, decompression and parsing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FetchBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int count;
+
+	@Param({ "false", "true" })
+	public boolean gzip;
+
+	private LoopbackServer mServer;
+	private Api mApi;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		mServer = new LoopbackServer(Payloads.Text.UNICODE, 80, gzip);
+		mApi = new Api(new ApiFetcher(), ApiExecutor.getInstance(),
+				mServer.getBaseUrl());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mServer.stop();
+	}
+
+	@Benchmark
+	public Moments getMoments() throws IOException {
+		return mApi.getMoments((String) null, count);
+	}
+}
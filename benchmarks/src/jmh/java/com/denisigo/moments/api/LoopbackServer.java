@@ -0,0 +1,152 @@
+package com.denisigo.moments.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the appspot backend serving generated moments pages,
+ * so fetching can be measured without the network.
+ */
+public class LoopbackServer {
+
+	private final HttpServer mServer;
+	private final ExecutorService mExecutor;
+	private final Payloads.Text mText;
+	private final int mTextLength;
+	private final boolean mGzip;
+
+	// Generated bodies by limit
+	private final Map<Integer, byte[]> mPages = new HashMap<Integer, byte[]>();
+	private final Map<Integer, byte[]> mGzippedPages = new HashMap<Integer, byte[]>();
+
+	/**
+	 * @param text
+	 *            kind of moment texts
+	 * @param textLength
+	 *            length of moment texts
+	 * @param gzip
+	 *            whether to compress responses if client accepts it
+	 */
+	public LoopbackServer(Payloads.Text text, int textLength, boolean gzip)
+			throws IOException {
+		mText = text;
+		mTextLength = textLength;
+		mGzip = gzip;
+
+		mServer = HttpServer.create(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), 0), 0);
+		mServer.createContext("/api/v1/moments", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Loopback server");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mServer.setExecutor(mExecutor);
+		mServer.start();
+	}
+
+	/**
+	 * @return base URL of the API, to pass to Api constructor
+	 */
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + mServer.getAddress().getPort()
+				+ "/api/v1/";
+	}
+
+	public void stop() {
+		mServer.stop(0);
+		mExecutor.shutdownNow();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		try {
+			byte[] body;
+			if ("POST".equals(exchange.getRequestMethod())) {
+				drain(exchange.getRequestBody());
+				body = ("{\"id\": 1, \"added\": \"2014-06-01T00:00:00\"}")
+						.getBytes("UTF-8");
+			} else {
+				body = page(limit(exchange.getRequestURI().getRawQuery()),
+						isGzipAccepted(exchange));
+				if (isGzipAccepted(exchange))
+					exchange.getResponseHeaders().set("Content-Encoding",
+							"gzip");
+			}
+
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream os = exchange.getResponseBody();
+			os.write(body);
+			os.close();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private boolean isGzipAccepted(HttpExchange exchange) {
+		String accepted = exchange.getRequestHeaders().getFirst(
+				"Accept-Encoding");
+		return mGzip && accepted != null && accepted.contains("gzip");
+	}
+
+	private synchronized byte[] page(int limit, boolean gzip)
+			throws IOException {
+		byte[] body = mPages.get(limit);
+		if (body == null) {
+			body = Payloads.moments(limit, mTextLength, mText, Payloads.SEED);
+			mPages.put(limit, body);
+		}
+		if (!gzip)
+			return body;
+
+		byte[] gzipped = mGzippedPages.get(limit);
+		if (gzipped == null) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			GZIPOutputStream os = new GZIPOutputStream(bytes);
+			os.write(body);
+			os.close();
+			gzipped = bytes.toByteArray();
+			mGzippedPages.put(limit, gzipped);
+		}
+		return gzipped;
+	}
+
+	private static int limit(String query) {
+		if (query != null) {
+			for (String param : query.split("&")) {
+				if (param.startsWith("limit="))
+					return Integer.parseInt(param.substring(6));
+			}
+		}
+		return 10;
+	}
+
+	private static void drain(InputStream is) throws IOException {
+		byte[] buffer = new byte[4096];
+		while (is.read(buffer) != -1)
+			;
+	}
+}
@@ -0,0 +1,47 @@
+package com.denisigo.moments.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing of moments pages by MomentsReader. Allocation per moment is
+ * gc.alloc.rate.norm reported by the gc profiler divided by count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseBenchmark {
+
+	// Parameter fields are named as they appear in the results
+	@Param({ "10", "100", "1000", "10000" })
+	public int count;
+
+	@Param({ "ASCII", "UNICODE", "ESCAPED" })
+	public Payloads.Text text;
+
+	@Param({ "80", "1000" })
+	public int textLength;
+
+	private byte[] mPayload;
+
+	@Setup
+	public void setUp() {
+		mPayload = Payloads.moments(count, textLength, text, Payloads.SEED);
+	}
+
+	@Benchmark
+	public Moments parse() throws IOException {
+		return new MomentsReader().read(new ByteArrayInputStream(mPayload),
+				count);
+	}
+}
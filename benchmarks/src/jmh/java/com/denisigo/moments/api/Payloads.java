@@ -0,0 +1,123 @@
+package com.denisigo.moments.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generates moments API responses. The same arguments always give the same
+ * bytes, so benchmark runs are comparable.
+ */
+public final class Payloads {
+
+	// Seed used by the benchmarks
+	public static final long SEED = 42;
+
+	// Added time of the newest generated moment, 2014-06-01T00:00:00Z
+	private static final long NEWEST_ADDED = 1401580800000L;
+
+	/*
+	 * Kinds of moment texts.
+	 */
+	public enum Text {
+		// Plain ASCII
+		ASCII,
+		// Cyrillic, CJK, accented letters and emoji as raw UTF-8
+		UNICODE,
+		// The same as UNICODE, but escaped as \\uXXXX like Python json does
+		ESCAPED
+	}
+
+	private static final String ASCII_CHARS = "abcdefghijklmnopqrstuvwxyz"
+			+ "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789      .,!?'\"\\\n-";
+	// Escaped in the source to not depend on the source encoding
+	private static final String[] UNICODE_CHARS = {
+			"\u043f\u0440\u0438\u0432\u0435\u0442", "\u043c\u0438\u0440",
+			"\u65e5\u672c\u8a9e", "\u4e2d\u6587", "caf\u00e9", "na\u00efve",
+			"\ud83d\ude00", "\ud83c\udf89", " ", " ", " ", "ok", ".", "\n" };
+
+	private Payloads() {
+	}
+
+	/**
+	 * @param count
+	 *            amount of moments
+	 * @param textLength
+	 *            approximate length of moment texts, in chars
+	 * @param text
+	 *            kind of the texts
+	 * @param seed
+	 *            seed of the random generator
+	 * @return UTF-8 JSON response with moments and cursor
+	 */
+	public static byte[] moments(int count, int textLength, Text text,
+			long seed) {
+		Random random = new Random(seed);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(count
+				* (textLength + 120));
+		try {
+			Writer writer = new OutputStreamWriter(bytes, "UTF-8");
+			writer.write("{\"moments\": [");
+			for (int i = 0; i < count; i++) {
+				if (i > 0)
+					writer.write(", ");
+				writer.write("{\"id\": ");
+				writer.write(Long.toString(5000000000L - i));
+				writer.write(", \"text\": ");
+				writeString(writer, text(random, textLength, text),
+						text == Text.ESCAPED);
+				writer.write(", \"author_name\": ");
+				// Some moments are anonymous
+				if (random.nextInt(10) == 0)
+					writer.write("null");
+				else
+					writeString(writer, text(random, 12, text),
+							text == Text.ESCAPED);
+				writer.write(", \"added\": \"");
+				writer.write(Timestamps.format(NEWEST_ADDED - i * 60000L
+						- random.nextInt(60000)));
+				writer.write("\"}");
+			}
+			writer.write("], \"cursor\": \"");
+			writer.write(Long.toHexString(random.nextLong()));
+			writer.write("\"}");
+			writer.close();
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static String text(Random random, int length, Text text) {
+		StringBuilder sb = new StringBuilder(length + 8);
+		while (sb.length() < length) {
+			if (text == Text.ASCII)
+				sb.append(ASCII_CHARS.charAt(random.nextInt(ASCII_CHARS
+						.length())));
+			else
+				sb.append(UNICODE_CHARS[random.nextInt(UNICODE_CHARS.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static void writeString(Writer writer, String value,
+			boolean escapeNonAscii) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				writer.write('\\');
+				writer.write(c);
+			} else if (c == '\n') {
+				writer.write("\\n");
+			} else if (c < 0x20 || (escapeNonAscii && c > 0x7e)) {
+				writer.write(String.format("\\u%04x", (int) c));
+			} else {
+				writer.write(c);
+			}
+		}
+		writer.write('"');
+	}
+}
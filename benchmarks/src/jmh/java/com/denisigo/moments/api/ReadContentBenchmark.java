@@ -0,0 +1,49 @@
+package com.denisigo.moments.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reading whole responses by ApiFetcher.readContent() and decoding them, as
+ * done for posts and error responses, with and without Content-Length.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadContentBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int count;
+
+	@Param({ "ASCII", "UNICODE" })
+	public Payloads.Text text;
+
+	@Param({ "false", "true" })
+	public boolean knownLength;
+
+	private byte[] mPayload;
+
+	@Setup
+	public void setUp() {
+		mPayload = Payloads.moments(count, 80, text, Payloads.SEED);
+	}
+
+	@Benchmark
+	public String readContent() throws IOException {
+		CountingInputStream is = new CountingInputStream(
+				new ByteArrayInputStream(mPayload), knownLength ? mPayload.length
+						: -1);
+		return new ApiFetcher.Result(200, ApiFetcher.readContent(is))
+				.getContent();
+	}
+}
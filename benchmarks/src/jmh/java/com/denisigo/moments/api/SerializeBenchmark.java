@@ -0,0 +1,59 @@
+package com.denisigo.moments.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Serializing moments to post by MomentWriter into reused RequestBody, as
+ * single posts and as a batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializeBenchmark {
+
+	@Param({ "1", "20", "500" })
+	public int count;
+
+	@Param({ "ASCII", "UNICODE" })
+	public Payloads.Text text;
+
+	private Moment[] mMoments;
+	private final MomentWriter mWriter = new MomentWriter();
+	private final RequestBody mBody = new RequestBody(1024);
+
+	@Setup
+	public void setUp() throws IOException {
+		mMoments = new MomentsReader().read(
+				new ByteArrayInputStream(Payloads.moments(count, 140, text,
+						Payloads.SEED)), count).getMoments();
+	}
+
+	@Benchmark
+	public int writeEach() {
+		int length = 0;
+		for (Moment moment : mMoments) {
+			mBody.reset();
+			mWriter.writeMoment(moment, mBody);
+			length += mBody.getLength();
+		}
+		return length;
+	}
+
+	@Benchmark
+	public int writeBatch() {
+		mBody.reset();
+		mWriter.writeMoments(mMoments, mBody);
+		return mBody.getLength();
+	}
+}
@@ -0,0 +1,627 @@
+package com.denisigo.moments.fake;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.denisigo.moments.api.JsonReader;
+import com.denisigo.moments.api.JsonToken;
+import com.denisigo.moments.api.Moment;
+import com.denisigo.moments.api.Timestamps;
+
+/**
+ * In-memory stand-in for the moments backend. Implements /moments the way
+ * the real one does:
+ *
+ * GET returns moments newest first, limit of them, added at from_time or
+ * later, starting after the cursor. The cursor is returned if there are
+ * more moments. With wait, empty response is held until a moment is posted.
+ *
+ * POST adds a moment, {"text": ..., "author_name": ...}, or a batch of them,
+ * {"moments": [...]}. Repeated posts with the same Idempotency-Key get the
+ * first response.
+ *
+ * Errors are returned as {"error": {"code": ..., "message": ...}}.
+ * Thread-safe.
+ */
+public class FakeBackend {
+
+	public static final int DEFAULT_LIMIT = 10;
+	public static final int MAX_LIMIT = 1000;
+	// Longest time to hold poll requests, in seconds
+	public static final int MAX_WAIT = 30;
+
+	// Amount of idempotency keys remembered
+	private static final int MAX_IDEMPOTENCY_KEYS = 10000;
+
+	private static final String PATH = "/moments";
+
+	private static final String[] WORDS = { "moment", "sunny", "coffee",
+			"train", "meeting", "cat", "sea", "rain", "friends", "lunch",
+			"\u043f\u0440\u0438\u0432\u0435\u0442", "\u65e5\u672c",
+			"caf\u00e9", "\ud83d\ude00" };
+
+	// Orders moments the way they are stored, oldest first
+	private static final Comparator<Moment> ORDER = new Comparator<Moment>() {
+		@Override
+		public int compare(Moment lhs, Moment rhs) {
+			if (lhs.getAdded() != rhs.getAdded())
+				return lhs.getAdded() < rhs.getAdded() ? -1 : 1;
+			if (lhs.getId() != rhs.getId())
+				return lhs.getId() < rhs.getId() ? -1 : 1;
+			return 0;
+		}
+	};
+
+	/*
+	 * Response of the backend.
+	 */
+	public static class Response {
+		private final int mStatusCode;
+		private final Map<String, String> mHeaders = new TreeMap<String, String>(
+				String.CASE_INSENSITIVE_ORDER);
+		private final byte[] mBody;
+
+		public Response(int statusCode, byte[] body) {
+			mStatusCode = statusCode;
+			mBody = body;
+			mHeaders.put("Content-Type", "application/json; charset=utf-8");
+			mHeaders.put("Content-Length", Integer.toString(body.length));
+		}
+
+		public int getStatusCode() {
+			return mStatusCode;
+		}
+
+		/**
+		 * @return value of the header, case-insensitive, or null
+		 */
+		public String getHeader(String name) {
+			return mHeaders.get(name);
+		}
+
+		public Map<String, String> getHeaders() {
+			return Collections.unmodifiableMap(mHeaders);
+		}
+
+		public void setHeader(String name, String value) {
+			mHeaders.put(name, value);
+		}
+
+		public byte[] getBody() {
+			return mBody;
+		}
+	}
+
+	/*
+	 * Client error, turned into error response.
+	 */
+	private static class BadRequestException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		BadRequestException(String message) {
+			super(message);
+		}
+	}
+
+	// Stored moments, oldest first
+	private final List<Moment> mMoments = new ArrayList<Moment>();
+	private long mLastId;
+	private long mLastAdded;
+
+	// Responses to posts by idempotency key, oldest first
+	private final LinkedHashMap<String, Response> mPosted = new LinkedHashMap<String, Response>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Response> eldest) {
+			return size() > MAX_IDEMPOTENCY_KEYS;
+		}
+	};
+
+	private volatile boolean mCompressResponses;
+
+	// Counters
+	private long mRequestCount;
+	private long mGetCount;
+	private long mPostCount;
+	private long mErrorCount;
+
+	/**
+	 * Enables gzip compression of responses for clients accepting it.
+	 * Disabled by default.
+	 */
+	public void setCompressResponses(boolean compressResponses) {
+		mCompressResponses = compressResponses;
+	}
+
+	/**
+	 * Adds moments with generated texts, one per minute ending now. The
+	 * same seed gives the same texts.
+	 *
+	 * @param count
+	 *            amount of moments
+	 * @param seed
+	 *            seed of the texts
+	 */
+	public void populate(int count, long seed) {
+		Random random = new Random(seed);
+		long now = currentTimeMillis();
+		for (int i = count - 1; i >= 0; i--) {
+			StringBuilder text = new StringBuilder();
+			int words = 3 + random.nextInt(20);
+			for (int j = 0; j < words; j++) {
+				if (j > 0)
+					text.append(' ');
+				text.append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			String author = random.nextInt(10) == 0 ? null : "user"
+					+ random.nextInt(1000);
+			add(text.toString(), author, now - i * 60000L);
+		}
+	}
+
+	/**
+	 * Adds moment, i.e. as if it was posted by another user.
+	 *
+	 * @return added Moment
+	 */
+	public Moment post(String text, String authorName) {
+		return add(text, authorName, currentTimeMillis());
+	}
+
+	public synchronized int getMomentCount() {
+		return mMoments.size();
+	}
+
+	/**
+	 * @return copy of stored moments, newest first
+	 */
+	public synchronized List<Moment> getMoments() {
+		List<Moment> moments = new ArrayList<Moment>(mMoments);
+		Collections.reverse(moments);
+		return moments;
+	}
+
+	public synchronized long getRequestCount() {
+		return mRequestCount;
+	}
+
+	public synchronized long getGetCount() {
+		return mGetCount;
+	}
+
+	public synchronized long getPostCount() {
+		return mPostCount;
+	}
+
+	public synchronized long getErrorCount() {
+		return mErrorCount;
+	}
+
+	/**
+	 * Removes all the moments and remembered posts.
+	 */
+	public synchronized void clear() {
+		mMoments.clear();
+		mPosted.clear();
+		mLastAdded = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "FakeBackend [moments=" + mMoments.size() + ", requests="
+				+ mRequestCount + ", gets=" + mGetCount + ", posts="
+				+ mPostCount + ", errors=" + mErrorCount + "]";
+	}
+
+	/**
+	 * Handles request.
+	 *
+	 * @param method
+	 *            HTTP method
+	 * @param url
+	 *            URL of the request, only path ending and query are used
+	 * @param headers
+	 *            request headers, case-insensitive
+	 * @param body
+	 *            request body, may be empty
+	 * @return Response instance
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted while poll request is held
+	 */
+	public Response handle(String method, URL url, Map<String, String> headers,
+			byte[] body) throws IOException {
+		synchronized (this) {
+			mRequestCount++;
+		}
+
+		Response response;
+		try {
+			if (url.getPath() == null || !url.getPath().endsWith(PATH)) {
+				response = error(404, "Not found");
+			} else if (method.equals("GET")) {
+				synchronized (this) {
+					mGetCount++;
+				}
+				response = get(parseQuery(url.getQuery()));
+			} else if (method.equals("POST")) {
+				synchronized (this) {
+					mPostCount++;
+				}
+				response = post(headers, body);
+			} else {
+				response = error(405, "Method not allowed");
+				response.setHeader("Allow", "GET, POST");
+			}
+		} catch (BadRequestException e) {
+			response = error(400, e.getMessage());
+		}
+
+		if (response.getStatusCode() >= 400) {
+			synchronized (this) {
+				mErrorCount++;
+			}
+		}
+
+		String accepted = headers.get("Accept-Encoding");
+		if (mCompressResponses && accepted != null
+				&& accepted.contains("gzip"))
+			response = compress(response);
+
+		return response;
+	}
+
+	/**
+	 * @return current time for added times of the moments, can be
+	 *         overridden for virtual time
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private synchronized Moment add(String text, String authorName,
+			long added) {
+		// Added times never go back, so the list stays ordered
+		added = Math.max(added, mLastAdded);
+		Moment moment = new Moment(++mLastId, text, authorName, added);
+		mLastAdded = added;
+		mMoments.add(moment);
+		// Wake up held polls
+		notifyAll();
+		return moment;
+	}
+
+	private Response get(Map<String, String> params) throws IOException,
+			BadRequestException {
+		int limit = DEFAULT_LIMIT;
+		if (params.containsKey("limit")) {
+			limit = parseInt(params.get("limit"), "limit");
+			if (limit <= 0)
+				throw new BadRequestException("Invalid limit");
+			limit = Math.min(limit, MAX_LIMIT);
+		}
+
+		long fromTime = Long.MIN_VALUE;
+		if (params.containsKey("from_time")) {
+			try {
+				fromTime = Timestamps.parse(params.get("from_time"));
+			} catch (IllegalArgumentException e) {
+				throw new BadRequestException("Invalid from_time");
+			}
+		}
+
+		Moment after = null;
+		String cursor = params.get("cursor");
+		if (cursor != null && cursor.length() > 0)
+			after = parseCursor(cursor);
+
+		int wait = 0;
+		if (params.containsKey("wait"))
+			wait = Math.min(Math.max(parseInt(params.get("wait"), "wait"), 0),
+					MAX_WAIT);
+
+		List<Moment> page = new ArrayList<Moment>(Math.min(limit, 64));
+		boolean isMore;
+		synchronized (this) {
+			isMore = query(after, fromTime, limit, page);
+
+			// Hold the poll until something is posted
+			long deadline = System.currentTimeMillis() + wait * 1000L;
+			while (page.isEmpty() && after == null && wait > 0) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					break;
+				try {
+					wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Poll is interrupted");
+				}
+				isMore = query(after, fromTime, limit, page);
+			}
+		}
+
+		StringBuilder sb = new StringBuilder(64 + page.size() * 160);
+		sb.append("{\"moments\": [");
+		for (int i = 0; i < page.size(); i++) {
+			if (i > 0)
+				sb.append(", ");
+			appendMoment(sb, page.get(i));
+		}
+		sb.append(']');
+		if (isMore) {
+			sb.append(", \"cursor\": ");
+			appendString(sb, formatCursor(page.get(page.size() - 1)));
+		}
+		sb.append('}');
+
+		return new Response(200, bytes(sb));
+	}
+
+	/**
+	 * Fills the page with moments newest first.
+	 *
+	 * @return whether there are more moments after the page
+	 */
+	private boolean query(Moment after, long fromTime, int limit,
+			List<Moment> page) {
+		page.clear();
+
+		// Index of the newest moment older than the cursor
+		int index = mMoments.size() - 1;
+		if (after != null) {
+			int found = Collections.binarySearch(mMoments, after, ORDER);
+			index = found >= 0 ? found - 1 : -found - 2;
+		}
+
+		for (; index >= 0 && page.size() < limit; index--) {
+			Moment moment = mMoments.get(index);
+			if (moment.getAdded() < fromTime)
+				return false;
+			page.add(moment);
+		}
+		return index >= 0 && mMoments.get(index).getAdded() >= fromTime;
+	}
+
+	private Response post(Map<String, String> headers, byte[] body)
+			throws IOException, BadRequestException {
+		String key = headers.get("Idempotency-Key");
+		if (key != null) {
+			synchronized (this) {
+				Response posted = mPosted.get(key);
+				if (posted != null)
+					return posted;
+			}
+		}
+
+		if ("gzip".equalsIgnoreCase(headers.get("Content-Encoding")))
+			body = decompress(body);
+
+		// Parse everything first, so invalid batch adds nothing
+		List<Moment> moments = new ArrayList<Moment>();
+		boolean isBatch = false;
+		JsonReader reader = new JsonReader(new InputStreamReader(
+				new ByteArrayInputStream(body), "UTF-8"));
+		try {
+			Moment single = new Moment();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals("moments")) {
+					isBatch = true;
+					reader.beginArray();
+					while (reader.hasNext())
+						moments.add(readMoment(reader));
+					reader.endArray();
+				} else {
+					readField(reader, name, single);
+				}
+			}
+			reader.endObject();
+			if (!isBatch)
+				moments.add(single);
+		} catch (IllegalStateException e) {
+			throw new BadRequestException("Invalid JSON");
+		} catch (IOException e) {
+			throw new BadRequestException("Invalid JSON");
+		}
+
+		for (Moment moment : moments) {
+			if (moment.getText() == null || moment.getText().trim().isEmpty())
+				throw new BadRequestException("Text is required");
+		}
+
+		StringBuilder sb = new StringBuilder(64 + moments.size() * 160);
+		Response response;
+		synchronized (this) {
+			// Could be posted by concurrent request meanwhile
+			if (key != null && mPosted.containsKey(key))
+				return mPosted.get(key);
+
+			long now = currentTimeMillis();
+			if (isBatch)
+				sb.append("{\"moments\": [");
+			for (int i = 0; i < moments.size(); i++) {
+				Moment moment = moments.get(i);
+				if (i > 0)
+					sb.append(", ");
+				appendMoment(sb,
+						add(moment.getText(), moment.getAuthorName(), now));
+			}
+			if (isBatch)
+				sb.append("]}");
+
+			response = new Response(200, bytes(sb));
+			if (key != null)
+				mPosted.put(key, response);
+		}
+		return response;
+	}
+
+	private static Moment readMoment(JsonReader reader) throws IOException {
+		Moment moment = new Moment();
+		reader.beginObject();
+		while (reader.hasNext())
+			readField(reader, reader.nextName(), moment);
+		reader.endObject();
+		return moment;
+	}
+
+	private static void readField(JsonReader reader, String name,
+			Moment moment) throws IOException {
+		if (name.equals("text") && reader.peek() == JsonToken.STRING)
+			moment.setText(reader.nextString());
+		else if (name.equals("author_name")
+				&& reader.peek() == JsonToken.STRING)
+			moment.setAuthorName(reader.nextString());
+		else
+			reader.skipValue();
+	}
+
+	private static Response error(int statusCode, String message) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"error\": {\"code\": ").append(statusCode)
+				.append(", \"message\": ");
+		appendString(sb, message);
+		sb.append("}}");
+		return new Response(statusCode, bytes(sb));
+	}
+
+	private static Response compress(Response response) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream os = new GZIPOutputStream(bytes);
+		os.write(response.getBody());
+		os.close();
+
+		Response compressed = new Response(response.getStatusCode(),
+				bytes.toByteArray());
+		for (Map.Entry<String, String> header : response.getHeaders()
+				.entrySet()) {
+			if (!header.getKey().equalsIgnoreCase("Content-Length"))
+				compressed.setHeader(header.getKey(), header.getValue());
+		}
+		compressed.setHeader("Content-Encoding", "gzip");
+		return compressed;
+	}
+
+	private static byte[] decompress(byte[] body) throws BadRequestException {
+		try {
+			InputStream is = new GZIPInputStream(new ByteArrayInputStream(
+					body));
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = is.read(buffer)) != -1)
+				bytes.write(buffer, 0, count);
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new BadRequestException("Invalid gzip body");
+		}
+	}
+
+	private static void appendMoment(StringBuilder sb, Moment moment) {
+		sb.append("{\"id\": ").append(moment.getId()).append(", \"text\": ");
+		appendString(sb, moment.getText());
+		sb.append(", \"author_name\": ");
+		appendString(sb, moment.getAuthorName());
+		// With microseconds, like the real backend
+		sb.append(", \"added\": \"")
+				.append(Timestamps.format(moment.getAdded()))
+				.append(String.format(".%06d",
+						(moment.getAdded() % 1000 + 1000) % 1000 * 1000))
+				.append("\"}");
+	}
+
+	private static void appendString(StringBuilder sb, String value) {
+		if (value == null) {
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c == '\n')
+				sb.append("\\n");
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		sb.append('"');
+	}
+
+	private static String formatCursor(Moment moment) {
+		return Long.toString(moment.getAdded(), 36) + "-"
+				+ Long.toString(moment.getId(), 36);
+	}
+
+	/**
+	 * @return moment with added time and id of the cursor position
+	 */
+	private static Moment parseCursor(String cursor)
+			throws BadRequestException {
+		int dash = cursor.indexOf('-', 1);
+		try {
+			if (dash == -1)
+				throw new NumberFormatException();
+			return new Moment(Long.parseLong(cursor.substring(dash + 1), 36),
+					null, null, Long.parseLong(cursor.substring(0, dash), 36));
+		} catch (NumberFormatException e) {
+			throw new BadRequestException("Invalid cursor");
+		}
+	}
+
+	private static int parseInt(String value, String name)
+			throws BadRequestException {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new BadRequestException("Invalid " + name);
+		}
+	}
+
+	private static Map<String, String> parseQuery(String query)
+			throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null)
+			return params;
+		for (String param : query.split("&")) {
+			if (param.length() == 0)
+				continue;
+			int eq = param.indexOf('=');
+			String name = eq == -1 ? param : param.substring(0, eq);
+			String value = eq == -1 ? "" : param.substring(eq + 1);
+			params.put(URLDecoder.decode(name, "UTF-8"),
+					URLDecoder.decode(value, "UTF-8"));
+		}
+		return params;
+	}
+
+	private static byte[] bytes(StringBuilder sb) {
+		try {
+			return sb.toString().getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.denisigo.moments.fake;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server in front of FakeBackend, so the client can be run over
+ * real sockets and HttpTransport.
+ */
+public class FakeServer {
+
+	private final FakeBackend mBackend;
+	private final HttpServer mServer;
+	private final ExecutorService mExecutor;
+
+	/**
+	 * Starts the server on a free loopback port.
+	 */
+	public FakeServer(FakeBackend backend) throws IOException {
+		this(backend, new InetSocketAddress(InetAddress.getLoopbackAddress(),
+				0));
+	}
+
+	public FakeServer(FakeBackend backend, InetSocketAddress address)
+			throws IOException {
+		mBackend = backend;
+		// Otherwise Nagle's algorithm delays responses written in parts by
+		// 40 ms. Read once, when the first server is created.
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		mServer = HttpServer.create(address, 0);
+		mServer.createContext("/api/v1/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		// Held polls take threads, so the pool isn't bounded
+		mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Fake server");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mServer.setExecutor(mExecutor);
+		mServer.start();
+	}
+
+	public FakeBackend getBackend() {
+		return mBackend;
+	}
+
+	/**
+	 * @return base URL of the API, to pass to Api constructor
+	 */
+	public String getBaseUrl() {
+		InetSocketAddress address = mServer.getAddress();
+		return "http://" + address.getAddress().getHostAddress() + ":"
+				+ address.getPort() + "/api/v1/";
+	}
+
+	public void stop() {
+		mServer.stop(0);
+		mExecutor.shutdownNow();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		try {
+			Map<String, String> headers = new TreeMap<String, String>(
+					String.CASE_INSENSITIVE_ORDER);
+			for (Map.Entry<String, List<String>> header : exchange
+					.getRequestHeaders().entrySet()) {
+				if (!header.getValue().isEmpty())
+					headers.put(header.getKey(), header.getValue().get(0));
+			}
+			URL url = new URL("http", "localhost", exchange.getRequestURI()
+					.toString());
+
+			FakeBackend.Response response = mBackend.handle(
+					exchange.getRequestMethod(), url, headers,
+					read(exchange.getRequestBody()));
+
+			for (Map.Entry<String, String> header : response.getHeaders()
+					.entrySet()) {
+				// Set by sendResponseHeaders()
+				if (!header.getKey().equalsIgnoreCase("Content-Length"))
+					exchange.getResponseHeaders().set(header.getKey(),
+							header.getValue());
+			}
+			byte[] body = response.getBody();
+			exchange.sendResponseHeaders(response.getStatusCode(),
+					body.length > 0 ? body.length : -1);
+			OutputStream os = exchange.getResponseBody();
+			os.write(body);
+			os.close();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static byte[] read(InputStream is) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int count;
+		while ((count = is.read(buffer)) != -1)
+			bytes.write(buffer, 0, count);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Runs the server with populated backend until the process is killed.
+	 *
+	 * @param args
+	 *            optional port, 8080 by default, and amount of moments
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+		FakeBackend backend = new FakeBackend();
+		backend.populate(count, FaultScenario.DEFAULT_SEED);
+		FakeServer server = new FakeServer(backend, new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), port));
+		System.out.println("Serving " + count + " moments at "
+				+ server.getBaseUrl());
+	}
+}
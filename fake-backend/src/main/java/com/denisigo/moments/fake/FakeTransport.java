@@ -0,0 +1,163 @@
+package com.denisigo.moments.fake;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.denisigo.moments.api.ApiTransport;
+
+/**
+ * Transport passing requests straight to FakeBackend, without sockets or
+ * HTTP. Use it with BASE_URL, any host works though:
+ *
+ * new Api(new ApiFetcher(new FakeTransport(backend)), executor,
+ * FakeTransport.BASE_URL)
+ */
+public class FakeTransport implements ApiTransport {
+
+	public static final String BASE_URL = "http://fake.invalid/api/v1/";
+
+	private final FakeBackend mBackend;
+
+	public FakeTransport(FakeBackend backend) {
+		mBackend = backend;
+	}
+
+	public FakeBackend getBackend() {
+		return mBackend;
+	}
+
+	@Override
+	public Exchange open(URL url, String method) throws IOException {
+		return new FakeExchange(mBackend, url, method);
+	}
+
+	/*
+	 * Exchange buffering the request and handling it on getResponseCode().
+	 */
+	private static class FakeExchange implements Exchange {
+		private final FakeBackend mBackend;
+		private final URL mUrl;
+		private final String mMethod;
+		private final Map<String, String> mHeaders = new TreeMap<String, String>(
+				String.CASE_INSENSITIVE_ORDER);
+		private final ByteArrayOutputStream mBody = new ByteArrayOutputStream();
+		private int mFixedLength = -1;
+		private boolean mConnected;
+		private FakeBackend.Response mResponse;
+		private volatile boolean mDisconnected;
+
+		FakeExchange(FakeBackend backend, URL url, String method) {
+			mBackend = backend;
+			mUrl = url;
+			mMethod = method;
+		}
+
+		@Override
+		public void setRequestProperty(String name, String value) {
+			if (mConnected)
+				throw new IllegalStateException("Already connected");
+			mHeaders.put(name, value);
+		}
+
+		@Override
+		public void setFixedLengthStreamingMode(int length) {
+			if (mConnected)
+				throw new IllegalStateException("Already connected");
+			mFixedLength = length;
+		}
+
+		@Override
+		public void setChunkedStreamingMode() {
+			if (mConnected)
+				throw new IllegalStateException("Already connected");
+			mFixedLength = -1;
+		}
+
+		@Override
+		public void connect() throws IOException {
+			checkDisconnected();
+			mConnected = true;
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			if (!mMethod.equals("POST"))
+				throw new ProtocolException(mMethod + " has no request body");
+			connect();
+			return mBody;
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			if (mResponse == null) {
+				connect();
+				byte[] body = mBody.toByteArray();
+				// The way HttpURLConnection fails on wrong length
+				if (mFixedLength != -1 && body.length != mFixedLength)
+					throw new ProtocolException("Expected " + mFixedLength
+							+ " bytes of request body, written "
+							+ body.length);
+				mResponse = mBackend.handle(mMethod, mUrl, mHeaders, body);
+				checkDisconnected();
+			}
+			return mResponse.getStatusCode();
+		}
+
+		@Override
+		public String getHeaderField(String name) {
+			return mResponse != null ? mResponse.getHeader(name) : null;
+		}
+
+		@Override
+		public long getContentLength() {
+			String length = getHeaderField("Content-Length");
+			if (length == null)
+				return -1;
+			try {
+				return Long.parseLong(length);
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			int statusCode = getResponseCode();
+			byte[] body = mResponse.getBody();
+			// Like error stream, which is null if there is no content
+			if (statusCode != 200 && body.length == 0)
+				return null;
+			return new FilterInputStream(new ByteArrayInputStream(body)) {
+				@Override
+				public int read() throws IOException {
+					checkDisconnected();
+					return super.read();
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					checkDisconnected();
+					return super.read(b, off, len);
+				}
+			};
+		}
+
+		@Override
+		public void disconnect() {
+			mDisconnected = true;
+		}
+
+		private void checkDisconnected() throws IOException {
+			if (mDisconnected)
+				throw new IOException("Disconnected");
+		}
+	}
+}
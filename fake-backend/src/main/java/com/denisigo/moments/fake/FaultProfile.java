@@ -0,0 +1,186 @@
+package com.denisigo.moments.fake;
+
+import java.util.Random;
+
+/**
+ * Network and server faults injected by FaultyTransport. Nothing is
+ * injected by default.
+ */
+public class FaultProfile {
+
+	/*
+	 * Distribution of delays, in milliseconds.
+	 */
+	public interface Distribution {
+		long next(Random random);
+	}
+
+	/**
+	 * No delay.
+	 */
+	public static final Distribution NONE = fixed(0);
+
+	private String mName = "none";
+	private Distribution mLatency = NONE;
+	private Distribution mTtfb = NONE;
+	private long mBandwidth;
+	private double mPartialBodyRate;
+	private double mResetRate;
+	private double mBurstRate;
+	private int mBurstLength = 1;
+	private int mBurstStatusCode = 503;
+
+	public FaultProfile() {
+	}
+
+	public FaultProfile(String name) {
+		mName = name;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	public Distribution getLatency() {
+		return mLatency;
+	}
+
+	/**
+	 * Sets network round trip time, spent once per request.
+	 */
+	public FaultProfile setLatency(Distribution latency) {
+		mLatency = latency;
+		return this;
+	}
+
+	public Distribution getTtfb() {
+		return mTtfb;
+	}
+
+	/**
+	 * Sets time server takes to start responding, on top of the latency.
+	 */
+	public FaultProfile setTtfb(Distribution ttfb) {
+		mTtfb = ttfb;
+		return this;
+	}
+
+	public long getBandwidth() {
+		return mBandwidth;
+	}
+
+	/**
+	 * Caps speed of sending request and receiving response bodies.
+	 *
+	 * @param bytesPerSecond
+	 *            bytes per second, 0 for no cap
+	 */
+	public FaultProfile setBandwidth(long bytesPerSecond) {
+		mBandwidth = bytesPerSecond;
+		return this;
+	}
+
+	public double getPartialBodyRate() {
+		return mPartialBodyRate;
+	}
+
+	/**
+	 * Sets share of responses whose body is cut off in the middle, the way
+	 * connection closed by server or proxy looks like.
+	 */
+	public FaultProfile setPartialBodyRate(double rate) {
+		mPartialBodyRate = rate;
+		return this;
+	}
+
+	public double getResetRate() {
+		return mResetRate;
+	}
+
+	/**
+	 * Sets share of requests whose connection is reset before the response.
+	 * The request reaches the server, so posts are applied nevertheless.
+	 */
+	public FaultProfile setResetRate(double rate) {
+		mResetRate = rate;
+		return this;
+	}
+
+	public double getBurstRate() {
+		return mBurstRate;
+	}
+
+	public int getBurstLength() {
+		return mBurstLength;
+	}
+
+	public int getBurstStatusCode() {
+		return mBurstStatusCode;
+	}
+
+	/**
+	 * Makes server fail requests in bursts, without processing them.
+	 *
+	 * @param rate
+	 *            chance of a burst to start on each request
+	 * @param length
+	 *            amount of requests failed in a row
+	 * @param statusCode
+	 *            5xx status code of failed requests
+	 */
+	public FaultProfile setBursts(double rate, int length, int statusCode) {
+		if (length < 1 || statusCode < 500 || statusCode > 599)
+			throw new IllegalArgumentException("Invalid burst");
+		mBurstRate = rate;
+		mBurstLength = length;
+		mBurstStatusCode = statusCode;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return mName;
+	}
+
+	/**
+	 * @return distribution always giving the same delay
+	 */
+	public static Distribution fixed(final long millis) {
+		return new Distribution() {
+			@Override
+			public long next(Random random) {
+				return millis;
+			}
+		};
+	}
+
+	/**
+	 * @return distribution giving delays from min to max with equal chance
+	 */
+	public static Distribution uniform(final long min, final long max) {
+		return new Distribution() {
+			@Override
+			public long next(Random random) {
+				return min + (long) (random.nextDouble() * (max - min));
+			}
+		};
+	}
+
+	/**
+	 * Log-normal distribution, which has the long tail of real latencies.
+	 *
+	 * @param median
+	 *            median delay, in milliseconds
+	 * @param sigma
+	 *            spread, 0.5 gives p99 about 3 times the median
+	 */
+	public static Distribution logNormal(final long median, final double sigma) {
+		return new Distribution() {
+			@Override
+			public long next(Random random) {
+				return Math.round(median
+						* Math.exp(sigma * random.nextGaussian()));
+			}
+		};
+	}
+}
@@ -0,0 +1,366 @@
+package com.denisigo.moments.fake;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.denisigo.moments.api.Api;
+import com.denisigo.moments.api.ApiCircuitBreaker;
+import com.denisigo.moments.api.ApiException;
+import com.denisigo.moments.api.ApiFetcher;
+import com.denisigo.moments.api.ApiRetryPolicy;
+import com.denisigo.moments.api.Moment;
+import com.denisigo.moments.api.Moments;
+
+/**
+ * Runs the client the way the app does against FakeBackend behind
+ * FaultyTransport, and reports page latencies and how the faults were
+ * handled. Each session refreshes the feed, scrolls it, syncs new moments
+ * and posts one, like MainFragment and MomentOutbox do. Faults, jitter of
+ * retries and posted texts are seeded, and delays of the network and
+ * retries advance VirtualClock instead of being waited for, so the same
+ * scenario gives the same errors and breaker trips every run. Latencies are
+ * the simulated delays plus the real time the client spent.
+ *
+ * Run all the built-in scenarios, or just the named ones:
+ *
+ * gradle :fake-backend:faultScenarios [-Pscenarios=resets,5xx-bursts]
+ */
+public class FaultScenario {
+
+	public static final long DEFAULT_SEED = 42;
+	public static final int DEFAULT_SESSIONS = 10;
+
+	// The same as in MainFragment
+	private static final int LIMIT = 10;
+	// Pages scrolled after the refresh in each session
+	private static final int SCROLLED_PAGES = 3;
+	private static final int POPULATED_MOMENTS = 500;
+	// Time the user spends between operations, in virtual milliseconds
+	private static final long USER_PAUSE = 2000;
+
+	/*
+	 * Operations of the session.
+	 */
+	public enum Operation {
+		REFRESH, SCROLL, SYNC, POST
+	}
+
+	/*
+	 * Results of the scenario run.
+	 */
+	public static class Report {
+		private final String mName;
+		private final long mSeed;
+		private final Map<Operation, LatencyRecorder> mLatencies = new LinkedHashMap<Operation, LatencyRecorder>();
+		private final Map<Operation, int[]> mFailures = new LinkedHashMap<Operation, int[]>();
+		private final Map<String, Integer> mErrors = new TreeMap<String, Integer>();
+		private long mRequestCount;
+		private long mRetryCount;
+		private long mTripCount;
+		private long mBurstCount;
+		private long mResetCount;
+		private long mPartialBodyCount;
+		private int mPostCount;
+		private int mStoredCount;
+
+		Report(String name, long seed) {
+			mName = name;
+			mSeed = seed;
+			for (Operation operation : Operation.values()) {
+				mLatencies.put(operation, new LatencyRecorder());
+				mFailures.put(operation, new int[1]);
+			}
+		}
+
+		public String getName() {
+			return mName;
+		}
+
+		/**
+		 * @return end-to-end latencies of successful operations, with
+		 *         retries and parsing
+		 */
+		public LatencyRecorder getLatency(Operation operation) {
+			return mLatencies.get(operation);
+		}
+
+		public int getFailureCount(Operation operation) {
+			return mFailures.get(operation)[0];
+		}
+
+		/**
+		 * @return amount of failed operations by exception, like
+		 *         "ApiException 503"
+		 */
+		public Map<String, Integer> getErrors() {
+			return mErrors;
+		}
+
+		/**
+		 * @return amount of requests sent by the client, with retries
+		 */
+		public long getRequestCount() {
+			return mRequestCount;
+		}
+
+		public long getRetryCount() {
+			return mRetryCount;
+		}
+
+		public long getTripCount() {
+			return mTripCount;
+		}
+
+		/**
+		 * @return amount of moments which were posted, acknowledged or not
+		 */
+		public int getPostCount() {
+			return mPostCount;
+		}
+
+		/**
+		 * @return amount of posted moments stored by the backend, more than
+		 *         acknowledged ones if responses were lost, more than posted
+		 *         ones if posts were duplicated
+		 */
+		public int getStoredCount() {
+			return mStoredCount;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format(Locale.US, "%s (seed %d)%n", mName, mSeed));
+			sb.append(String.format(Locale.US,
+					"  %-8s %5s %5s %8s %8s %8s %8s%n", "op", "ok", "fail",
+					"p50 ms", "p90 ms", "p99 ms", "max ms"));
+			for (Operation operation : Operation.values()) {
+				LatencyRecorder latency = getLatency(operation);
+				sb.append(String.format(Locale.US,
+						"  %-8s %5d %5d %8.1f %8.1f %8.1f %8.1f%n", operation
+								.name().toLowerCase(Locale.US), latency
+								.getCount(), getFailureCount(operation),
+						latency.getPercentile(50), latency.getPercentile(90),
+						latency.getPercentile(99), latency.getMax()));
+			}
+			sb.append(String.format(Locale.US,
+					"  requests %d, retries %d, breaker trips %d%n",
+					mRequestCount, mRetryCount, mTripCount));
+			sb.append(String.format(Locale.US,
+					"  injected bursts %d, resets %d, partial bodies %d%n",
+					mBurstCount, mResetCount, mPartialBodyCount));
+			int acknowledged = getLatency(Operation.POST).getCount();
+			sb.append(String.format(Locale.US,
+					"  posts %d, acknowledged %d, stored %d%n", mPostCount,
+					acknowledged, mStoredCount));
+			if (!mErrors.isEmpty())
+				sb.append("  errors ").append(mErrors).append('\n');
+			return sb.toString();
+		}
+	}
+
+	private final FaultProfile mProfile;
+
+	public FaultScenario(FaultProfile profile) {
+		mProfile = profile;
+	}
+
+	public FaultProfile getProfile() {
+		return mProfile;
+	}
+
+	/**
+	 * Runs the scenario in the calling thread.
+	 *
+	 * @param sessions
+	 *            amount of sessions
+	 * @param seed
+	 *            seed of faults and posted moments
+	 * @return Report instance
+	 */
+	public Report run(int sessions, long seed) {
+		FakeBackend backend = new FakeBackend();
+		backend.populate(POPULATED_MOMENTS, seed);
+		final VirtualClock clock = new VirtualClock();
+		FaultyTransport transport = new FaultyTransport(new FakeTransport(
+				backend), mProfile, seed, clock);
+		ApiFetcher fetcher = new ApiFetcher(transport);
+		// Shorter delays than in the app, as sessions follow each other
+		// right away
+		fetcher.setRetryPolicy(new ApiRetryPolicy(3, 100, 1000, 2000,
+				new Random(seed)) {
+			@Override
+			public long getDelay(int attempt, long retryAfter) {
+				// Retry is made right away, but later in virtual time
+				long delay = super.getDelay(attempt, retryAfter);
+				if (delay <= 0)
+					return delay;
+				clock.advance(delay);
+				return 0;
+			}
+		});
+		// Reopens after the same requests every run
+		fetcher.setCircuitBreaker(new ApiCircuitBreaker(5, 1000) {
+			@Override
+			protected long now() {
+				return clock.currentTimeMillis();
+			}
+		});
+		Api api = new Api(fetcher, null, FakeTransport.BASE_URL);
+
+		Random random = new Random(seed);
+		Report report = new Report(mProfile.getName(), seed);
+		int momentCount = backend.getMomentCount();
+
+		for (int session = 0; session < sessions; session++) {
+			// Refresh, newest moments
+			long start = begin(clock);
+			Moments page = null;
+			try {
+				page = api.getMoments((String) null, LIMIT);
+				record(report, Operation.REFRESH, now(clock) - start);
+			} catch (IOException e) {
+				fail(report, Operation.REFRESH, e);
+			}
+
+			// Scroll down while there are pages, until the first error
+			String cursor = page != null && page.isMore() ? page.getCursor()
+					: null;
+			for (int i = 0; i < SCROLLED_PAGES && cursor != null; i++) {
+				start = begin(clock);
+				try {
+					Moments older = api.getMoments(cursor, LIMIT);
+					record(report, Operation.SCROLL, now(clock) - start);
+					cursor = older.isMore() ? older.getCursor() : null;
+				} catch (IOException e) {
+					fail(report, Operation.SCROLL, e);
+					cursor = null;
+				}
+			}
+
+			// Sync moments posted since the refresh
+			long fromTime = page != null && page.getMoments().length > 0 ? page
+					.getMoments()[0].getAdded() : 0;
+			start = begin(clock);
+			try {
+				api.getMoments(new Date(fromTime), LIMIT);
+				record(report, Operation.SYNC, now(clock) - start);
+			} catch (IOException e) {
+				fail(report, Operation.SYNC, e);
+			}
+
+			// Post, with the key the outbox would resend it with
+			Moment moment = new Moment("Moment " + random.nextInt(1000000)
+					+ " of session " + session, "scenario");
+			String key = Long.toHexString(random.nextLong());
+			report.mPostCount++;
+			start = begin(clock);
+			try {
+				api.postMoment(moment, key);
+				record(report, Operation.POST, now(clock) - start);
+			} catch (IOException e) {
+				fail(report, Operation.POST, e);
+			}
+		}
+
+		report.mStoredCount = backend.getMomentCount() - momentCount;
+		report.mRequestCount = backend.getRequestCount()
+				+ transport.getBurstCount();
+		report.mRetryCount = fetcher.getRetryCount();
+		report.mTripCount = fetcher.getCircuitBreaker().getTripCount();
+		report.mBurstCount = transport.getBurstCount();
+		report.mResetCount = transport.getResetCount();
+		report.mPartialBodyCount = transport.getPartialBodyCount();
+		return report;
+	}
+
+	/**
+	 * Lets the user pause before the operation, so an open circuit gets
+	 * the time to close.
+	 *
+	 * @return start time of the operation, see now()
+	 */
+	private static long begin(VirtualClock clock) {
+		clock.advance(USER_PAUSE);
+		return now(clock);
+	}
+
+	/**
+	 * @return real time plus virtual time, in nanoseconds
+	 */
+	private static long now(VirtualClock clock) {
+		return System.nanoTime() + clock.currentTimeMillis() * 1000000;
+	}
+
+	private static void record(Report report, Operation operation,
+			long latency) {
+		report.getLatency(operation).record(latency);
+	}
+
+	private static void fail(Report report, Operation operation, IOException e) {
+		report.mFailures.get(operation)[0]++;
+		String error = e.getClass().getSimpleName();
+		if (e instanceof ApiException)
+			error += " " + ((ApiException) e).getStatusCode();
+		Integer count = report.mErrors.get(error);
+		report.mErrors.put(error, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * @return built-in scenarios, from no faults to all of them at once
+	 */
+	public static List<FaultScenario> getScenarios() {
+		List<FaultScenario> scenarios = new ArrayList<FaultScenario>();
+		scenarios.add(new FaultScenario(new FaultProfile("baseline")));
+		scenarios.add(new FaultScenario(new FaultProfile("slow-network")
+				.setLatency(FaultProfile.logNormal(150, 0.5))
+				.setBandwidth(32 * 1024)));
+		scenarios.add(new FaultScenario(new FaultProfile("slow-ttfb")
+				.setLatency(FaultProfile.fixed(20))
+				.setTtfb(FaultProfile.logNormal(300, 0.8))));
+		scenarios.add(new FaultScenario(new FaultProfile("resets")
+				.setLatency(FaultProfile.uniform(10, 40)).setResetRate(0.1)));
+		scenarios.add(new FaultScenario(new FaultProfile("partial-bodies")
+				.setLatency(FaultProfile.uniform(10, 40))
+				.setPartialBodyRate(0.1)));
+		scenarios.add(new FaultScenario(new FaultProfile("5xx-bursts")
+				.setLatency(FaultProfile.uniform(10, 40)).setBursts(0.05, 4,
+						503)));
+		scenarios.add(new FaultScenario(new FaultProfile("flaky-mobile")
+				.setLatency(FaultProfile.logNormal(200, 0.7))
+				.setTtfb(FaultProfile.logNormal(50, 1.0))
+				.setBandwidth(16 * 1024).setResetRate(0.05)
+				.setPartialBodyRate(0.05).setBursts(0.02, 3, 502)));
+		return scenarios;
+	}
+
+	/**
+	 * Runs built-in scenarios and prints their reports.
+	 *
+	 * @param args
+	 *            optional comma-separated names of scenarios to run, seed
+	 *            and amount of sessions
+	 */
+	public static void main(String[] args) {
+		List<String> names = args.length > 0 && args[0].length() > 0 ? Arrays
+				.asList(args[0].split(",")) : null;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_SEED;
+		int sessions = args.length > 2 ? Integer.parseInt(args[2])
+				: DEFAULT_SESSIONS;
+
+		for (FaultScenario scenario : getScenarios()) {
+			if (names != null
+					&& !names.contains(scenario.getProfile().getName()))
+				continue;
+			System.out.println(scenario.run(sessions, seed));
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package com.denisigo.moments.fake;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.SocketException;
+import java.net.URL;
+import java.util.Random;
+
+import com.denisigo.moments.api.ApiTransport;
+
+/**
+ * Transport injecting faults of FaultProfile into exchanges of another one,
+ * usually FakeTransport. Faults are drawn from seeded Random when exchange
+ * is opened, so the same sequence of requests gets the same faults.
+ * Delays are real, as the client measures them with the system clock,
+ * unless VirtualClock is given, which is advanced by them instead.
+ */
+public class FaultyTransport implements ApiTransport {
+
+	private final ApiTransport mTransport;
+	private final FaultProfile mProfile;
+	private final Random mRandom;
+	// Clock advanced by the delays instead of waiting, or null
+	private final VirtualClock mClock;
+
+	// Requests left in the current 5xx burst
+	private int mBurstRemaining;
+
+	// Counters of injected faults
+	private long mBurstCount;
+	private long mResetCount;
+	private long mPartialBodyCount;
+
+	public FaultyTransport(ApiTransport transport, FaultProfile profile,
+			long seed) {
+		this(transport, profile, seed, null);
+	}
+
+	/**
+	 * @param clock
+	 *            VirtualClock advanced by the delays instead of waiting for
+	 *            them, or null for real delays
+	 */
+	public FaultyTransport(ApiTransport transport, FaultProfile profile,
+			long seed, VirtualClock clock) {
+		mTransport = transport;
+		mProfile = profile;
+		mRandom = new Random(seed);
+		mClock = clock;
+	}
+
+	public FaultProfile getProfile() {
+		return mProfile;
+	}
+
+	/**
+	 * @return amount of requests failed by 5xx bursts
+	 */
+	public synchronized long getBurstCount() {
+		return mBurstCount;
+	}
+
+	/**
+	 * @return amount of reset connections
+	 */
+	public synchronized long getResetCount() {
+		return mResetCount;
+	}
+
+	/**
+	 * @return amount of cut off response bodies
+	 */
+	public synchronized long getPartialBodyCount() {
+		return mPartialBodyCount;
+	}
+
+	@Override
+	public Exchange open(URL url, String method) throws IOException {
+		FaultyExchange exchange = new FaultyExchange();
+		synchronized (this) {
+			// Everything is drawn every time, so one fault doesn't shift
+			// the others
+			boolean burst = mRandom.nextDouble() < mProfile.getBurstRate();
+			boolean reset = mRandom.nextDouble() < mProfile.getResetRate();
+			boolean partial = mRandom.nextDouble() < mProfile
+					.getPartialBodyRate();
+			double cut = mRandom.nextDouble();
+			exchange.mDelay = Math.max(mProfile.getLatency().next(mRandom), 0)
+					+ Math.max(mProfile.getTtfb().next(mRandom), 0);
+
+			if (mBurstRemaining > 0) {
+				mBurstRemaining--;
+				exchange.mStatusCode = mProfile.getBurstStatusCode();
+			} else if (burst) {
+				mBurstRemaining = mProfile.getBurstLength() - 1;
+				exchange.mStatusCode = mProfile.getBurstStatusCode();
+			} else if (reset) {
+				exchange.mReset = true;
+			} else if (partial) {
+				exchange.mCut = cut;
+			}
+
+			if (exchange.mStatusCode != 0)
+				mBurstCount++;
+			else if (exchange.mReset)
+				mResetCount++;
+			else if (exchange.mCut >= 0)
+				mPartialBodyCount++;
+		}
+
+		// Failed by burst requests don't reach the server
+		if (exchange.mStatusCode == 0)
+			exchange.mExchange = mTransport.open(url, method);
+		return exchange;
+	}
+
+	/*
+	 * Exchange with faults decided on opening.
+	 */
+	private class FaultyExchange implements Exchange {
+		private Exchange mExchange;
+		private long mDelay;
+		// Status code of failed by burst request, or 0
+		private int mStatusCode;
+		private boolean mReset;
+		// Cut off fraction of the response body, or -1
+		private double mCut = -1;
+		private boolean mResponded;
+		private boolean mDisconnected;
+
+		@Override
+		public void setRequestProperty(String name, String value) {
+			if (mExchange != null)
+				mExchange.setRequestProperty(name, value);
+		}
+
+		@Override
+		public void setFixedLengthStreamingMode(int length) {
+			if (mExchange != null)
+				mExchange.setFixedLengthStreamingMode(length);
+		}
+
+		@Override
+		public void setChunkedStreamingMode() {
+			if (mExchange != null)
+				mExchange.setChunkedStreamingMode();
+		}
+
+		@Override
+		public void connect() throws IOException {
+			checkDisconnected();
+			if (mExchange != null)
+				mExchange.connect();
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			OutputStream os = mExchange != null ? mExchange.getOutputStream()
+					: new OutputStream() {
+						@Override
+						public void write(int b) {
+						}
+					};
+			return new FilterOutputStream(os) {
+				private final Throttle mThrottle = new Throttle();
+
+				@Override
+				public void write(byte[] b, int off, int len)
+						throws IOException {
+					mThrottle.pass(len);
+					out.write(b, off, len);
+				}
+
+				@Override
+				public void write(int b) throws IOException {
+					mThrottle.pass(1);
+					out.write(b);
+				}
+			};
+		}
+
+		@Override
+		public int getResponseCode() throws IOException {
+			if (!mResponded) {
+				pause(mDelay);
+				mResponded = true;
+			}
+			if (mStatusCode != 0)
+				return mStatusCode;
+
+			int statusCode = mExchange.getResponseCode();
+			// After the server has processed the request
+			if (mReset)
+				throw new SocketException("Connection reset");
+			return statusCode;
+		}
+
+		@Override
+		public String getHeaderField(String name) {
+			if (mExchange != null)
+				return mExchange.getHeaderField(name);
+			if (name.equalsIgnoreCase("Content-Type"))
+				return "application/json; charset=utf-8";
+			return null;
+		}
+
+		@Override
+		public long getContentLength() {
+			return mExchange != null ? mExchange.getContentLength() : -1;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			int statusCode = getResponseCode();
+			InputStream is;
+			long length;
+			if (mExchange != null) {
+				is = mExchange.getInputStream();
+				length = mExchange.getContentLength();
+			} else {
+				byte[] body = errorBody(statusCode);
+				is = new ByteArrayInputStream(body);
+				length = body.length;
+			}
+			if (is == null)
+				return null;
+
+			final long limit = mCut >= 0 && length > 0 ? (long) (length * mCut)
+					: Long.MAX_VALUE;
+			return new FilterInputStream(is) {
+				private final Throttle mThrottle = new Throttle();
+				private long mRead;
+
+				@Override
+				public int read() throws IOException {
+					byte[] b = new byte[1];
+					return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (mRead >= limit)
+						throw new IOException("unexpected end of stream");
+					len = (int) Math.min(len, limit - mRead);
+					int count = super.read(b, off, len);
+					if (count > 0) {
+						mRead += count;
+						mThrottle.pass(count);
+					}
+					return count;
+				}
+			};
+		}
+
+		@Override
+		public void disconnect() {
+			synchronized (this) {
+				mDisconnected = true;
+				// Wake up pause()
+				notifyAll();
+			}
+			if (mExchange != null)
+				mExchange.disconnect();
+		}
+
+		/*
+		 * Waits for the given time, or until disconnected.
+		 */
+		private synchronized void pause(long millis) throws IOException {
+			if (mClock != null) {
+				mClock.advance(millis);
+				checkDisconnected();
+				return;
+			}
+
+			long deadline = System.currentTimeMillis() + millis;
+			long remaining = millis;
+			while (remaining > 0 && !mDisconnected) {
+				try {
+					wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Delay is interrupted");
+				}
+				remaining = deadline - System.currentTimeMillis();
+			}
+			checkDisconnected();
+		}
+
+		private synchronized void checkDisconnected() throws IOException {
+			if (mDisconnected)
+				throw new SocketException("Socket closed");
+		}
+
+		/*
+		 * Holds bytes back to the bandwidth of the profile.
+		 */
+		private class Throttle {
+			private long mStart = -1;
+			private long mBytes;
+
+			void pass(int count) throws IOException {
+				long bandwidth = mProfile.getBandwidth();
+				if (bandwidth <= 0)
+					return;
+				if (mStart == -1)
+					mStart = currentTimeMillis();
+				mBytes += count;
+				pause(mStart + mBytes * 1000 / bandwidth - currentTimeMillis());
+			}
+		}
+	}
+
+	private long currentTimeMillis() {
+		return mClock != null ? mClock.currentTimeMillis() : System
+				.currentTimeMillis();
+	}
+
+	private static byte[] errorBody(int statusCode) {
+		try {
+			return ("{\"error\": {\"code\": " + statusCode
+					+ ", \"message\": \"Injected failure\"}}").getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
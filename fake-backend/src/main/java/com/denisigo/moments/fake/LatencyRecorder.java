@@ -0,0 +1,77 @@
+package com.denisigo.moments.fake;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Records latencies and gives exact percentiles of them. Thread-safe.
+ */
+public class LatencyRecorder {
+
+	private long[] mSamples = new long[256];
+	private int mCount;
+	private long mSum;
+
+	/**
+	 * @param nanos
+	 *            latency in nanoseconds
+	 */
+	public synchronized void record(long nanos) {
+		if (mCount == mSamples.length)
+			mSamples = Arrays.copyOf(mSamples, mCount * 2);
+		mSamples[mCount++] = nanos;
+		mSum += nanos;
+	}
+
+	public synchronized int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * @return average latency, in milliseconds
+	 */
+	public synchronized double getMean() {
+		return mCount == 0 ? 0 : mSum / 1e6 / mCount;
+	}
+
+	/**
+	 * @param percentile
+	 *            from 0 to 100
+	 * @return latency of the given percentile by nearest rank, in
+	 *         milliseconds
+	 */
+	public synchronized double getPercentile(double percentile) {
+		if (mCount == 0)
+			return 0;
+		// Sorted in place, recording order doesn't matter
+		Arrays.sort(mSamples, 0, mCount);
+		int rank = (int) Math.ceil(mCount * percentile / 100);
+		return mSamples[Math.min(Math.max(rank, 1), mCount) - 1] / 1e6;
+	}
+
+	/**
+	 * @return maximal latency, in milliseconds
+	 */
+	public double getMax() {
+		return getPercentile(100);
+	}
+
+	/**
+	 * Adds samples of another recorder.
+	 */
+	public void add(LatencyRecorder another) {
+		long[] samples;
+		synchronized (another) {
+			samples = Arrays.copyOf(another.mSamples, another.mCount);
+		}
+		for (long sample : samples)
+			record(sample);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US,
+				"n=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f", getCount(), getPercentile(50), getPercentile(90),
+				getPercentile(99), getMax());
+	}
+}
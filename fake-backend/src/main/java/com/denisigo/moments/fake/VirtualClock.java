@@ -0,0 +1,30 @@
+package com.denisigo.moments.fake;
+
+/**
+ * Simulated time, advanced explicitly instead of by waiting. Runs whose
+ * outcome depends on time, like circuit breaker reopening, then give the
+ * same results every time and don't spend the delays for real.
+ * Thread-safe.
+ */
+public class VirtualClock {
+
+	private long mTime;
+
+	/**
+	 * @return time since the clock is created, in milliseconds
+	 */
+	public synchronized long currentTimeMillis() {
+		return mTime;
+	}
+
+	/**
+	 * Moves the time forward, negative amounts are ignored.
+	 *
+	 * @param millis
+	 *            amount of milliseconds
+	 */
+	public synchronized void advance(long millis) {
+		if (millis > 0)
+			mTime += millis;
+	}
+}
@@ -0,0 +1,200 @@
+package com.denisigo.moments.fake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.denisigo.moments.api.Api;
+import com.denisigo.moments.api.ApiException;
+import com.denisigo.moments.api.ApiFetcher;
+import com.denisigo.moments.api.Moment;
+import com.denisigo.moments.api.Moments;
+import com.denisigo.moments.api.Timestamps;
+
+/**
+ * Paging of FakeBackend as seen by the API client, through FakeTransport.
+ */
+public class FakeBackendTest {
+
+	private static final long START = Timestamps.parse("2014-03-08T15:00:00");
+	private static final long MINUTE = 60 * 1000;
+
+	private long mNow = START;
+	private FakeBackend mBackend;
+	private Api mApi;
+
+	@Before
+	public void setUp() {
+		// Virtual time, so added times are known
+		mBackend = new FakeBackend() {
+			@Override
+			protected long currentTimeMillis() {
+				return mNow;
+			}
+		};
+		mApi = new Api(new ApiFetcher(new FakeTransport(mBackend)), null,
+				FakeTransport.BASE_URL);
+	}
+
+	@Test
+	public void pagesThroughAllMomentsNewestFirst() throws IOException {
+		mBackend.populate(25, 42);
+
+		List<Moment> moments = new ArrayList<Moment>();
+		String cursor = null;
+		int pages = 0;
+		do {
+			Moments page = mApi.getMoments(cursor, 10);
+			pages++;
+			for (Moment moment : page.getMoments())
+				moments.add(moment);
+			assertEquals(page.getCursor() != null, page.isMore());
+			cursor = page.getCursor();
+		} while (cursor != null);
+
+		assertEquals(3, pages);
+		assertSameMoments(mBackend.getMoments(), moments);
+	}
+
+	@Test
+	public void cursorIsNotShiftedByNewMoments() throws IOException {
+		mBackend.populate(20, 42);
+		List<Moment> expected = mBackend.getMoments();
+
+		Moments first = mApi.getMoments((String) null, 10);
+		mNow += MINUTE;
+		mBackend.post("newer", null);
+		mBackend.post("newer still", "user");
+		Moments second = mApi.getMoments(first.getCursor(), 10);
+
+		assertSameMoments(expected.subList(10, 20),
+				toList(second.getMoments()));
+		assertFalse(second.isMore());
+	}
+
+	@Test
+	public void returnsMomentsFromTime() throws IOException {
+		mBackend.populate(30, 42);
+
+		// Moments are a minute apart, ending at START
+		long fromTime = START - 4 * MINUTE;
+		Moments page = mApi.getMoments(fromTime, 10);
+
+		assertEquals(5, page.getMoments().length);
+		assertFalse(page.isMore());
+		assertNull(page.getCursor());
+		for (Moment moment : page.getMoments())
+			assertTrue(moment.getAdded() >= fromTime);
+		assertSameMoments(mBackend.getMoments().subList(0, 5),
+				toList(page.getMoments()));
+	}
+
+	@Test
+	public void pagesFromTimeWithCursor() throws IOException {
+		mBackend.populate(30, 42);
+
+		long fromTime = START - 11 * MINUTE;
+		Moments first = mApi.getMoments(null, fromTime, 5);
+		assertTrue(first.isMore());
+		Moments second = mApi.getMoments(first.getCursor(), fromTime, 5);
+		assertTrue(second.isMore());
+		Moments third = mApi.getMoments(second.getCursor(), fromTime, 5);
+		// Cursor is returned only if there are more moments from the time
+		assertFalse(third.isMore());
+
+		List<Moment> moments = toList(first.getMoments());
+		moments.addAll(toList(second.getMoments()));
+		moments.addAll(toList(third.getMoments()));
+		assertSameMoments(mBackend.getMoments().subList(0, 12), moments);
+	}
+
+	@Test
+	public void returnsNothingFromFutureTime() throws IOException {
+		mBackend.populate(5, 42);
+
+		Moments page = mApi.getMoments(START + MINUTE, 10);
+		assertEquals(0, page.getMoments().length);
+		assertFalse(page.isMore());
+	}
+
+	@Test
+	public void rejectsInvalidLimit() throws IOException {
+		try {
+			mApi.getMoments((String) null, 0);
+			fail("Invalid limit is accepted");
+		} catch (ApiException e) {
+			assertEquals(400, e.getStatusCode());
+			assertTrue(e.isPermanent());
+		}
+	}
+
+	@Test
+	public void postsOnceByIdempotencyKey() throws IOException {
+		Moment first = mApi.postMoment(new Moment("text", "user"), "key");
+		Moment second = mApi.postMoment(new Moment("text", "user"), "key");
+
+		assertNotNull(first);
+		assertEquals(first.getId(), second.getId());
+		assertEquals(1, mBackend.getMomentCount());
+		assertEquals("text", first.getText());
+		assertEquals("user", first.getAuthorName());
+		assertEquals(START, first.getAdded());
+	}
+
+	@Test
+	public void postsBatchInOrder() throws IOException {
+		Moment[] posted = mApi.postMoments(new Moment[] {
+				new Moment("first", "user"), new Moment("second", null) },
+				"batch");
+		Moment[] again = mApi.postMoments(new Moment[] {
+				new Moment("first", "user"), new Moment("second", null) },
+				"batch");
+
+		assertEquals(2, posted.length);
+		assertEquals("first", posted[0].getText());
+		assertEquals("second", posted[1].getText());
+		assertNull(posted[1].getAuthorName());
+		assertEquals(posted[1].getId(), again[1].getId());
+		assertEquals(2, mBackend.getMomentCount());
+	}
+
+	@Test
+	public void rejectsWholeBatchWithInvalidMoment() throws IOException {
+		try {
+			mApi.postMoments(new Moment[] { new Moment("valid", null),
+					new Moment(" ", null) }, null);
+			fail("Invalid moment is accepted");
+		} catch (ApiException e) {
+			assertEquals(400, e.getStatusCode());
+		}
+		assertEquals(0, mBackend.getMomentCount());
+	}
+
+	private static List<Moment> toList(Moment[] moments) {
+		List<Moment> list = new ArrayList<Moment>(moments.length);
+		for (Moment moment : moments)
+			list.add(moment);
+		return list;
+	}
+
+	private static void assertSameMoments(List<Moment> expected,
+			List<Moment> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals("Position " + i, expected.get(i).getId(), actual
+					.get(i).getId());
+			assertEquals(expected.get(i).getText(), actual.get(i).getText());
+			assertEquals(expected.get(i).getAdded(), actual.get(i).getAdded());
+		}
+	}
+}
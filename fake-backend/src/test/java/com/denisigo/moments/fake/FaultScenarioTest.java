@@ -0,0 +1,95 @@
+package com.denisigo.moments.fake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+
+/**
+ * Outcomes of the built-in fault scenarios. They run in virtual time, so
+ * the counts are exact, and a change in how the client handles faults
+ * shows up here. Update the expectations only if the change is intended.
+ */
+public class FaultScenarioTest {
+
+	@Test
+	public void baseline() {
+		assertOutcome(run("baseline"), "{}", 60, 0, 0, 10);
+	}
+
+	@Test
+	public void slowNetwork() {
+		assertOutcome(run("slow-network"), "{}", 60, 0, 0, 10);
+	}
+
+	@Test
+	public void slowTtfb() {
+		assertOutcome(run("slow-ttfb"), "{}", 60, 0, 0, 10);
+	}
+
+	@Test
+	public void resets() {
+		assertOutcome(run("resets"), "{}", 64, 4, 0, 10);
+	}
+
+	@Test
+	public void partialBodies() {
+		assertOutcome(run("partial-bodies"), "{}", 63, 3, 0, 10);
+	}
+
+	@Test
+	public void bursts() {
+		assertOutcome(run("5xx-bursts"), "{ApiException 503=1}", 63, 3, 0, 10);
+	}
+
+	@Test
+	public void flakyMobile() {
+		assertOutcome(run("flaky-mobile"), "{}", 70, 10, 0, 10);
+	}
+
+	@Test
+	public void flakyMobileTrippingBreaker() {
+		FaultScenario.Report report = scenario("flaky-mobile").run(60, 7);
+		assertOutcome(report, "{ApiException 502=4, IOException=2, "
+				+ "SocketException=1}", 409, 56, 4, 59);
+	}
+
+	@Test
+	public void repeatsOutcome() {
+		FaultScenario.Report first = scenario("flaky-mobile").run(60, 7);
+		FaultScenario.Report second = scenario("flaky-mobile").run(60, 7);
+		assertOutcome(second, first.getErrors().toString(),
+				first.getRequestCount(), first.getRetryCount(),
+				first.getTripCount(), first.getStoredCount());
+		for (FaultScenario.Operation operation : FaultScenario.Operation
+				.values())
+			assertEquals(first.getFailureCount(operation),
+					second.getFailureCount(operation));
+	}
+
+	private static FaultScenario.Report run(String name) {
+		return scenario(name).run(FaultScenario.DEFAULT_SESSIONS,
+				FaultScenario.DEFAULT_SEED);
+	}
+
+	private static FaultScenario scenario(String name) {
+		FaultScenario found = null;
+		for (FaultScenario scenario : FaultScenario.getScenarios()) {
+			if (scenario.getProfile().getName().equals(name))
+				found = scenario;
+		}
+		assertNotNull("No scenario " + name, found);
+		return found;
+	}
+
+	private static void assertOutcome(FaultScenario.Report report,
+			String errors, long requests, long retries, long trips,
+			int stored) {
+		String name = report.getName();
+		assertEquals(name + " errors", errors, report.getErrors().toString());
+		assertEquals(name + " requests", requests, report.getRequestCount());
+		assertEquals(name + " retries", retries, report.getRetryCount());
+		assertEquals(name + " breaker trips", trips, report.getTripCount());
+		assertEquals(name + " stored posts", stored, report.getStoredCount());
+	}
+}
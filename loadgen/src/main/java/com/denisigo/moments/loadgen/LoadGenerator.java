@@ -0,0 +1,432 @@
+package com.denisigo.moments.loadgen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.denisigo.moments.api.Api;
+import com.denisigo.moments.api.ApiConnectionPool;
+import com.denisigo.moments.api.ApiException;
+import com.denisigo.moments.api.ApiFetcher;
+import com.denisigo.moments.api.Moment;
+import com.denisigo.moments.api.Moments;
+import com.denisigo.moments.fake.FakeBackend;
+import com.denisigo.moments.fake.FakeServer;
+import com.denisigo.moments.fake.LatencyRecorder;
+
+/**
+ * Headless load generator. Simulated users scroll the feed, refresh it and
+ * post moments through Api, each with its own client like separate devices,
+ * and the report gives throughput, latency percentiles and error rates.
+ *
+ * Users act at the given rate with random pauses in between. Latency is
+ * measured from the time the action was due, so a slow server can't hide
+ * by delaying the requests it would answer slowly. Rate 0 makes users act
+ * back to back instead.
+ *
+ * Run against a local FakeServer started in-process, or any server:
+ *
+ * gradle :loadgen:run --args="clients=50 duration=60 mix=scroll:6,refresh:3,post:1"
+ * gradle :loadgen:run --args="url=http://127.0.0.1:8080/api/v1/"
+ */
+public class LoadGenerator {
+
+	/*
+	 * User actions.
+	 */
+	public enum Operation {
+		// Next page of the feed, getMoments(String, int)
+		SCROLL,
+		// Moments since the newest one seen, getMoments(Date, int)
+		REFRESH,
+		// New moment, postMoment()
+		POST
+	}
+
+	/*
+	 * Settings of the run.
+	 */
+	public static class Config {
+		// Base URL of the API, or null for in-process FakeServer
+		String mUrl;
+		int mClients = 20;
+		// Seconds of warm-up, not reported, and of measurement
+		int mWarmup = 5;
+		int mDuration = 30;
+		// Actions per second of each user, 0 for back to back
+		double mRate = 1;
+		int mLimit = 10;
+		long mSeed = 42;
+		// Moments populated in FakeServer
+		int mMoments = 1000;
+		final Map<Operation, Integer> mMix = new LinkedHashMap<Operation, Integer>();
+
+		public Config() {
+			mMix.put(Operation.SCROLL, 6);
+			mMix.put(Operation.REFRESH, 3);
+			mMix.put(Operation.POST, 1);
+		}
+
+		/**
+		 * Parses arguments like "clients=50 rate=2 mix=scroll:8,post:2".
+		 *
+		 * @throws IllegalArgumentException
+		 *             if argument is unknown or invalid
+		 */
+		public static Config parse(String[] args) {
+			Config config = new Config();
+			for (String arg : args) {
+				int eq = arg.indexOf('=');
+				if (eq == -1)
+					throw new IllegalArgumentException("Invalid argument: "
+							+ arg);
+				String name = arg.substring(0, eq);
+				String value = arg.substring(eq + 1);
+				if (name.equals("url"))
+					config.mUrl = value.endsWith("/") ? value : value + "/";
+				else if (name.equals("clients"))
+					config.mClients = Integer.parseInt(value);
+				else if (name.equals("warmup"))
+					config.mWarmup = Integer.parseInt(value);
+				else if (name.equals("duration"))
+					config.mDuration = Integer.parseInt(value);
+				else if (name.equals("rate"))
+					config.mRate = Double.parseDouble(value);
+				else if (name.equals("limit"))
+					config.mLimit = Integer.parseInt(value);
+				else if (name.equals("seed"))
+					config.mSeed = Long.parseLong(value);
+				else if (name.equals("moments"))
+					config.mMoments = Integer.parseInt(value);
+				else if (name.equals("mix"))
+					config.parseMix(value);
+				else
+					throw new IllegalArgumentException("Unknown argument: "
+							+ name);
+			}
+			if (config.mClients <= 0 || config.mDuration <= 0
+					|| config.mWarmup < 0 || config.mRate < 0
+					|| config.mLimit <= 0)
+				throw new IllegalArgumentException("Invalid settings");
+			if (config.getTotalWeight() == 0)
+				throw new IllegalArgumentException("Mix has no operations");
+			return config;
+		}
+
+		int getTotalWeight() {
+			int total = 0;
+			for (int weight : mMix.values())
+				total += weight;
+			return total;
+		}
+
+		private void parseMix(String value) {
+			mMix.clear();
+			for (String part : value.split(",")) {
+				int colon = part.indexOf(':');
+				if (colon == -1)
+					throw new IllegalArgumentException("Invalid mix: " + part);
+				Operation operation = Operation.valueOf(part
+						.substring(0, colon).toUpperCase(Locale.US));
+				int weight = Integer.parseInt(part.substring(colon + 1));
+				if (weight < 0)
+					throw new IllegalArgumentException("Invalid mix: " + part);
+				mMix.put(operation, weight);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US,
+					"clients=%d warmup=%ds duration=%ds rate=%s/s limit=%d "
+							+ "mix=%s seed=%d", mClients, mWarmup, mDuration,
+					mRate > 0 ? Double.toString(mRate) : "max", mLimit, mMix,
+					mSeed);
+		}
+	}
+
+	/*
+	 * Results of the run, updated by users concurrently.
+	 */
+	public static class Report {
+		private final Map<Operation, LatencyRecorder> mLatencies = new LinkedHashMap<Operation, LatencyRecorder>();
+		private final Map<Operation, long[]> mFailures = new LinkedHashMap<Operation, long[]>();
+		private final Map<String, Long> mErrors = new TreeMap<String, Long>();
+		private long mDuration;
+
+		Report() {
+			for (Operation operation : Operation.values()) {
+				mLatencies.put(operation, new LatencyRecorder());
+				mFailures.put(operation, new long[1]);
+			}
+		}
+
+		/**
+		 * @return latencies of successful actions
+		 */
+		public LatencyRecorder getLatency(Operation operation) {
+			return mLatencies.get(operation);
+		}
+
+		public synchronized long getFailureCount(Operation operation) {
+			return mFailures.get(operation)[0];
+		}
+
+		/**
+		 * @return amount of failures by exception, like "ApiException 503"
+		 */
+		public synchronized Map<String, Long> getErrors() {
+			return new TreeMap<String, Long>(mErrors);
+		}
+
+		/**
+		 * @return measured time, in milliseconds
+		 */
+		public long getDuration() {
+			return mDuration;
+		}
+
+		synchronized void fail(Operation operation, IOException e) {
+			mFailures.get(operation)[0]++;
+			String error = e.getClass().getSimpleName();
+			if (e instanceof ApiException)
+				error += " " + ((ApiException) e).getStatusCode();
+			Long count = mErrors.get(error);
+			mErrors.put(error, count == null ? 1 : count + 1);
+		}
+
+		@Override
+		public String toString() {
+			double seconds = mDuration / 1000.0;
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format(Locale.US,
+					"  %-8s %8s %8s %7s %8s %8s %8s %8s %8s%n", "op",
+					"ok/s", "ok", "errors", "p50 ms", "p90 ms", "p99 ms",
+					"p99.9 ms", "max ms"));
+			long totalOk = 0;
+			long totalFailed = 0;
+			for (Operation operation : Operation.values()) {
+				LatencyRecorder latency = getLatency(operation);
+				long ok = latency.getCount();
+				long failed = getFailureCount(operation);
+				totalOk += ok;
+				totalFailed += failed;
+				sb.append(String.format(Locale.US,
+						"  %-8s %8.1f %8d %6.2f%% %8.1f %8.1f %8.1f %8.1f %8.1f%n",
+						operation.name().toLowerCase(Locale.US), ok / seconds,
+						ok, errorRate(ok, failed), latency.getPercentile(50),
+						latency.getPercentile(90), latency.getPercentile(99),
+						latency.getPercentile(99.9), latency.getMax()));
+			}
+			sb.append(String.format(Locale.US,
+					"  total %.1f ok/s, %d ok, %d failed (%.2f%%) in %.1f s%n",
+					totalOk / seconds, totalOk, totalFailed,
+					errorRate(totalOk, totalFailed), seconds));
+			Map<String, Long> errors = getErrors();
+			if (!errors.isEmpty())
+				sb.append("  errors ").append(errors).append('\n');
+			return sb.toString();
+		}
+
+		private static double errorRate(long ok, long failed) {
+			return ok + failed == 0 ? 0 : 100.0 * failed / (ok + failed);
+		}
+	}
+
+	private final Config mConfig;
+	private final String mBaseUrl;
+	// Shared by all users, models keeping a connection for each, the way
+	// main() configures the platform
+	private final ApiConnectionPool mPool;
+
+	// Report of the measurement, null during warm-up
+	private volatile Report mReport;
+	private volatile boolean mStopped;
+
+	public LoadGenerator(Config config, String baseUrl) {
+		mConfig = config;
+		mBaseUrl = baseUrl;
+		mPool = new ApiConnectionPool(config.mClients,
+				ApiConnectionPool.DEFAULT_KEEP_ALIVE_DURATION);
+	}
+
+	/**
+	 * Runs warm-up and measurement, blocking until they are over.
+	 *
+	 * @return Report of the measurement
+	 */
+	public Report run() throws InterruptedException {
+		List<Thread> users = new ArrayList<Thread>(mConfig.mClients);
+		for (int i = 0; i < mConfig.mClients; i++) {
+			final User user = new User(i);
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					user.run();
+				}
+			}, "User " + i);
+			thread.setDaemon(true);
+			users.add(thread);
+			thread.start();
+		}
+
+		Thread.sleep(mConfig.mWarmup * 1000L);
+		Report report = new Report();
+		long start = System.nanoTime();
+		mReport = report;
+		Thread.sleep(mConfig.mDuration * 1000L);
+		mReport = null;
+		report.mDuration = (System.nanoTime() - start) / 1000000;
+
+		// Actions in flight aren't reported, so there is no need to wait
+		mStopped = true;
+		for (Thread thread : users)
+			thread.join(1000);
+		return report;
+	}
+
+	/*
+	 * Simulated user with its own client and feed position.
+	 */
+	private class User {
+		private final Api mApi;
+		private final Random mRandom;
+		private final int mNumber;
+		private final int mTotalWeight;
+
+		private String mCursor;
+		private long mNewest;
+		private int mPostCount;
+
+		User(int number) {
+			mNumber = number;
+			mRandom = new Random(mConfig.mSeed + number);
+			mApi = new Api(new ApiFetcher(mPool), null, mBaseUrl);
+			mTotalWeight = mConfig.getTotalWeight();
+		}
+
+		void run() {
+			// Users start spread over the first pause
+			long due = System.nanoTime() + pause();
+			while (!mStopped) {
+				if (mConfig.mRate > 0) {
+					long delay = due - System.nanoTime();
+					if (delay > 0) {
+						try {
+							Thread.sleep(delay / 1000000,
+									(int) (delay % 1000000));
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				} else {
+					due = System.nanoTime();
+				}
+				if (mStopped)
+					return;
+
+				Operation operation = nextOperation();
+				Report report = mReport;
+				try {
+					perform(operation);
+					if (report != null && report == mReport)
+						report.getLatency(operation).record(
+								System.nanoTime() - due);
+				} catch (IOException e) {
+					if (report != null && report == mReport)
+						report.fail(operation, e);
+				}
+
+				due += pause();
+			}
+		}
+
+		private void perform(Operation operation) throws IOException {
+			switch (operation) {
+			case SCROLL:
+				// From the top when the end is reached
+				Moments page = mApi.getMoments(mCursor, mConfig.mLimit);
+				mCursor = page.isMore() ? page.getCursor() : null;
+				see(page);
+				break;
+			case REFRESH:
+				see(mApi.getMoments(new Date(mNewest), mConfig.mLimit));
+				break;
+			case POST:
+				Moment moment = new Moment("Load " + mNumber + "-"
+						+ mPostCount++ + " " + mRandom.nextInt(1000000),
+						"user" + mNumber);
+				mApi.postMoment(moment, Long.toHexString(mRandom.nextLong()));
+				break;
+			}
+		}
+
+		private void see(Moments page) {
+			for (Moment moment : page.getMoments())
+				mNewest = Math.max(mNewest, moment.getAdded());
+		}
+
+		private Operation nextOperation() {
+			int roll = mRandom.nextInt(mTotalWeight);
+			for (Map.Entry<Operation, Integer> entry : mConfig.mMix
+					.entrySet()) {
+				roll -= entry.getValue();
+				if (roll < 0)
+					return entry.getKey();
+			}
+			throw new AssertionError();
+		}
+
+		/*
+		 * @return exponentially distributed pause, in nanoseconds
+		 */
+		private long pause() {
+			if (mConfig.mRate <= 0)
+				return 0;
+			return (long) (-Math.log(1 - mRandom.nextDouble())
+					/ mConfig.mRate * 1e9);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Config config;
+		try {
+			config = Config.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Arguments: [url=...] [clients=20] [warmup=5] "
+					+ "[duration=30] [rate=1] [limit=10] [seed=42] "
+					+ "[moments=1000] [mix=scroll:6,refresh:3,post:1]");
+			System.exit(2);
+			return;
+		}
+		FakeServer server = null;
+		String baseUrl = config.mUrl;
+		if (baseUrl == null) {
+			FakeBackend backend = new FakeBackend();
+			backend.populate(config.mMoments, config.mSeed);
+			server = new FakeServer(backend);
+			baseUrl = server.getBaseUrl();
+		}
+
+		// Before the first connection, the platform reads it once
+		ApiConnectionPool.configurePlatform(config.mClients,
+				ApiConnectionPool.DEFAULT_KEEP_ALIVE_DURATION);
+
+		System.out.println("Load of " + baseUrl + ", " + config);
+		LoadGenerator generator = new LoadGenerator(config, baseUrl);
+		System.out.print(generator.run());
+		System.out.println("  " + generator.mPool);
+		if (server != null) {
+			System.out.println("  " + server.getBackend());
+			server.stop();
+		}
+		System.exit(0);
+	}
+}